@@ -1,17 +1,24 @@
 package org.group22;
 
+import org.group22.ci.BuildAgent;
 import org.group22.server.ContinuousIntegrationServer;
+import org.group22.utilities.Configuration;
 
 public class App {
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(App.class);
 
     /**
-     * Entry point for the program.
+     * Entry point for the program. With {@code CI_MODE=agent} the program runs builds for a coordinator instead of
+     * running the server.
      *
      * @param args Command line arguments
      */
     public static void main(String[] args) {
         try {
+            if ("agent".equals(Configuration.CI_MODE)) {
+                BuildAgent.runAgent(args);
+                return;
+            }
             ContinuousIntegrationServer server = new ContinuousIntegrationServer();
             server.runServer(args);
         } catch (Exception e) {
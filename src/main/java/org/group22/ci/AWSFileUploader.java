@@ -1,46 +1,216 @@
 package org.group22.ci;
 
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.SdkClientException;
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
-import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.group22.utilities.Configuration;
 import org.group22.utilities.Helpers;
+import org.group22.utilities.ReportTemplate;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 public class AWSFileUploader {
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(AWSFileUploader.class);
-    private final AmazonS3 s3Client;
     private static final String CONNECTION_ERROR = "Failed to contact AWS S3 or the client couldn't parse the response from Amazon S3";
+    private static final AtomicInteger UPLOAD_THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService UPLOAD_EXECUTOR = Executors.newFixedThreadPool(Configuration.UPLOAD_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "report-upload-" + UPLOAD_THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static AmazonS3 sharedClient;
+    private static TransferManager sharedTransferManager;
+    private final AmazonS3 s3Client;
+    private final TransferManager transferManager;
+    private final String bucket;
+    private final ReportIndex reportIndex;
+    private final BuildRegistry registry;
+
     /**
-     * Creates and initializes a {@code AWSFileUploader} object. The constructor setups the authentication with
-     * AWS services and sets the region.
+     * Creates and initializes a {@code AWSFileUploader} object. All uploaders share one S3 client, which is set up
+     * with the AWS credentials and region the first time an uploader is created.
      */
     public AWSFileUploader() {
+        synchronized (AWSFileUploader.class) {
+            if (sharedClient == null) {
+                sharedClient = createClient();
+                sharedTransferManager = createTransferManager(sharedClient);
+            }
+            s3Client = sharedClient;
+            transferManager = sharedTransferManager;
+        }
+        bucket = Configuration.BUCKET_NAME;
+        reportIndex = ReportIndex.getInstance();
+        registry = BuildRegistry.getInstance();
+    }
+
+    /**
+     * Creates a {@code AWSFileUploader} object that uses {@code s3Client}, e.g. a client for a local S3 stand-in, and
+     * adds the uploaded reports to {@code reportIndex} and {@code registry} instead of the shared ones.
+     *
+     * @param s3Client    the client used to contact S3
+     * @param bucket      the bucket the reports are uploaded to
+     * @param reportIndex the index the uploaded reports are added to
+     * @param registry    the registry the uploaded reports are added to
+     */
+    AWSFileUploader(@NotNull final AmazonS3 s3Client, @NotNull final String bucket, @NotNull final ReportIndex reportIndex,
+                    @NotNull final BuildRegistry registry) {
+        this.s3Client = s3Client;
+        this.transferManager = createTransferManager(s3Client);
+        this.bucket = bucket;
+        this.reportIndex = reportIndex;
+        this.registry = registry;
+    }
+
+    /**
+     * Creates the S3 client. Failed requests are retried with exponential backoff up to {@code S3_MAX_RETRIES} times.
+     * If {@code S3_ENDPOINT} is set the client talks to that endpoint with path-style addressing instead of AWS.
+     *
+     * @return the S3 client
+     */
+    @NotNull
+    private static AmazonS3 createClient() {
         AWSCredentials credentials = new BasicAWSCredentials(Configuration.AWS_ACCESS_KEY_ID, Configuration.AWS_SECRET_KEY);
+        ClientConfiguration clientConfiguration = new ClientConfiguration()
+                .withRetryPolicy(PredefinedRetryPolicies.getDefaultRetryPolicyWithCustomMaxRetries(Configuration.S3_MAX_RETRIES));
 
-        Regions clientRegion = Regions.fromName(Configuration.S3_BUCKET_REGION);
-        s3Client = AmazonS3ClientBuilder.standard()
+        AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard()
                 .withCredentials(new AWSStaticCredentialsProvider(credentials))
-                .withRegion(clientRegion).build();
+                .withClientConfiguration(clientConfiguration);
+        if (Configuration.S3_ENDPOINT != null) {
+            builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(Configuration.S3_ENDPOINT, Configuration.S3_BUCKET_REGION))
+                    .withPathStyleAccessEnabled(true);
+        } else {
+            builder.withRegion(Regions.fromName(Configuration.S3_BUCKET_REGION));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates the {@code TransferManager} used for the uploads. Files larger than {@code S3_MULTIPART_THRESHOLD_MB}
+     * are uploaded in parts, in parallel.
+     *
+     * @param s3Client the client used to contact S3
+     * @return the {@code TransferManager}
+     */
+    @NotNull
+    private static TransferManager createTransferManager(@NotNull final AmazonS3 s3Client) {
+        return TransferManagerBuilder.standard()
+                .withS3Client(s3Client)
+                .withMultipartUploadThreshold(Configuration.S3_MULTIPART_THRESHOLD_MB * 1024L * 1024L)
+                .build();
     }
 
+    /**
+     * Uploads the text report and the HTML report of a build. The build is added to the index once both are uploaded.
+     *
+     * @param fileName the name of the file
+     */
     public void upload(final String fileName) {
-        uploadFile(fileName);
-        uploadHTML(fileName);
+        if (uploadFile(fileName) && uploadHTML(fileName)) published(fileName);
+    }
+
+    /**
+     * Uploads the text report and the HTML report of a build in the background. The two reports are uploaded at the
+     * same time, and the HTML report is rendered from {@code result} straight into the upload, so the text report
+     * doesn't have to be parsed again. If the build didn't run any tests only the text report is uploaded. The build is
+     * added to the index only once every report is uploaded, so the index never links to a missing report.
+     *
+     * @param fileName the name of the file
+     * @param result   the test results of the build, or {@code null} if no tests were run
+     * @return a future that completes with {@code true} if every report was uploaded
+     */
+    public CompletableFuture<Boolean> upload(final String fileName, @Nullable final Helpers.Result result) {
+        final CompletableFuture<Boolean> text = CompletableFuture.supplyAsync(() -> uploadFile(fileName), UPLOAD_EXECUTOR);
+        final CompletableFuture<Boolean> uploaded;
+        if (result == null) {
+            logger.warn("Build {} has no test results, skipping the HTML report", fileName);
+            uploaded = text;
+        } else {
+            final CompletableFuture<Boolean> html = CompletableFuture.supplyAsync(() -> putRenderedHTML(fileName, result), UPLOAD_EXECUTOR);
+            uploaded = text.thenCombine(html, (textUploaded, htmlUploaded) -> textUploaded && htmlUploaded);
+        }
+        return uploaded.thenApplyAsync(allUploaded -> allUploaded && published(fileName), UPLOAD_EXECUTOR);
+    }
+
+    /**
+     * Uploads the reports of a build again in the background, e.g. because the server stopped during the first upload.
+     * The HTML report is rendered from the text report on disk, and only if the build ran any tests. The build is added
+     * to the index once every report is uploaded.
+     *
+     * @param fileName the name of the file
+     * @return a future that completes with {@code true} if every report was uploaded
+     */
+    public CompletableFuture<Boolean> uploadAgain(final String fileName) {
+        return CompletableFuture.supplyAsync(() -> {
+            if (!uploadFile(fileName)) return false;
+            try {
+                Helpers.txtToHTMLFile(fileName);
+                if (!putHTML(fileName)) return false;
+            } catch (ParseException e) {
+                logger.warn("Build {} has no test results, skipping the HTML report", fileName);
+            } catch (IOException e) {
+                logger.error("Failed to create HTML report", e);
+                return false;
+            }
+            return published(fileName);
+        }, UPLOAD_EXECUTOR);
+    }
+
+    /**
+     * Adds a build whose reports are all uploaded to the index, in the bucket and locally, and to the
+     * {@code BuildRegistry}.
+     *
+     * @param fileName the name of the build report
+     * @return {@code true} if the build was added to the index in the bucket, otherwise {@code false}
+     */
+    private boolean published(final String fileName) {
+        try {
+            reportIndex.record(s3Client, bucket, fileName);
+        } catch (AmazonServiceException e) {
+            logger.error("Amazon S3 failed to add build {} to the report index", fileName, e);
+            return false;
+        } catch (SdkClientException e) {
+            logger.error(CONNECTION_ERROR, e);
+            return false;
+        }
+        registry.add(fileName);
+        return true;
     }
 
     /**
@@ -52,26 +222,7 @@ public class AWSFileUploader {
     public boolean uploadHTML(final String fileName) {
         try {
             Helpers.txtToHTMLFile(fileName);
-            final String folderFileName = "reports_html/" + fileName + ".html";
-            PutObjectRequest request = new PutObjectRequest(
-                    Configuration.BUCKET_NAME,
-                    folderFileName,
-                    new File(Configuration.PATH_TO_REPORTS_HTML + fileName + ".html")
-            );
-
-            ObjectMetadata metadata = new ObjectMetadata();
-            metadata.setContentType("plain/html");
-            metadata.addUserMetadata("x-amz-meta-title", fileName);
-            metadata.setContentDisposition("inline");
-            request.setMetadata(metadata);
-            s3Client.putObject(request);
-            Helpers.updatePreviousBuilds(fileName);
-            logger.info("Uploaded HTML file: {} to S3 bucket: {} ", fileName, Configuration.BUCKET_NAME);
-            return true;
-        } catch (AmazonServiceException e) {
-            logger.error("Amazon S3 failed to process the file: {}", fileName, e);
-        } catch (SdkClientException e) {
-            logger.error(CONNECTION_ERROR, e);
+            return putHTML(fileName);
         } catch (IOException e) {
             logger.error("Failed to create HTML report", e);
         } catch (ParseException e) {
@@ -81,6 +232,56 @@ public class AWSFileUploader {
         return false;
     }
 
+    /**
+     * Uploads the generated HTML report specified by {@code fileName} to an AWS bucket.
+     *
+     * @param fileName the name of the file
+     * @return {@code true} if the upload was successful, otherwise {@code false}
+     */
+    private boolean putHTML(final String fileName) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType("text/html;charset=utf-8");
+        metadata.addUserMetadata("x-amz-meta-title", fileName);
+        metadata.setContentDisposition("inline");
+
+        if (!putCompressed(new File(Configuration.PATH_TO_REPORTS_HTML + fileName + ".html"),
+                "reports_html/" + fileName + ".html", metadata)) return false;
+        logger.info("Uploaded HTML file: {} to S3 bucket: {} ", fileName, bucket);
+        return true;
+    }
+
+    /**
+     * Renders the HTML report of a build and uploads it without writing it to disk. The report is compressed while it
+     * is rendered, and its size is bounded by the number of failure details kept, so it is buffered in memory.
+     *
+     * @param fileName the name of the build report
+     * @param result   the test results of the build
+     * @return {@code true} if the upload was successful, otherwise {@code false}
+     */
+    private boolean putRenderedHTML(final String fileName, @NotNull final Helpers.Result result) {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(8192);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(compressed), StandardCharsets.UTF_8))) {
+            ReportTemplate.getInstance().render(result, writer);
+        } catch (IOException e) {
+            logger.error("Failed to create HTML report", e);
+            return false;
+        }
+
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType("text/html;charset=utf-8");
+        metadata.addUserMetadata("x-amz-meta-title", fileName);
+        metadata.setContentDisposition("inline");
+        metadata.setContentEncoding("gzip");
+        metadata.setContentLength(compressed.size());
+
+        final String key = "reports_html/" + fileName + ".html";
+        if (!transfer(new PutObjectRequest(bucket, key, new ByteArrayInputStream(compressed.toByteArray()), metadata), key)) {
+            return false;
+        }
+        logger.info("Uploaded HTML file: {} to S3 bucket: {} ", fileName, bucket);
+        return true;
+    }
+
     /**
      * Uploads the file specified by {@code fileName} to an AWS bucket.
      *
@@ -88,54 +289,96 @@ public class AWSFileUploader {
      * @return {@code true} if the upload was successful, otherwise {@code false}
      */
     public boolean uploadFile(final String fileName) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType("text/plain;charset=utf-8");
+        metadata.addUserMetadata("x-amz-meta-title", fileName);
+
+        if (!putCompressed(new File(Configuration.PATH_TO_REPORTS + fileName + ".txt"),
+                "reports/" + fileName + ".txt", metadata)) return false;
+        logger.info("Uploaded .txt file: {} to S3 bucket: {} ", fileName, bucket);
+        return true;
+    }
+
+    /**
+     * Compresses {@code file} with gzip and uploads it as {@code key}, with {@code Content-Encoding: gzip} so browsers
+     * decompress it when the report is opened. Large files are uploaded in parts by the {@code TransferManager}.
+     *
+     * @param file     the file to upload
+     * @param key      the key of the object in the bucket
+     * @param metadata the metadata of the object
+     * @return {@code true} if the upload was successful, otherwise {@code false}
+     */
+    private boolean putCompressed(@NotNull final File file, @NotNull final String key, @NotNull final ObjectMetadata metadata) {
+        final File compressed = new File(file.getPath() + ".gz");
+        try {
+            gzip(file, compressed);
+            metadata.setContentEncoding("gzip");
+            metadata.setContentLength(compressed.length());
+            return transfer(new PutObjectRequest(bucket, key, compressed).withMetadata(metadata), key);
+        } catch (IOException e) {
+            logger.error("Failed to compress the file: {}", file.getPath(), e);
+        } finally {
+            FileUtils.deleteQuietly(compressed);
+        }
+
+        return false;
+    }
+
+    /**
+     * Sends {@code request} through the {@code TransferManager} and waits until the upload is finished.
+     *
+     * @param request the request to send
+     * @param key     the key of the object in the bucket
+     * @return {@code true} if the upload was successful, otherwise {@code false}
+     */
+    private boolean transfer(@NotNull final PutObjectRequest request, @NotNull final String key) {
         try {
-            final String folderFileName = "reports/" + fileName + ".txt";
-            PutObjectRequest request = new PutObjectRequest(
-                    Configuration.BUCKET_NAME,
-                    folderFileName,
-                    new File(Configuration.PATH_TO_REPORTS + fileName + ".txt")
-            );
-
-            ObjectMetadata metadata = new ObjectMetadata();
-            metadata.setContentType("plain/text");
-            metadata.addUserMetadata("x-amz-meta-title", fileName);
-            request.setMetadata(metadata);
-            s3Client.putObject(request);
-            Helpers.updatePreviousBuilds(fileName);
-            logger.info("Uploaded .txt file: {} to S3 bucket: {} ", fileName, Configuration.BUCKET_NAME);
+            transferManager.upload(request).waitForCompletion();
             return true;
         } catch (AmazonServiceException e) {
-            logger.error("Amazon S3 failed to process the file: {}", fileName, e);
+            logger.error("Amazon S3 failed to process the file: {}", key, e);
         } catch (SdkClientException e) {
             logger.error(CONNECTION_ERROR, e);
+        } catch (InterruptedException e) {
+            logger.error("Upload of the file: {} was interrupted", key, e);
+            Thread.currentThread().interrupt();
         }
 
         return false;
     }
 
     /**
-     * The function creates a {@code Set} of report ids of the reports previously uploaded on AWS.
+     * Compresses {@code source} into {@code destination} with gzip.
+     *
+     * @param source      the file to compress
+     * @param destination the compressed file
+     * @throws IOException If one of the files couldn't be read or written
+     */
+    static void gzip(@NotNull final File source, @NotNull final File destination) throws IOException {
+        try (InputStream in = new FileInputStream(source);
+             OutputStream out = new GZIPOutputStream(new FileOutputStream(destination), 65536)) {
+            IOUtils.copy(in, out, 65536);
+        }
+    }
+
+    /**
+     * The function creates a {@code Set} of report ids of the reports previously uploaded on AWS, ordered by the time
+     * the builds started. The ids come from the {@code ReportIndex}, which is brought up to date with the bucket first.
+     * If the bucket can't be listed the ids already in the index are returned.
      *
      * @return a set of report ids
      */
     public Set<String> getReports() {
         try {
-            final Set<String> reports = new HashSet<>();
-            ObjectListing objectListing = s3Client.listObjects(Configuration.BUCKET_NAME);
-            for (S3ObjectSummary objectSummary : objectListing.getObjectSummaries()) {
-                if (objectSummary.getKey().matches("reports/[A-Za-z0-9_-]+.txt")) {
-                    final String fileNameType = objectSummary.getKey().split("reports/")[1];
-                    final String fileName = fileNameType.replace(".txt", "");
-                    reports.add(fileName);
-                }
-            }
-            return reports;
+            reportIndex.sync(s3Client, bucket);
         } catch (AmazonServiceException e) {
-            logger.error("Amazon S3 failed to return list of objects for bucket: {}", Configuration.BUCKET_NAME, e);
+            logger.error("Amazon S3 failed to return list of objects for bucket: {}", bucket, e);
         } catch (SdkClientException e) {
-            logger.error("Failed to contact Amazon S3 or the client couldn't parse the response from Amazon S3", e);
+            logger.error(CONNECTION_ERROR, e);
         }
 
-        return new HashSet<>();
+        final Set<String> reports = new ConcurrentSkipListSet<>(ReportIndex.CHRONOLOGICAL);
+        reports.addAll(reportIndex.getIds());
+        return reports;
     }
 }
@@ -0,0 +1,290 @@
+package org.group22.ci;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.group22.utilities.Configuration;
+import org.group22.utilities.Helpers;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class BuildAgent {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(BuildAgent.class);
+    private static final long POLL_MILLIS = 20000;
+    private static final long RETRY_MILLIS = 5000;
+    private static final int COMPLETE_ATTEMPTS = 5;
+    private final String coordinatorUrl;
+    private final String agentId;
+    private final int slots;
+    private final String token;
+    private final long heartbeatMillis;
+    private final CloseableHttpClient httpClient;
+    private final Map<String, ProjectTester> running = new ConcurrentHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "agent-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a {@code BuildAgent} that runs builds handed out by the coordinator at {@code coordinatorUrl}.
+     *
+     * @param coordinatorUrl  the base URL of the coordinator, e.g. {@code http://localhost:8080}
+     * @param agentId         the id the agent is known by, unique in the farm
+     * @param slots           the number of builds the agent runs at the same time
+     * @param token           the token shared with the coordinator, or {@code null} if the coordinator doesn't check it
+     * @param heartbeatMillis the time between two heartbeats, well below the lease time of the coordinator
+     */
+    public BuildAgent(@NotNull final String coordinatorUrl, @NotNull final String agentId, final int slots, @Nullable final String token,
+                      final long heartbeatMillis) {
+        this.coordinatorUrl = coordinatorUrl.endsWith("/") ? coordinatorUrl.substring(0, coordinatorUrl.length() - 1) : coordinatorUrl;
+        this.agentId = agentId;
+        this.slots = Math.max(1, slots);
+        this.token = token;
+        this.heartbeatMillis = heartbeatMillis;
+
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(this.slots + 2);
+        connectionManager.setDefaultMaxPerRoute(this.slots + 2);
+        final RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(10000)
+                .setSocketTimeout((int) POLL_MILLIS + 15000).build();
+        this.httpClient = HttpClients.custom().setConnectionManager(connectionManager).setDefaultRequestConfig(requestConfig).build();
+    }
+
+    /**
+     * Sets up and starts a build agent, and waits until it is stopped.
+     *
+     * @param args Command line arguments, the same as for the server
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public static void runAgent(@NotNull final String[] args) throws InterruptedException {
+        Helpers.setUpConfiguration(args);
+        WorkspaceManager.getInstance().reclaimOrphans();
+        BuildJournal.getInstance().recoverAgent();
+        final BuildAgent agent = new BuildAgent(Configuration.COORDINATOR_URL, Configuration.AGENT_ID, Configuration.AGENT_SLOTS,
+                Configuration.AGENT_TOKEN, Configuration.AGENT_HEARTBEAT_SECONDS * 1000L);
+        agent.start();
+        agent.join();
+    }
+
+    /**
+     * Starts a worker thread for every slot and the heartbeat. Every worker asks the coordinator for a build only while
+     * it is idle, so the agent never takes more builds than it has slots.
+     */
+    public void start() {
+        for (int i = 0; i < slots; i++) {
+            Thread worker = new Thread(this::work, "agent-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        heartbeat.scheduleWithFixedDelay(this::sendHeartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        logger.info("Started build agent {} with {} slots, coordinator: {}", agentId, slots, coordinatorUrl);
+    }
+
+    /**
+     * Stops the agent. Running builds are cancelled; their leases run out and the coordinator reassigns them.
+     */
+    public void shutdown() {
+        stopped = true;
+        workers.forEach(Thread::interrupt);
+        running.values().forEach(ProjectTester::cancel);
+        heartbeat.shutdown();
+    }
+
+    /**
+     * Waits until the worker threads have stopped.
+     *
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public void join() throws InterruptedException {
+        for (Thread worker : workers) worker.join();
+    }
+
+    /**
+     * The loop run by every worker thread.
+     */
+    private void work() {
+        while (!stopped && !Thread.currentThread().isInterrupted()) {
+            try {
+                final JSONObject job = post("/agent/poll?agent=" + encode(agentId) + "&slots=" + slots + "&wait=" + POLL_MILLIS,
+                        new JSONObject());
+                if (job == null) continue;
+                run(BuildJournal.Build.fromJSON(job));
+            } catch (IOException | JSONException e) {
+                logger.warn("Failed to get a build from the coordinator: {}", coordinatorUrl, e);
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error in build agent {}", agentId, e);
+            }
+        }
+    }
+
+    /**
+     * Runs a build and reports its outcome to the coordinator once its reports are uploaded. The build is recorded in
+     * the journal of the agent, so reports that weren't uploaded are uploaded again after the agent restarts. The
+     * lease of the build is renewed until the upload is over.
+     *
+     * @param build the build
+     */
+    private void run(@NotNull final BuildJournal.Build build) {
+        final ProjectTester projectTester = new ProjectTester(build);
+        running.put(build.getId(), projectTester);
+        boolean uploaded = false;
+        try {
+            logger.info("Agent {} started build {}", agentId, build.getId());
+            if (!BuildJournal.getInstance().received(build)) {
+                logger.warn("Build {} couldn't be recorded in the journal of agent {}", build.getId(), agentId);
+            }
+            projectTester.processPush(slots);
+            uploaded = projectTester.getUploaded().join();
+        } catch (RuntimeException e) {
+            logger.error("Build {} failed with an unexpected error", build.getId(), e);
+        } finally {
+            running.remove(build.getId());
+            // A cancellation may have interrupted the worker after the build already finished
+            Thread.interrupted();
+        }
+        // The build was reassigned, so the coordinator no longer expects to hear about it from this agent
+        if (!projectTester.isAborted()) complete(build.getId(), report(projectTester, uploaded));
+    }
+
+    /**
+     * Converts the outcome of a build to the body sent to the coordinator, including whether the clone was served from a
+     * warm mirror and whether the reports were uploaded. The status and test counts are only sent for builds that ran
+     * the tests.
+     *
+     * @param projectTester the build
+     * @param uploaded      {@code true} if the reports of the build were uploaded, or it had none
+     * @return The JSON object
+     */
+    @NotNull
+    static JSONObject report(@NotNull final ProjectTester projectTester, final boolean uploaded) {
+        final JSONObject report = new JSONObject().put("cancelled", projectTester.isCancelled())
+                .put("warm", projectTester.isWarmClone()).put("uploaded", uploaded);
+        final BuildRegistry.BuildRecord record = projectTester.getRecord();
+        if (record == null || record.getStatus() == null) return report;
+        report.put("status", record.getStatus().name());
+        if (record.getResult() != null) {
+            report.put("testRun", record.getResult().getTestRun())
+                    .put("failures", record.getResult().getFailures())
+                    .put("errors", record.getResult().getErrors())
+                    .put("skipped", record.getResult().getSkipped());
+        }
+        return report;
+    }
+
+    /**
+     * Tells the coordinator that a build is finished, retrying for a while if it can't be reached. If it never hears
+     * about the build, the lease runs out and the build is run again elsewhere.
+     *
+     * @param buildId the id of the build
+     * @param report  the outcome of the build
+     */
+    private void complete(@NotNull final String buildId, @NotNull final JSONObject report) {
+        for (int attempt = 1; attempt <= COMPLETE_ATTEMPTS; attempt++) {
+            try {
+                post("/agent/complete?agent=" + encode(agentId) + "&build=" + encode(buildId), report);
+                return;
+            } catch (IOException e) {
+                logger.warn("Failed to report build {} to the coordinator, attempt {} of {}", buildId, attempt, COMPLETE_ATTEMPTS, e);
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Renews the leases of the running builds and stops the builds the coordinator asks to stop. A build superseded by
+     * a newer push is cancelled and still sets its commit status; a build whose lease was lost and that was reassigned
+     * is aborted, so it doesn't overwrite the status and reports of the agent that runs it now.
+     */
+    private void sendHeartbeat() {
+        try {
+            final JSONObject response = post("/agent/heartbeat?agent=" + encode(agentId),
+                    new JSONObject().put("running", new JSONArray(running.keySet())));
+            if (response == null) return;
+            final JSONArray cancel = response.optJSONArray("cancel");
+            for (int i = 0; cancel != null && i < cancel.length(); i++) {
+                final ProjectTester projectTester = running.get(cancel.getString(i));
+                if (projectTester != null) projectTester.cancel();
+            }
+            final JSONArray abort = response.optJSONArray("abort");
+            for (int i = 0; abort != null && i < abort.length(); i++) {
+                final ProjectTester projectTester = running.get(abort.getString(i));
+                if (projectTester != null) projectTester.abort();
+            }
+        } catch (IOException | JSONException e) {
+            logger.warn("Failed to send a heartbeat to the coordinator: {}", coordinatorUrl, e);
+        } catch (RuntimeException e) {
+            logger.error("Unexpected error while sending a heartbeat", e);
+        }
+    }
+
+    /**
+     * Sends a request to the coordinator.
+     *
+     * @param path the path and query of the endpoint
+     * @param body the JSON body of the request
+     * @return the JSON body of the response, or {@code null} if the response has no content
+     * @throws IOException If the coordinator couldn't be reached or answered with an error
+     */
+    @Nullable
+    private JSONObject post(@NotNull final String path, @NotNull final JSONObject body) throws IOException {
+        final HttpPost request = new HttpPost(coordinatorUrl + path);
+        if (token != null && !token.isEmpty()) request.addHeader("Authorization", "Bearer " + token);
+        request.setEntity(new StringEntity(body.toString(), ContentType.APPLICATION_JSON));
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            final int status = response.getStatusLine().getStatusCode();
+            final String responseBody = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            if (status < 200 || status >= 300) throw new IOException("The coordinator answered " + path + " with status " + status);
+            return responseBody.trim().isEmpty() ? null : new JSONObject(responseBody);
+        }
+    }
+
+    /**
+     * Encodes a value for the query string of a request.
+     *
+     * @param value the value
+     * @return The encoded value
+     */
+    @NotNull
+    private static String encode(@NotNull final String value) {
+        try {
+            return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
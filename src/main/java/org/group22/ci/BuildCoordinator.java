@@ -0,0 +1,462 @@
+package org.group22.ci;
+
+import org.group22.utilities.Helpers;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BuildCoordinator {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(BuildCoordinator.class);
+    // The longest a poll is held open, below the idle timeout of the HTTP server
+    private static final long MAX_POLL_MILLIS = 25000;
+    private static final int VIRTUAL_NODES = 64;
+    private final BuildScheduler scheduler;
+    private final BuildJournal journal;
+    private final BuildRegistry registry;
+    private final ReportIndex reportIndex;
+    private final long leaseMillis;
+    private final long affinityWaitMillis;
+    private final Object lock = new Object();
+    private final Map<String, Agent> agents = new HashMap<>();
+    private final Map<String, Lease> leases = new HashMap<>();
+    private final HashRing ring = new HashRing(VIRTUAL_NODES);
+    // Kept for agents that left the farm as well, so their hit rates stay visible
+    private final Map<String, AgentStats> stats = new TreeMap<>();
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lease-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong reassigned = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * Creates a {@code BuildCoordinator} that hands the builds queued on {@code scheduler} to remote build agents. An
+     * agent holds a lease on every build it runs, which it renews with its heartbeats; a build whose lease runs out is
+     * queued again for another agent.
+     *
+     * @param scheduler   the scheduler the builds are queued on, normally without worker threads of its own
+     * @param journal     the journal the finished builds are recorded in
+     * @param leaseMillis the time a lease lasts without a heartbeat
+     */
+    public BuildCoordinator(@NotNull final BuildScheduler scheduler, @NotNull final BuildJournal journal, final long leaseMillis) {
+        this(scheduler, journal, leaseMillis, 0);
+    }
+
+    /**
+     * Creates a {@code BuildCoordinator} that hands the builds queued on {@code scheduler} to remote build agents, and
+     * keeps the builds of a repository on the same agent so its mirror, local Maven repository and build output stay
+     * warm. The agents are placed on a consistent hash ring and every repository belongs to the agent its name hashes
+     * to, so an agent joining or leaving only moves its own share of the repositories.
+     *
+     * @param scheduler          the scheduler the builds are queued on, normally without worker threads of its own
+     * @param journal            the journal the finished builds are recorded in
+     * @param leaseMillis        the time a lease lasts without a heartbeat
+     * @param affinityWaitMillis the time a build waits for the agent of its repository before any agent may take it,
+     *                           {@code 0} to hand builds to any agent
+     */
+    public BuildCoordinator(@NotNull final BuildScheduler scheduler, @NotNull final BuildJournal journal, final long leaseMillis,
+                            final long affinityWaitMillis) {
+        this(scheduler, journal, BuildRegistry.getInstance(), ReportIndex.getInstance(), leaseMillis, affinityWaitMillis);
+    }
+
+    /**
+     * Creates a {@code BuildCoordinator} that adds the finished builds to {@code registry} and {@code reportIndex}
+     * instead of the shared {@code BuildRegistry} and {@code ReportIndex}.
+     *
+     * @param scheduler          the scheduler the builds are queued on, normally without worker threads of its own
+     * @param journal            the journal the finished builds are recorded in
+     * @param registry           the registry the finished builds are added to
+     * @param reportIndex        the index the reports uploaded by the agents are added to
+     * @param leaseMillis        the time a lease lasts without a heartbeat
+     * @param affinityWaitMillis the time a build waits for the agent of its repository before any agent may take it,
+     *                           {@code 0} to hand builds to any agent
+     */
+    public BuildCoordinator(@NotNull final BuildScheduler scheduler, @NotNull final BuildJournal journal,
+                            @NotNull final BuildRegistry registry, @NotNull final ReportIndex reportIndex, final long leaseMillis,
+                            final long affinityWaitMillis) {
+        this.scheduler = scheduler;
+        this.journal = journal;
+        this.registry = registry;
+        this.reportIndex = reportIndex;
+        this.leaseMillis = leaseMillis;
+        this.affinityWaitMillis = affinityWaitMillis;
+    }
+
+    /**
+     * Starts the thread that reassigns the builds of lost agents.
+     */
+    public void start() {
+        final long interval = Math.max(100, leaseMillis / 10);
+        reaper.scheduleWithFixedDelay(this::expireLeases, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a build and wakes up the agents waiting for one.
+     *
+     * @param projectTester the build to run
+     * @return {@code true} if the build was queued, {@code false} if the queue is full
+     */
+    public boolean submit(@NotNull final ProjectTester projectTester) {
+        final boolean queued = scheduler.submit(projectTester);
+        if (queued) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Waits for a build for an agent, for at most {@code timeoutMillis}. With affinity, an agent takes the builds of
+     * its own repositories first; the builds of another agent's repositories spill over to it when that agent has no
+     * free slot, or has left them waiting for longer than the affinity wait. Builds that spill over, and all builds
+     * without affinity, go to the waiting agent with the most free slots, so the load is spread over the farm by
+     * capacity rather than by who asks first. An agent never gets more builds than it has slots.
+     *
+     * @param agentId       the id of the agent
+     * @param slots         the number of builds the agent can run at the same time
+     * @param timeoutMillis the longest time to wait
+     * @return the build, or {@code null} if none was available in time
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    @Nullable
+    public BuildJournal.Build poll(@NotNull final String agentId, final int slots, final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + Math.min(timeoutMillis, MAX_POLL_MILLIS);
+        synchronized (lock) {
+            final Agent agent = join(agentId);
+            agent.slots = Math.max(1, slots);
+            agent.lastSeen = System.currentTimeMillis();
+            agent.waiting++;
+            try {
+                while (true) {
+                    final ProjectTester projectTester = agent.free() > 0
+                            ? scheduler.take((build, waitMillis) -> isEligible(agent, build, waitMillis)) : null;
+                    if (projectTester != null) {
+                        final boolean affine = agentId.equals(ring.nodeFor(projectTester.getRepositoryName()));
+                        leases.put(projectTester.getId(), new Lease(agent, projectTester, System.currentTimeMillis() + leaseMillis));
+                        agent.leased.add(projectTester.getId());
+                        dispatched.incrementAndGet();
+                        stats.get(agentId).dispatched++;
+                        if (affine) stats.get(agentId).affine++;
+                        logger.info("Dispatched build {} of repository {} to agent {}{} ({} of {} slots used)", projectTester.getId(),
+                                projectTester.getRepositoryName(), agentId, affine ? "" : " (spillover)", agent.leased.size(), agent.slots);
+                        // Other agents may be waiting for the builds still in the queue
+                        lock.notifyAll();
+                        return projectTester.toJournal();
+                    }
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) return null;
+                    // Builds queued again by the journal or the reaper, and builds whose affinity wait ran out, don't wake
+                    // the agents, so check every second
+                    lock.wait(Math.min(remaining, 1000));
+                }
+            } finally {
+                agent.waiting--;
+                agent.lastSeen = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Registers an agent the first time it is seen and adds it to the hash ring. Must be called while holding the lock.
+     *
+     * @param agentId the id of the agent
+     * @return the agent
+     */
+    @NotNull
+    private Agent join(@NotNull final String agentId) {
+        return agents.computeIfAbsent(agentId, id -> {
+            ring.add(id);
+            stats.computeIfAbsent(id, key -> new AgentStats());
+            logger.info("Agent {} joined the build farm", id);
+            return new Agent(id);
+        });
+    }
+
+    /**
+     * Checks if an agent may take a queued build. Must be called while holding the lock.
+     *
+     * @param agent      the agent asking for a build
+     * @param build      the queued build
+     * @param waitMillis the time the build has waited in the queue
+     * @return {@code true} if the agent may take the build
+     */
+    private boolean isEligible(@NotNull final Agent agent, @NotNull final ProjectTester build, final long waitMillis) {
+        if (affinityWaitMillis <= 0) return isBestWaiting(agent);
+        final String preferred = ring.nodeFor(build.getRepositoryName());
+        if (agent.id.equals(preferred)) return true;
+        final Agent owner = preferred == null ? null : agents.get(preferred);
+        final boolean spillover = owner == null || owner.free() <= 0 || waitMillis >= affinityWaitMillis;
+        return spillover && isBestWaiting(agent);
+    }
+
+    /**
+     * Checks if no other waiting agent has more free slots than {@code agent}. Must be called while holding the lock.
+     *
+     * @param agent the agent
+     * @return {@code true} if the agent should get the next build
+     */
+    private boolean isBestWaiting(@NotNull final Agent agent) {
+        for (Agent other : agents.values()) {
+            if (other != agent && other.waiting > 0 && other.free() > agent.free()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Renews the leases of the builds an agent is running.
+     *
+     * @param agentId  the id of the agent
+     * @param buildIds the builds the agent is running
+     * @return the builds the agent has to cancel because a newer push was made, and the builds it has to abort because
+     * it lost their lease
+     */
+    @NotNull
+    public HeartbeatReply heartbeat(@NotNull final String agentId, @NotNull final Collection<String> buildIds) {
+        final HeartbeatReply reply = new HeartbeatReply();
+        synchronized (lock) {
+            final Agent agent = join(agentId);
+            agent.lastSeen = System.currentTimeMillis();
+            for (String buildId : buildIds) {
+                final Lease lease = leases.get(buildId);
+                if (lease == null || !lease.agent.id.equals(agentId)) {
+                    reply.abort.add(buildId);
+                } else {
+                    lease.expiresAt = System.currentTimeMillis() + leaseMillis;
+                    if (lease.projectTester.isCancelled()) reply.cancel.add(buildId);
+                }
+            }
+        }
+        if (!reply.cancel.isEmpty()) logger.info("Asked agent {} to cancel superseded builds: {}", agentId, reply.cancel);
+        if (!reply.abort.isEmpty()) logger.info("Asked agent {} to abort builds it lost the lease of: {}", agentId, reply.abort);
+        return reply;
+    }
+
+    /**
+     * Ends the lease of a build that an agent finished. Agents only report a build once its reports are uploaded, or
+     * their upload failed. The record of a build that ran the tests and whose reports were uploaded is added to the
+     * registry and the report index, so its report can be found through the coordinator, also after a restart. Reports
+     * that weren't uploaded are left to the journal of the agent, which uploads them again after the agent restarts.
+     *
+     * @param agentId the id of the agent
+     * @param buildId the id of the build
+     * @param report  the outcome of the build, see {@code BuildAgent}
+     * @return {@code true} if the agent held the lease, {@code false} if the build was reassigned in the meantime
+     */
+    public boolean complete(@NotNull final String agentId, @NotNull final String buildId, @NotNull final JSONObject report) {
+        final Lease lease;
+        synchronized (lock) {
+            lease = leases.get(buildId);
+            if (lease == null || !lease.agent.id.equals(agentId)) {
+                logger.warn("Agent {} finished build {} without holding its lease", agentId, buildId);
+                return false;
+            }
+            leases.remove(buildId);
+            lease.agent.leased.remove(buildId);
+            lease.agent.lastSeen = System.currentTimeMillis();
+            final AgentStats agentStats = stats.get(agentId);
+            agentStats.completed++;
+            if (report.optBoolean("warm")) agentStats.warm++;
+            lock.notifyAll();
+        }
+
+        scheduler.finish(lease.projectTester);
+        if (!report.optBoolean("uploaded", true)) {
+            logger.warn("Agent {} failed to upload the reports of build {}, it uploads them again after its restart", agentId, buildId);
+        } else if (report.has("status")) {
+            final BuildJournal.Build build = lease.projectTester.toJournal();
+            final Helpers.Result result = report.has("testRun") ? new Helpers.Result(report.getInt("testRun"),
+                    report.getInt("failures"), report.getInt("errors"), report.getInt("skipped")) : null;
+            registry.put(new BuildRegistry.BuildRecord(buildId, build.getRepositoryName(), build.getBranch(),
+                    GitStatusHandler.BuildStatus.valueOf(report.getString("status")), result));
+            reportIndex.add(buildId);
+        }
+        journal.finished(buildId);
+        completed.incrementAndGet();
+        logger.info("Agent {} finished build {}", agentId, buildId);
+        return true;
+    }
+
+    /**
+     * Reassigns the builds whose lease ran out, e.g. because their agent crashed or lost its network. A build is put
+     * back at the head of the queue; if that isn't possible its commit gets the {@code ERROR} status.
+     */
+    private void expireLeases() {
+        final List<Lease> expired = new ArrayList<>();
+        synchronized (lock) {
+            final long now = System.currentTimeMillis();
+            final Iterator<Lease> iterator = leases.values().iterator();
+            while (iterator.hasNext()) {
+                final Lease lease = iterator.next();
+                if (lease.expiresAt > now) continue;
+                iterator.remove();
+                lease.agent.leased.remove(lease.projectTester.getId());
+                expired.add(lease);
+            }
+            // Agents that are gone are forgotten, so they don't count as waiting for builds
+            final Iterator<Agent> gone = agents.values().iterator();
+            while (gone.hasNext()) {
+                final Agent agent = gone.next();
+                if (agent.waiting > 0 || !agent.leased.isEmpty() || now - agent.lastSeen <= leaseMillis) continue;
+                gone.remove();
+                ring.remove(agent.id);
+                logger.info("Agent {} left the build farm", agent.id);
+            }
+        }
+
+        for (Lease lease : expired) {
+            reassigned.incrementAndGet();
+            logger.warn("Lease of build {} on agent {} ran out, reassigning it", lease.projectTester.getId(), lease.agent.id);
+            try {
+                if (!scheduler.requeue(lease.projectTester) && !lease.projectTester.isCancelled()) lease.projectTester.abandon();
+            } catch (RuntimeException e) {
+                logger.error("Failed to reassign build {}", lease.projectTester.getId(), e);
+            }
+        }
+        if (!expired.isEmpty()) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Generates a plain text summary of the build farm, one metric per line.
+     *
+     * @return The metrics as a {@code String}
+     */
+    @NotNull
+    public String metrics() {
+        final StringBuilder metrics = new StringBuilder();
+        synchronized (lock) {
+            metrics.append("farm_agents ").append(agents.size()).append('\n');
+            metrics.append("farm_leases ").append(leases.size()).append('\n');
+            for (Agent agent : agents.values()) {
+                metrics.append("farm_agent_slots{agent=\"").append(agent.id).append("\"} ").append(agent.slots).append('\n');
+                metrics.append("farm_agent_leases{agent=\"").append(agent.id).append("\"} ").append(agent.leased.size()).append('\n');
+            }
+            for (Map.Entry<String, AgentStats> entry : stats.entrySet()) {
+                final String label = "{agent=\"" + entry.getKey() + "\"} ";
+                final AgentStats agentStats = entry.getValue();
+                metrics.append("farm_agent_dispatched_total").append(label).append(agentStats.dispatched).append('\n');
+                metrics.append("farm_agent_affinity_hits_total").append(label).append(agentStats.affine).append('\n');
+                metrics.append("farm_agent_affinity_hit_ratio").append(label).append(ratio(agentStats.affine, agentStats.dispatched)).append('\n');
+                metrics.append("farm_agent_completed_total").append(label).append(agentStats.completed).append('\n');
+                metrics.append("farm_agent_warm_clones_total").append(label).append(agentStats.warm).append('\n');
+                metrics.append("farm_agent_cache_hit_ratio").append(label).append(ratio(agentStats.warm, agentStats.completed)).append('\n');
+            }
+        }
+        metrics.append("farm_dispatched_total ").append(dispatched.get()).append('\n');
+        metrics.append("farm_reassigned_total ").append(reassigned.get()).append('\n');
+        metrics.append("farm_completed_total ").append(completed.get()).append('\n');
+        return metrics.toString();
+    }
+
+    /**
+     * Formats a hit ratio for the metrics.
+     *
+     * @param hits  the number of hits
+     * @param total the number of tries
+     * @return The ratio with three decimals, {@code 0.000} if there were no tries
+     */
+    @NotNull
+    private static String ratio(final long hits, final long total) {
+        return String.format(Locale.ROOT, "%.3f", total == 0 ? 0.0 : (double) hits / total);
+    }
+
+    /**
+     * Helper class for a build agent known to the coordinator.
+     */
+    private static class Agent {
+        private final String id;
+        private final Set<String> leased = new HashSet<>();
+        private int slots = 1;
+        private int waiting = 0;
+        private long lastSeen = System.currentTimeMillis();
+
+        Agent(final String id) {
+            this.id = id;
+        }
+
+        /**
+         * Calculates the number of builds the agent can still take.
+         *
+         * @return The number of free slots
+         */
+        int free() {
+            return slots - leased.size();
+        }
+    }
+
+    /**
+     * Helper class for the placement and cache statistics of an agent.
+     */
+    private static class AgentStats {
+        private long dispatched = 0;
+        private long affine = 0;
+        private long completed = 0;
+        private long warm = 0;
+    }
+
+    /**
+     * Helper class for the answer to a heartbeat of an agent. A cancelled build was superseded by a newer push and
+     * still sets the {@code SUPERSEDED} status. An aborted build was reassigned, or was never leased to the agent, so
+     * another agent owns its commit status and reports; the agent stops it without leaving any trace of it.
+     */
+    public static class HeartbeatReply {
+        private final Set<String> cancel = new HashSet<>();
+        private final Set<String> abort = new HashSet<>();
+
+        /**
+         * Getter function for the {@code cancel} field.
+         *
+         * @return The ids of the builds to cancel
+         */
+        @NotNull
+        public Set<String> getCancel() {
+            return cancel;
+        }
+
+        /**
+         * Getter function for the {@code abort} field.
+         *
+         * @return The ids of the builds to abort
+         */
+        @NotNull
+        public Set<String> getAbort() {
+            return abort;
+        }
+    }
+
+    /**
+     * Helper class for a build leased to an agent.
+     */
+    private static class Lease {
+        private final Agent agent;
+        private final ProjectTester projectTester;
+        private long expiresAt;
+
+        Lease(final Agent agent, final ProjectTester projectTester, final long expiresAt) {
+            this.agent = agent;
+            this.projectTester = projectTester;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,660 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.group22.ci.GitStatusHandler.BuildStatus;
+import org.group22.utilities.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BuildJournal {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(BuildJournal.class);
+    private static final BuildJournal INSTANCE = createInstance();
+    private final File file;
+    private final long syncMillis;
+    private final long compactBytes;
+    private final Object lock = new Object();
+    private final List<String> pending = new ArrayList<>();
+    // The lines of the builds that haven't finished, all that is kept when the journal is compacted
+    private final Map<String, List<String>> open = new LinkedHashMap<>();
+    private final Map<String, Build> unfinished = new LinkedHashMap<>();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong writeFailures = new AtomicLong();
+    // The sequences of the events whose callers wait for the outcome of their write
+    private final NavigableSet<Long> syncWaiters = new TreeSet<>();
+    private final Set<Long> failedSyncs = new HashSet<>();
+    private long appended = 0;
+    private long written = 0;
+    private long durable = 0;
+    private FileChannel channel;
+    private Thread writer;
+
+    /**
+     * Creates a {@code BuildJournal} that appends the lifecycle events of the builds to {@code file}. If the file
+     * exists, e.g. from before a crash, it is replayed so the builds that didn't finish can be recovered with
+     * {@code recover}.
+     *
+     * @param file         the file the journal is stored in
+     * @param syncMillis   the time events are collected before they are written and synced to disk together
+     * @param compactBytes the size of the file above which it is compacted, {@code 0} to never compact
+     */
+    public BuildJournal(@NotNull final File file, final long syncMillis, final long compactBytes) {
+        this.file = file;
+        this.syncMillis = Math.max(0, syncMillis);
+        this.compactBytes = compactBytes;
+        replay();
+        synchronized (lock) {
+            compact();
+        }
+    }
+
+    /**
+     * Creates and starts the journal shared by the whole server.
+     *
+     * @return the shared {@code BuildJournal}
+     */
+    private static BuildJournal createInstance() {
+        final BuildJournal journal = new BuildJournal(new File(Configuration.PATH_TO_BUILD_JOURNAL), Configuration.JOURNAL_SYNC_MILLIS,
+                Configuration.JOURNAL_COMPACT_KB * 1024L);
+        journal.start();
+        return journal;
+    }
+
+    /**
+     * Returns the journal shared by the whole server.
+     *
+     * @return the shared {@code BuildJournal}
+     */
+    public static BuildJournal getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts the thread that writes the events to disk.
+     */
+    public synchronized void start() {
+        if (writer != null) return;
+        writer = new Thread(this::write, "build-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records that a build was accepted. Waits until the event is on disk, so a build that was acknowledged to Github
+     * is never lost. If the event couldn't be written the build must not be acknowledged, so Github delivers it again.
+     *
+     * @param build the build
+     * @return {@code true} if the event was synced to disk, {@code false} if writing it failed
+     */
+    public boolean received(@NotNull final Build build) {
+        return append(build.toJSON().put("event", Event.RECEIVED.name()), true);
+    }
+
+    /**
+     * Records a new version of a build that hasn't started yet, e.g. with the changes of the builds it replaced. The
+     * event is written in the background; it replaces the version recorded by {@code received} when the journal is
+     * replayed.
+     *
+     * @param build the build
+     */
+    public void updated(@NotNull final Build build) {
+        append(build.toJSON().put("event", Event.RECEIVED.name()), false);
+    }
+
+    /**
+     * Records a step of a build. Steps are written in the background together with the other events of the batch.
+     *
+     * @param id    the id of the build
+     * @param event the step
+     */
+    public void record(@NotNull final String id, @NotNull final Event event) {
+        append(new JSONObject().put("id", id).put("event", event.name()), false);
+    }
+
+    /**
+     * Records a step of a build that has a commit status, i.e. the result of the tests or the final status sent.
+     *
+     * @param id     the id of the build
+     * @param event  the step
+     * @param status the commit status
+     */
+    public void record(@NotNull final String id, @NotNull final Event event, @NotNull final BuildStatus status) {
+        append(new JSONObject().put("id", id).put("event", event.name()).put("status", status.name()), false);
+    }
+
+    /**
+     * Records that a build is finished, so it is left out when the journal is compacted.
+     *
+     * @param id the id of the build
+     */
+    public void finished(@NotNull final String id) {
+        record(id, Event.FINISHED);
+    }
+
+    /**
+     * Adds an event to the batch that is written next.
+     *
+     * @param entry the event
+     * @param sync  {@code true} to wait until the event is synced to disk
+     * @return {@code true} if the event was synced, or {@code sync} is {@code false}; {@code false} if the write failed
+     */
+    private boolean append(@NotNull final JSONObject entry, final boolean sync) {
+        final String line = entry.toString();
+        synchronized (lock) {
+            final long sequence = ++appended;
+            pending.add(line);
+            lock.notifyAll();
+            if (!sync) return true;
+            syncWaiters.add(sequence);
+            try {
+                while (written < sequence) lock.wait();
+                return !failedSyncs.remove(sequence);
+            } catch (InterruptedException e) {
+                syncWaiters.remove(sequence);
+                failedSyncs.remove(sequence);
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * The loop run by the writer thread. Events added while the previous batch was written, or within
+     * {@code syncMillis} of the first event of a batch, are written and synced together, so a burst of builds costs a
+     * single {@code fsync}. The events of a batch that couldn't be written are dropped, and the callers waiting for
+     * them are told so; the builds go on, but they are only recovered as far as the journal on disk goes.
+     */
+    private void write() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                final List<String> batch;
+                final long sequence;
+                synchronized (lock) {
+                    while (pending.isEmpty()) lock.wait();
+                }
+                if (syncMillis > 0) Thread.sleep(syncMillis);
+                synchronized (lock) {
+                    batch = new ArrayList<>(pending);
+                    pending.clear();
+                    sequence = appended;
+                }
+
+                final boolean synced = writeBatch(batch);
+                synchronized (lock) {
+                    final NavigableSet<Long> waiters = syncWaiters.headSet(sequence, true);
+                    if (synced) {
+                        batch.forEach(this::track);
+                        durable = sequence;
+                    } else {
+                        failedSyncs.addAll(waiters);
+                    }
+                    waiters.clear();
+                    written = sequence;
+                    lock.notifyAll();
+                    if (compactBytes > 0 && channel != null && channel.size() > compactBytes) compact();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                logger.error("Unexpected error while writing the build journal", e);
+            }
+        }
+    }
+
+    /**
+     * Appends a batch of events to the file and forces them to disk. A failed write is logged, and the file is opened
+     * again for the next batch.
+     *
+     * @param batch the events, one JSON object each
+     * @return {@code true} if the events were synced to disk
+     */
+    private boolean writeBatch(@NotNull final List<String> batch) {
+        final StringBuilder text = new StringBuilder();
+        batch.forEach(line -> text.append(line).append('\n'));
+        final ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            if (channel == null) channel = open();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(false);
+            syncs.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            writeFailures.incrementAndGet();
+            logger.error("Failed to write {} events to the build journal: {}", batch.size(), file.getPath(), e);
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException closeFailure) {
+                    logger.warn("Failed to close the build journal: {}", file.getPath(), closeFailure);
+                }
+                channel = null;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Opens the file for appending.
+     *
+     * @return the channel
+     * @throws IOException If the file couldn't be opened
+     */
+    @NotNull
+    private FileChannel open() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Reads the journal left by the previous run and collects the builds that didn't finish. A line that was only
+     * partly written when the server stopped is skipped.
+     */
+    private void replay() {
+        if (!file.exists()) return;
+
+        int lines = 0;
+        try {
+            for (String line : FileUtils.readLines(file, StandardCharsets.UTF_8)) {
+                if (line.isEmpty()) continue;
+                try {
+                    track(line);
+                    lines++;
+                } catch (JSONException e) {
+                    logger.warn("Skipped a damaged line in the build journal: {}", file.getPath());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Failed to read the build journal: {}", file.getPath(), e);
+        }
+        if (!unfinished.isEmpty()) logger.info("Replayed {} journal events, {} builds didn't finish", lines, unfinished.size());
+    }
+
+    /**
+     * Applies an event to the state of its build. Must be called while holding the lock, or from the constructor.
+     *
+     * @param line the event, a JSON object
+     */
+    private void track(@NotNull final String line) {
+        final JSONObject entry = new JSONObject(line);
+        final String id = entry.getString("id");
+        final Event event = Event.valueOf(entry.getString("event"));
+        if (event == Event.FINISHED) {
+            open.remove(id);
+            unfinished.remove(id);
+            return;
+        }
+        if (event == Event.RECEIVED) unfinished.put(id, Build.fromJSON(entry));
+        final Build build = unfinished.get(id);
+        if (build == null) return;
+        open.computeIfAbsent(id, key -> new ArrayList<>()).add(line);
+        build.apply(event, entry.has("status") ? BuildStatus.valueOf(entry.getString("status")) : null);
+    }
+
+    /**
+     * Rewrites the journal with only the events of the builds that haven't finished. The new file is synced and then
+     * renamed over the old one, so a crash while compacting leaves either the old or the new journal. Must be called
+     * while holding the lock.
+     */
+    private void compact() {
+        final File temporary = new File(file.getPath() + ".tmp");
+        try {
+            if (!file.exists() && open.isEmpty()) return;
+            try (FileChannel out = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                final StringBuilder text = new StringBuilder();
+                open.values().forEach(lines -> lines.forEach(line -> text.append(line).append('\n')));
+                final ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) out.write(buffer);
+                out.force(false);
+            }
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            compactions.incrementAndGet();
+            logger.info("Compacted the build journal to {} unfinished builds", open.size());
+        } catch (IOException e) {
+            logger.error("Failed to compact the build journal: {}", file.getPath(), e);
+        }
+    }
+
+    /**
+     * Recovers the builds that didn't finish before the server stopped. A build that was tested gets its final commit
+     * status again if it may not have reached the status outbox, and its reports are uploaded again if the upload
+     * didn't finish; it is marked as finished once they are uploaded. A build that already got its final status
+     * otherwise is only marked as finished. Any other build is queued again with the same id; if the queue is full its commit gets
+     * the {@code ERROR} status instead of staying pending forever.
+     *
+     * @param scheduler the scheduler the builds are queued on
+     * @return the number of builds queued again
+     */
+    public int recover(@NotNull final BuildScheduler scheduler) {
+        final List<Build> builds;
+        synchronized (lock) {
+            builds = new ArrayList<>(unfinished.values());
+        }
+
+        int requeued = 0;
+        for (Build build : builds) {
+            final GitStatusHandler statusHandler = new GitStatusHandler(build.repositoryName, build.commitId, build.author, build.id);
+            if (build.testedStatus != null) {
+                repair(build, statusHandler);
+            } else if (build.sentStatus != null && build.sentStatus != BuildStatus.WAITING) {
+                finished(build.id);
+            } else if (scheduler.submit(new ProjectTester(build))) {
+                logger.info("Build {} didn't finish before the restart, queued it again", build.id);
+                requeued++;
+            } else {
+                logger.warn("Build {} didn't finish before the restart and the queue is full, marking it as failed", build.id);
+                statusHandler.sendStatus(BuildStatus.ERROR);
+                finished(build.id);
+            }
+        }
+        return requeued;
+    }
+
+    /**
+     * Recovers the builds a build agent didn't finish before it stopped. The builds that ran the tests are repaired
+     * like in {@code recover}, so their reports are uploaded again. The other builds are dropped: the coordinator
+     * reassigns them when their lease runs out.
+     */
+    public void recoverAgent() {
+        final List<Build> builds;
+        synchronized (lock) {
+            builds = new ArrayList<>(unfinished.values());
+        }
+
+        for (Build build : builds) {
+            if (build.testedStatus != null) {
+                repair(build, new GitStatusHandler(build.repositoryName, build.commitId, build.author, build.id));
+            } else {
+                logger.info("Build {} didn't finish before the restart, leaving it to the coordinator", build.id);
+                finished(build.id);
+            }
+        }
+    }
+
+    /**
+     * Repairs a build that ran the tests before the restart: its status is sent again if it wasn't sent, and its
+     * reports are uploaded again unless they are known to be uploaded. The build is finished once the reports are
+     * uploaded; if the upload fails it is tried again after the next restart.
+     *
+     * @param build         the build
+     * @param statusHandler the handler setting the status of the head commit
+     */
+    private void repair(@NotNull final Build build, @NotNull final GitStatusHandler statusHandler) {
+        logger.info("Build {} was tested before the restart, repairing its status: {}", build.id, build.testedStatus);
+        if (build.sentStatus != build.testedStatus) statusHandler.sendStatus(build.testedStatus);
+        if (build.lastEvent == Event.UPLOADED || !new File(Configuration.PATH_TO_REPORTS + build.id + ".txt").exists()) {
+            finished(build.id);
+            return;
+        }
+
+        logger.info("The reports of build {} may not have been uploaded, uploading them again", build.id);
+        new AWSFileUploader().uploadAgain(build.id).whenComplete((uploaded, failure) -> {
+            if (Boolean.TRUE.equals(uploaded)) {
+                record(build.id, Event.UPLOADED);
+                finished(build.id);
+            } else {
+                logger.warn("The reports of build {} weren't uploaded, trying again after the next restart", build.id, failure);
+            }
+        });
+    }
+
+    /**
+     * Returns the builds that didn't finish, in the order they were received.
+     *
+     * @return the builds
+     */
+    @NotNull
+    public Collection<Build> getUnfinished() {
+        synchronized (lock) {
+            return new ArrayList<>(unfinished.values());
+        }
+    }
+
+    /**
+     * Generates a plain text summary of the journal metrics, one metric per line.
+     *
+     * @return The metrics as a {@code String}
+     */
+    @NotNull
+    public String metrics() {
+        final int open;
+        synchronized (lock) {
+            open = unfinished.size();
+        }
+        return "journal_unfinished_builds " + open + "\n" +
+                "journal_syncs_total " + syncs.get() + "\n" +
+                "journal_compactions_total " + compactions.get() + "\n" +
+                "journal_write_failures_total " + writeFailures.get() + "\n";
+    }
+
+    /**
+     * Enum class holding the lifecycle events of a build, in the order they happen.
+     */
+    public enum Event {
+        RECEIVED,
+        CLONED,
+        TESTED,
+        STATUS_SENT,
+        UPLOADED,
+        FINISHED
+    }
+
+    /**
+     * Helper class for the push a build was started for, and the steps it got through.
+     */
+    public static class Build {
+        private final String id;
+        private final String repositoryName;
+        private final String commitId;
+        private final String branch;
+        private final String author;
+        private final String cloneURL;
+        private final boolean forceRebuild;
+        private final Set<String> changedFiles;
+        private final String baseCommitId;
+        private Event lastEvent = Event.RECEIVED;
+        private BuildStatus testedStatus;
+        private BuildStatus sentStatus;
+
+        /**
+         * Creates a {@code Build}.
+         *
+         * @param id             the id of the build
+         * @param repositoryName the name of the repository
+         * @param commitId       the id of the head commit
+         * @param branch         the name of the branch
+         * @param author         the name of the author
+         * @param cloneURL       the URL used for cloning the repository
+         * @param forceRebuild   {@code true} if the result cache is bypassed
+         * @param changedFiles   the files changed by the push, or {@code null} if they are unknown
+         * @param baseCommitId   the commit the changed files are listed against, or {@code null} if it is unknown
+         */
+        public Build(final String id, final String repositoryName, final String commitId, final String branch, final String author,
+                     final String cloneURL, final boolean forceRebuild, @Nullable final Set<String> changedFiles,
+                     @Nullable final String baseCommitId) {
+            this.id = id;
+            this.repositoryName = repositoryName;
+            this.commitId = commitId;
+            this.branch = branch;
+            this.author = author;
+            this.cloneURL = cloneURL;
+            this.forceRebuild = forceRebuild;
+            this.changedFiles = changedFiles;
+            this.baseCommitId = baseCommitId;
+        }
+
+        /**
+         * Converts the build to the JSON object stored in the journal and sent to build agents.
+         *
+         * @return The JSON object
+         */
+        @NotNull
+        public JSONObject toJSON() {
+            final JSONObject json = new JSONObject().put("id", id).put("repository", repositoryName).put("commit", commitId)
+                    .put("branch", branch).put("author", author).put("cloneURL", cloneURL).put("forceRebuild", forceRebuild);
+            if (changedFiles != null) json.put("changedFiles", new JSONArray(changedFiles));
+            if (baseCommitId != null) json.put("base", baseCommitId);
+            return json;
+        }
+
+        /**
+         * Reads a build from the {@code RECEIVED} event stored in the journal, or from a job sent to a build agent.
+         *
+         * @param json the JSON object
+         * @return The build
+         * @throws JSONException If a field of the build is missing
+         */
+        @NotNull
+        public static Build fromJSON(@NotNull final JSONObject json) {
+            Set<String> changedFiles = null;
+            final JSONArray files = json.optJSONArray("changedFiles");
+            if (files != null) {
+                changedFiles = new HashSet<>();
+                for (int i = 0; i < files.length(); i++) changedFiles.add(files.getString(i));
+            }
+            return new Build(json.getString("id"), json.getString("repository"), json.getString("commit"), json.getString("branch"),
+                    json.getString("author"), json.getString("cloneURL"), json.optBoolean("forceRebuild"), changedFiles,
+                    json.optString("base", null));
+        }
+
+        /**
+         * Applies a step to the build.
+         *
+         * @param event  the step
+         * @param status the commit status of the step, or {@code null} if it has none
+         */
+        void apply(@NotNull final Event event, @Nullable final BuildStatus status) {
+            lastEvent = event;
+            if (event == Event.TESTED) testedStatus = status;
+            if (event == Event.STATUS_SENT) sentStatus = status;
+        }
+
+        /**
+         * Getter function for the {@code id} field.
+         *
+         * @return The id of the build
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Getter function for the {@code repositoryName} field.
+         *
+         * @return The name of the repository
+         */
+        public String getRepositoryName() {
+            return repositoryName;
+        }
+
+        /**
+         * Getter function for the {@code commitId} field.
+         *
+         * @return The id of the head commit
+         */
+        public String getCommitId() {
+            return commitId;
+        }
+
+        /**
+         * Getter function for the {@code branch} field.
+         *
+         * @return The name of the branch
+         */
+        public String getBranch() {
+            return branch;
+        }
+
+        /**
+         * Getter function for the {@code author} field.
+         *
+         * @return The name of the author
+         */
+        public String getAuthor() {
+            return author;
+        }
+
+        /**
+         * Getter function for the {@code cloneURL} field.
+         *
+         * @return The URL used for cloning the repository
+         */
+        public String getCloneURL() {
+            return cloneURL;
+        }
+
+        /**
+         * Getter function for the {@code forceRebuild} field.
+         *
+         * @return {@code true} if the result cache is bypassed
+         */
+        public boolean isForceRebuild() {
+            return forceRebuild;
+        }
+
+        /**
+         * Getter function for the {@code changedFiles} field.
+         *
+         * @return The files changed by the push, or {@code null} if they are unknown
+         */
+        @Nullable
+        public Set<String> getChangedFiles() {
+            return changedFiles;
+        }
+
+        /**
+         * Getter function for the {@code baseCommitId} field.
+         *
+         * @return The commit the changed files are listed against, or {@code null} if it is unknown
+         */
+        @Nullable
+        public String getBaseCommitId() {
+            return baseCommitId;
+        }
+
+        /**
+         * Getter function for the last step the build got through.
+         *
+         * @return The last step
+         */
+        @NotNull
+        public Event getLastEvent() {
+            return lastEvent;
+        }
+
+        /**
+         * Getter function for the result of the tests.
+         *
+         * @return The commit status of the result, or {@code null} if the build wasn't tested
+         */
+        @Nullable
+        public BuildStatus getTestedStatus() {
+            return testedStatus;
+        }
+    }
+}
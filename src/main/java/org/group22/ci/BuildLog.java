@@ -0,0 +1,165 @@
+package org.group22.ci;
+
+import org.group22.utilities.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class BuildLog {
+    private static final Map<String, BuildLog> LOGS = new ConcurrentHashMap<>();
+    private static final Deque<String> FINISHED = new ArrayDeque<>();
+    private static final int KEEP_FINISHED = 20;
+    private final byte[] buffer;
+    private long written = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a {@code BuildLog} that keeps the last {@code capacity} bytes of the build output in a ring buffer.
+     * Writing never waits for readers; a reader that falls more than {@code capacity} bytes behind skips ahead.
+     *
+     * @param capacity the size of the ring buffer in bytes
+     */
+    public BuildLog(final int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * Creates the live log of a build and makes it available to {@code get}.
+     *
+     * @param id the id of the build
+     * @return the new {@code BuildLog}
+     */
+    @NotNull
+    public static BuildLog open(@NotNull final String id) {
+        final BuildLog log = new BuildLog(Configuration.LIVE_LOG_BUFFER_KB * 1024);
+        LOGS.put(id, log);
+        return log;
+    }
+
+    /**
+     * Finds the live log of a build. Logs of finished builds are kept until {@code KEEP_FINISHED} newer builds have
+     * finished.
+     *
+     * @param id the id of the build
+     * @return the {@code BuildLog}, or {@code null} if there is no log for the build
+     */
+    @Nullable
+    public static BuildLog get(@NotNull final String id) {
+        return LOGS.get(id);
+    }
+
+    /**
+     * Closes the live log of a build, which ends the streams of every reader once they have read the rest of it.
+     *
+     * @param id the id of the build
+     */
+    public static void finish(@NotNull final String id) {
+        final BuildLog log = LOGS.get(id);
+        if (log == null) return;
+        log.close();
+
+        synchronized (FINISHED) {
+            FINISHED.addLast(id);
+            while (FINISHED.size() > KEEP_FINISHED) LOGS.remove(FINISHED.removeFirst());
+        }
+    }
+
+    /**
+     * Appends a line of output to the log and wakes up the readers waiting for it.
+     *
+     * @param line the line of output
+     */
+    public synchronized void append(@NotNull final String line) {
+        if (closed) return;
+        final byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        final int start = bytes.length > buffer.length ? bytes.length - buffer.length : 0;
+        for (int i = start; i < bytes.length; i++) {
+            buffer[(int) ((written + i - start) % buffer.length)] = bytes[i];
+        }
+        written += bytes.length - start;
+        notifyAll();
+    }
+
+    /**
+     * Marks the log as complete and wakes up the readers.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Copies the output from {@code offset} into {@code destination}. If there is no new output the call waits up to
+     * {@code timeoutMillis} for more. If {@code offset} is older than the oldest byte in the buffer, reading starts
+     * at the oldest byte instead.
+     *
+     * @param offset        the offset in the whole output to read from
+     * @param destination   the array the output is copied into
+     * @param timeoutMillis the longest time to wait for new output
+     * @return the {@code Chunk} that was read, its length is {@code 0} if nothing new was written in time
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    @NotNull
+    public synchronized Chunk read(final long offset, @NotNull final byte[] destination, final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (offset >= written && !closed) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) break;
+            wait(remaining);
+        }
+
+        final long start = Math.max(Math.min(offset, written), written - buffer.length);
+        final int length = (int) Math.min(destination.length, written - start);
+        for (int i = 0; i < length; i++) {
+            destination[i] = buffer[(int) ((start + i) % buffer.length)];
+        }
+        return new Chunk(start, length, closed && start + length >= written);
+    }
+
+    /**
+     * Helper class for a piece of output read from a {@code BuildLog}.
+     */
+    public static class Chunk {
+        private final long offset;
+        private final int length;
+        private final boolean end;
+
+        Chunk(final long offset, final int length, final boolean end) {
+            this.offset = offset;
+            this.length = length;
+            this.end = end;
+        }
+
+        /**
+         * Getter function for the {@code offset} field.
+         *
+         * @return The offset in the whole output of the first byte in the chunk
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Getter function for the {@code length} field.
+         *
+         * @return The number of bytes in the chunk
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Getter function for the {@code end} field.
+         *
+         * @return {@code true} if the log is closed and the chunk reaches the end of it
+         */
+        public boolean isEnd() {
+            return end;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.group22.utilities.Configuration;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+public class BuildProfile {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(BuildProfile.class);
+    private static final String DEFAULT_PROFILE = "default";
+    private static final Map<String, JSONObject> PROFILES = load(new File(Configuration.PATH_TO_BUILD_PROFILES));
+    private final String threads;
+    private final String forkCount;
+    private final String parallel;
+    private final String threadCount;
+    private final String mavenOpts;
+    private final String argLine;
+
+    /**
+     * Creates a {@code BuildProfile}. Settings that are {@code null} are left to the defaults of Maven and the
+     * project.
+     *
+     * @param threads     the value of the {@code -T} option, e.g. {@code 4} or {@code 1C}
+     * @param forkCount   the number of JVMs Surefire and Failsafe fork for the tests, e.g. {@code 2} or {@code 0.5C}
+     * @param parallel    what Surefire and Failsafe run in parallel inside a fork, e.g. {@code classes}
+     * @param threadCount the number of threads used for {@code parallel}
+     * @param mavenOpts   the JVM options of the Maven process
+     * @param argLine     the JVM options of the forked test JVMs, unless the POM configures the plugin with its own
+     */
+    BuildProfile(@Nullable final String threads, @Nullable final String forkCount, @Nullable final String parallel,
+                 @Nullable final String threadCount, @Nullable final String mavenOpts, @Nullable final String argLine) {
+        this.threads = threads;
+        this.forkCount = forkCount;
+        this.parallel = parallel;
+        this.threadCount = threadCount;
+        this.mavenOpts = mavenOpts;
+        this.argLine = argLine;
+    }
+
+    /**
+     * Returns the profile of a repository. Settings missing from the profile of the repository are taken from the
+     * {@code default} profile, and settings missing from both are sized from the cores available to one build.
+     *
+     * @param repositoryName   the name of the repository
+     * @param concurrentBuilds the number of builds the process runs at the same time, i.e. its worker threads or agent
+     *                         slots
+     * @return the {@code BuildProfile}
+     */
+    @NotNull
+    public static BuildProfile forRepository(@NotNull final String repositoryName, final int concurrentBuilds) {
+        return resolve(PROFILES, repositoryName, Runtime.getRuntime().availableProcessors(), concurrentBuilds);
+    }
+
+    /**
+     * Builds the profile of a repository from the configured profiles. The cores of the machine are shared by the
+     * builds running at the same time. Maven runs single-threaded unless the profile sets {@code threads}, and the
+     * forked test JVMs of each Maven thread share the cores of the build, so {@code threads * forkCount} stays within
+     * them. Counts per core such as {@code 1C}, which Maven and Surefire would multiply by the cores of the whole
+     * machine, are multiplied by the cores of the build instead.
+     *
+     * @param profiles         the configured profiles by repository name
+     * @param repositoryName   the name of the repository
+     * @param cores            the number of cores of the machine
+     * @param concurrentBuilds the number of builds that can run at the same time
+     * @return the {@code BuildProfile}
+     */
+    @NotNull
+    static BuildProfile resolve(@NotNull final Map<String, JSONObject> profiles, @NotNull final String repositoryName,
+                                final int cores, final int concurrentBuilds) {
+        final JSONObject repository = profiles.getOrDefault(repositoryName, new JSONObject());
+        final JSONObject defaults = profiles.getOrDefault(DEFAULT_PROFILE, new JSONObject());
+
+        final int budget = Math.max(1, cores / Math.max(1, concurrentBuilds));
+        final String threads = perBuild(setting(repository, defaults, "threads", null), budget, repositoryName);
+        int mavenThreads = 1;
+        try {
+            if (threads != null) mavenThreads = Integer.parseInt(threads);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid number of Maven threads in the build profile of {}: {}", repositoryName, threads);
+        }
+        final String forkCount = perBuild(setting(repository, defaults, "forkCount", String.valueOf(Math.max(1, budget / Math.max(1, mavenThreads)))),
+                budget, repositoryName);
+
+        return new BuildProfile(threads, forkCount, setting(repository, defaults, "parallel", null),
+                setting(repository, defaults, "threadCount", null), setting(repository, defaults, "mavenOpts", null),
+                setting(repository, defaults, "argLine", null));
+    }
+
+    /**
+     * Converts a count per core, e.g. {@code 1C} or {@code 0.5C}, into a number of threads or forks for the cores of
+     * one build, rounded up to at least one. Other values are returned as they are.
+     *
+     * @param value          the count from the profile, or {@code null}
+     * @param budget         the number of cores of one build
+     * @param repositoryName the name of the repository, for the log
+     * @return the count for the build, or {@code null} if {@code value} is {@code null}
+     */
+    @Nullable
+    @Contract("null, _, _ -> null; !null, _, _ -> !null")
+    private static String perBuild(@Nullable final String value, final int budget, @NotNull final String repositoryName) {
+        if (value == null || !value.endsWith("C")) return value;
+        try {
+            final double perCore = Double.parseDouble(value.substring(0, value.length() - 1));
+            return String.valueOf(Math.max(1, (int) Math.ceil(perCore * budget)));
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid count per core in the build profile of {}: {}", repositoryName, value);
+            return value;
+        }
+    }
+
+    /**
+     * Reads a setting from the profile of the repository, falling back to the default profile.
+     *
+     * @param repository   the profile of the repository
+     * @param defaults     the default profile
+     * @param key          the name of the setting
+     * @param defaultValue the value used when neither profile has the setting
+     * @return the value of the setting
+     */
+    @Contract("_, _, _, !null -> !null")
+    private static String setting(@NotNull final JSONObject repository, @NotNull final JSONObject defaults,
+                                  @NotNull final String key, @Nullable final String defaultValue) {
+        if (repository.has(key)) return repository.get(key).toString();
+        if (defaults.has(key)) return defaults.get(key).toString();
+        return defaultValue;
+    }
+
+    /**
+     * Reads the build profiles from {@code file}, a JSON object with a profile for each repository name and an
+     * optional {@code default} profile.
+     *
+     * @param file the file the profiles are stored in
+     * @return the profiles by repository name, empty if the file doesn't exist or couldn't be read
+     */
+    @NotNull
+    static Map<String, JSONObject> load(@NotNull final File file) {
+        if (!file.exists()) return Collections.emptyMap();
+
+        final Map<String, JSONObject> profiles = new HashMap<>();
+        try {
+            final JSONObject stored = new JSONObject(FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+            for (String name : stored.keySet()) profiles.put(name, stored.getJSONObject(name));
+            logger.info("Loaded {} build profiles from {}", profiles.size(), file.getPath());
+        } catch (IOException | JSONException e) {
+            logger.error("Failed to read the build profiles: {}", file.getPath(), e);
+        }
+        return profiles;
+    }
+
+    /**
+     * Sets the options of the profile on {@code request}.
+     *
+     * @param request the request to run
+     */
+    public void apply(@NotNull final InvocationRequest request) {
+        if (threads != null) request.setThreads(threads);
+        if (mavenOpts != null) request.setMavenOpts(mavenOpts);
+
+        final Properties properties = request.getProperties() == null ? new Properties() : request.getProperties();
+        if (forkCount != null) properties.setProperty("forkCount", forkCount);
+        if (parallel != null) properties.setProperty("parallel", parallel);
+        if (threadCount != null) properties.setProperty("threadCount", threadCount);
+        if (argLine != null) properties.setProperty("argLine", argLine);
+        request.setProperties(properties);
+    }
+
+    /**
+     * Describes the profile for the build log.
+     *
+     * @return The settings of the profile as a {@code String}
+     */
+    @Override
+    public String toString() {
+        return (threads == null ? "" : "-T " + threads + ", ") + "forkCount " + forkCount + (parallel == null ? "" : ", parallel " + parallel)
+                + (threadCount == null ? "" : ", threadCount " + threadCount);
+    }
+}
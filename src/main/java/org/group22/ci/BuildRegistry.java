@@ -0,0 +1,270 @@
+package org.group22.ci;
+
+import org.group22.ci.GitStatusHandler.BuildStatus;
+import org.group22.utilities.Helpers;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BuildRegistry {
+    private static final BuildRegistry INSTANCE = new BuildRegistry();
+    private final Map<String, BuildRecord> byId = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, BuildRecord> byTime = new ConcurrentSkipListMap<>(ReportIndex.CHRONOLOGICAL);
+    private final Map<String, ConcurrentSkipListMap<String, BuildRecord>> byRepository = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<String, BuildRecord>> byBranch = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Returns the registry of the builds that have a report on the server.
+     *
+     * @return the shared {@code BuildRegistry}
+     */
+    public static BuildRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Adds a build that is only known by its id, e.g. a report found in the bucket. A build that is already in the
+     * registry is left as it is.
+     *
+     * @param id the id of the build
+     */
+    public synchronized void add(@NotNull final String id) {
+        if (byId.containsKey(id)) return;
+        put(new BuildRecord(id, null, null, null, null));
+    }
+
+    /**
+     * Adds a build to the registry, replacing the record with the same id if there is one. Writers take turns, but
+     * reads never block: a reader sees each record either before or after it was replaced.
+     *
+     * @param record the record of the build
+     */
+    public synchronized void put(@NotNull final BuildRecord record) {
+        final BuildRecord previous = byId.put(record.getId(), record);
+        byTime.put(record.getId(), record);
+        if (previous != null && previous.getRepository() != null) {
+            index(byRepository, previous.getRepository()).remove(previous.getId());
+            index(byBranch, branchKey(previous.getRepository(), previous.getBranch())).remove(previous.getId());
+        }
+        if (record.getRepository() != null) {
+            index(byRepository, record.getRepository()).put(record.getId(), record);
+            index(byBranch, branchKey(record.getRepository(), record.getBranch())).put(record.getId(), record);
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Finds the record of a build.
+     *
+     * @param id the id of the build
+     * @return the {@code BuildRecord}, or {@code null} if the build isn't in the registry
+     */
+    @Nullable
+    public BuildRecord get(@NotNull final String id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Checks if a build is in the registry.
+     *
+     * @param id the id of the build
+     * @return {@code true} if the build is in the registry
+     */
+    public boolean contains(@NotNull final String id) {
+        return byId.containsKey(id);
+    }
+
+    /**
+     * Returns every build, newest first. The map is a live read-only view ordered by the time the builds started.
+     *
+     * @return the builds keyed by id
+     */
+    @NotNull
+    public NavigableMap<String, BuildRecord> getBuilds() {
+        return Collections.unmodifiableNavigableMap(byTime.descendingMap());
+    }
+
+    /**
+     * Returns the builds of a repository, newest first.
+     *
+     * @param repository the name of the repository
+     * @return the builds keyed by id
+     */
+    @NotNull
+    public NavigableMap<String, BuildRecord> getBuilds(@NotNull final String repository) {
+        final ConcurrentSkipListMap<String, BuildRecord> builds = byRepository.get(repository);
+        return builds == null ? Collections.emptyNavigableMap() : Collections.unmodifiableNavigableMap(builds.descendingMap());
+    }
+
+    /**
+     * Returns the builds of a branch in a repository, newest first.
+     *
+     * @param repository the name of the repository
+     * @param branch     the name of the branch
+     * @return the builds keyed by id
+     */
+    @NotNull
+    public NavigableMap<String, BuildRecord> getBuilds(@NotNull final String repository, @NotNull final String branch) {
+        final ConcurrentSkipListMap<String, BuildRecord> builds = byBranch.get(branchKey(repository, branch));
+        return builds == null ? Collections.emptyNavigableMap() : Collections.unmodifiableNavigableMap(builds.descendingMap());
+    }
+
+    /**
+     * Returns the number of builds in the registry.
+     *
+     * @return the number of builds
+     */
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * Returns a number that is increased every time a build is added or replaced, so views of the registry can tell
+     * if they are out of date.
+     *
+     * @return the version of the registry
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Finds the index for {@code key}, creating it if it doesn't exist.
+     *
+     * @param indexes the indexes to search
+     * @param key     the key of the index
+     * @return the index
+     */
+    @NotNull
+    private static ConcurrentSkipListMap<String, BuildRecord> index(@NotNull final Map<String, ConcurrentSkipListMap<String, BuildRecord>> indexes,
+                                                                    @NotNull final String key) {
+        return indexes.computeIfAbsent(key, k -> new ConcurrentSkipListMap<>(ReportIndex.CHRONOLOGICAL));
+    }
+
+    /**
+     * Generates the key used to index builds by branch.
+     *
+     * @param repository the name of the repository
+     * @param branch     the name of the branch
+     * @return The repository and branch as a {@code String}
+     */
+    @NotNull
+    private static String branchKey(@NotNull final String repository, @Nullable final String branch) {
+        return repository + "#" + branch;
+    }
+
+    /**
+     * Helper class for the information kept about a build.
+     */
+    public static class BuildRecord {
+        private final String id;
+        private final String repository;
+        private final String branch;
+        private final BuildStatus status;
+        private final Helpers.Result result;
+        private final BuildSandbox.Usage usage;
+
+        /**
+         * Creates a {@code BuildRecord}. Only the test counts of {@code result} are kept, not the failure details.
+         *
+         * @param id         the id of the build
+         * @param repository the name of the repository, or {@code null} if it isn't known
+         * @param branch     the name of the branch, or {@code null} if it isn't known
+         * @param status     the status of the build, or {@code null} if it isn't known
+         * @param result     the test results of the build, or {@code null} if no tests were run
+         */
+        public BuildRecord(@NotNull final String id, @Nullable final String repository, @Nullable final String branch,
+                           @Nullable final BuildStatus status, @Nullable final Helpers.Result result) {
+            this(id, repository, branch, status, result, null);
+        }
+
+        /**
+         * Creates a {@code BuildRecord} that also holds the resources used by the build.
+         *
+         * @param id         the id of the build
+         * @param repository the name of the repository, or {@code null} if it isn't known
+         * @param branch     the name of the branch, or {@code null} if it isn't known
+         * @param status     the status of the build, or {@code null} if it isn't known
+         * @param result     the test results of the build, or {@code null} if no tests were run
+         * @param usage      the resources used by the build, or {@code null} if they weren't measured
+         */
+        public BuildRecord(@NotNull final String id, @Nullable final String repository, @Nullable final String branch,
+                           @Nullable final BuildStatus status, @Nullable final Helpers.Result result,
+                           @Nullable final BuildSandbox.Usage usage) {
+            this.id = id;
+            this.usage = usage;
+            this.repository = repository;
+            this.branch = branch;
+            this.status = status;
+            this.result = result == null ? null
+                    : new Helpers.Result(result.getTestRun(), result.getFailures(), result.getErrors(), result.getSkipped());
+        }
+
+        /**
+         * Getter function for the {@code id} field.
+         *
+         * @return The build id
+         */
+        @NotNull
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Getter function for the {@code repository} field.
+         *
+         * @return The name of the repository, or {@code null} if it isn't known
+         */
+        @Nullable
+        public String getRepository() {
+            return repository;
+        }
+
+        /**
+         * Getter function for the {@code branch} field.
+         *
+         * @return The name of the branch, or {@code null} if it isn't known
+         */
+        @Nullable
+        public String getBranch() {
+            return branch;
+        }
+
+        /**
+         * Getter function for the {@code status} field.
+         *
+         * @return The status of the build, or {@code null} if it isn't known
+         */
+        @Nullable
+        public BuildStatus getStatus() {
+            return status;
+        }
+
+        /**
+         * Getter function for the {@code result} field.
+         *
+         * @return The test counts of the build, or {@code null} if no tests were run
+         */
+        @Nullable
+        public Helpers.Result getResult() {
+            return result;
+        }
+
+        /**
+         * Getter function for the {@code usage} field.
+         *
+         * @return The resources used by the build, or {@code null} if they weren't measured
+         */
+        @Nullable
+        public BuildSandbox.Usage getUsage() {
+            return usage;
+        }
+    }
+}
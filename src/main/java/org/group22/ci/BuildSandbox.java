@@ -0,0 +1,384 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+import org.group22.utilities.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class BuildSandbox {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(BuildSandbox.class);
+    private static final long CPU_PERIOD_MICROS = 100000;
+    // Runs the command as the leader of a new process group, after moving the shell into the cgroup if there is one
+    private static final String LAUNCHER = "echo $$ > \"$0\" && if [ -n \"$CI_CGROUP\" ]; then echo $$ > \"$CI_CGROUP/cgroup.procs\" || echo \"[CI] Could not join $CI_CGROUP, running without limits\"; fi && exec \"$@\"";
+    private static volatile Boolean cgroupsAvailable;
+    private final String buildId;
+    private final File cgroupRoot;
+    private final double cpuLimit;
+    private final long memoryLimitBytes;
+    private final long timeoutMillis;
+
+    /**
+     * Creates a {@code BuildSandbox} for a build with the limits set in {@code Configuration}.
+     *
+     * @param buildId the id of the build
+     */
+    public BuildSandbox(@NotNull final String buildId) {
+        this(buildId, new File(Configuration.BUILD_CGROUP), Configuration.BUILD_CPU_LIMIT,
+                Configuration.BUILD_MEMORY_LIMIT_MB * 1024L * 1024L, Configuration.BUILD_TIMEOUT_MINUTES * 60000L);
+    }
+
+    /**
+     * Creates a {@code BuildSandbox} that runs a build in its own process group and, when cgroups v2 are available
+     * under {@code cgroupRoot}, in its own cgroup with CPU and memory limits.
+     *
+     * @param buildId          the id of the build
+     * @param cgroupRoot       the cgroup the cgroups of the builds are created in
+     * @param cpuLimit         the number of cores the build can use, {@code 0} for no limit
+     * @param memoryLimitBytes the memory the build can use, {@code 0} for no limit
+     * @param timeoutMillis    the time after which the build is killed, {@code 0} for no timeout
+     */
+    BuildSandbox(@NotNull final String buildId, @NotNull final File cgroupRoot, final double cpuLimit,
+                 final long memoryLimitBytes, final long timeoutMillis) {
+        this.buildId = buildId;
+        this.cgroupRoot = cgroupRoot;
+        this.cpuLimit = cpuLimit;
+        this.memoryLimitBytes = memoryLimitBytes;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Runs {@code command} and passes every line of its output to {@code output}. The command and every process it
+     * starts, e.g. the forked test JVMs, are killed when the timeout runs out or the calling thread is interrupted.
+     *
+     * @param command          the command and its arguments
+     * @param workingDirectory the directory the command is run in
+     * @param environment      the environment of the command
+     * @param output           the handler the output is passed to
+     * @return the result of the run
+     * @throws IOException If the command couldn't be started
+     */
+    @NotNull
+    public Run run(@NotNull final List<String> command, @NotNull final File workingDirectory,
+                   @NotNull final List<String> environment, @NotNull final InvocationOutputHandler output) throws IOException {
+        final File cgroup = createCgroup();
+        final File pidFile = File.createTempFile("build-", ".pid");
+        final long start = System.currentTimeMillis();
+
+        final List<String> launcher = new ArrayList<>();
+        final boolean processGroup = new File("/usr/bin/setsid").canExecute();
+        if (processGroup) launcher.add("/usr/bin/setsid");
+        launcher.addAll(Arrays.asList("/bin/sh", "-c", LAUNCHER, pidFile.getAbsolutePath()));
+        launcher.addAll(command);
+
+        final ProcessBuilder processBuilder = new ProcessBuilder(launcher).directory(workingDirectory).redirectErrorStream(true);
+        processBuilder.environment().clear();
+        for (String variable : environment) {
+            final int separator = variable.indexOf('=');
+            if (separator > 0) processBuilder.environment().put(variable.substring(0, separator), variable.substring(separator + 1));
+        }
+        if (cgroup != null) processBuilder.environment().put("CI_CGROUP", cgroup.getAbsolutePath());
+
+        final Process process;
+        try {
+            process = processBuilder.start();
+        } catch (IOException e) {
+            removeCgroup(cgroup);
+            FileUtils.deleteQuietly(pidFile);
+            throw e;
+        }
+
+        final Thread reader = new Thread(() -> {
+            try (BufferedReader lines = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = lines.readLine()) != null) output.consumeLine(line);
+            } catch (IOException e) {
+                logger.warn("Stopped reading the output of build {}", buildId, e);
+            }
+        }, "build-output-" + buildId);
+        reader.setDaemon(true);
+        reader.start();
+
+        boolean timedOut = false;
+        boolean interrupted = false;
+        int exitCode = -1;
+        try {
+            if (timeoutMillis > 0 && !process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                timedOut = true;
+                logger.warn("Build {} ran for more than {} ms, killing it", buildId, timeoutMillis);
+            } else {
+                exitCode = process.waitFor();
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+            logger.info("Build {} was interrupted, killing it", buildId);
+        }
+        // Processes the build left behind, e.g. a test JVM that didn't exit, are killed as well
+        killProcessTree(cgroup, processGroup ? pidFile : null);
+        if (timedOut || interrupted) process.destroyForcibly();
+
+        try {
+            reader.join(5000);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        // Destroying the process closes its output, so it is only done once the reader has read all of it
+        process.destroyForcibly();
+        final Usage usage = readUsage(cgroup, System.currentTimeMillis() - start);
+        removeCgroup(cgroup);
+        FileUtils.deleteQuietly(pidFile);
+        if (interrupted) Thread.currentThread().interrupt();
+        return new Run(timedOut || interrupted ? -1 : exitCode, timedOut, usage);
+    }
+
+    /**
+     * Creates the cgroup of the build and sets its limits.
+     *
+     * @return the directory of the cgroup, or {@code null} if the build runs without a cgroup
+     */
+    @Nullable
+    private File createCgroup() {
+        if (!isCgroupAvailable(cgroupRoot)) return null;
+
+        final File cgroup = new File(cgroupRoot, "build-" + buildId);
+        if (!cgroup.mkdir()) {
+            logger.warn("Could not create cgroup {}, running build {} without limits", cgroup.getPath(), buildId);
+            return null;
+        }
+        try {
+            if (memoryLimitBytes > 0) {
+                write(new File(cgroup, "memory.max"), String.valueOf(memoryLimitBytes));
+                write(new File(cgroup, "memory.swap.max"), "0");
+            }
+            if (cpuLimit > 0) write(new File(cgroup, "cpu.max"), Math.round(cpuLimit * CPU_PERIOD_MICROS) + " " + CPU_PERIOD_MICROS);
+        } catch (IOException e) {
+            logger.warn("Could not set the limits of cgroup {}", cgroup.getPath(), e);
+        }
+        return cgroup;
+    }
+
+    /**
+     * Checks once if cgroups v2 can be used, enabling the CPU and memory controllers for the cgroups of the builds.
+     * The server needs write access to {@code cgroupRoot}, e.g. through a delegated cgroup.
+     *
+     * @param cgroupRoot the cgroup the cgroups of the builds are created in
+     * @return {@code true} if the builds can run in their own cgroups
+     */
+    private static boolean isCgroupAvailable(@NotNull final File cgroupRoot) {
+        if (cgroupsAvailable != null) return cgroupsAvailable;
+        synchronized (BuildSandbox.class) {
+            if (cgroupsAvailable != null) return cgroupsAvailable;
+            boolean available = false;
+            try {
+                final File parent = cgroupRoot.getParentFile();
+                if (parent != null && new File(parent, "cgroup.controllers").exists() && (cgroupRoot.isDirectory() || cgroupRoot.mkdir())) {
+                    write(new File(cgroupRoot, "cgroup.subtree_control"), "+cpu +memory");
+                    available = true;
+                }
+            } catch (IOException e) {
+                logger.warn("Could not enable the cpu and memory controllers in {}", cgroupRoot.getPath(), e);
+            }
+            if (!available) logger.warn("cgroups v2 are not available at {}, builds run without CPU and memory limits", cgroupRoot.getPath());
+            cgroupsAvailable = available;
+            return available;
+        }
+    }
+
+    /**
+     * Kills every process of the build. With a cgroup every process in it is killed; otherwise the process group
+     * started by the build is killed. The build process itself is destroyed by the caller as a last resort.
+     *
+     * @param cgroup  the cgroup of the build, or {@code null}
+     * @param pidFile the file the launcher wrote the id of the process group to, or {@code null} if the build didn't
+     *                start a process group
+     */
+    private void killProcessTree(@Nullable final File cgroup, @Nullable final File pidFile) {
+        if (cgroup != null) {
+            try {
+                write(new File(cgroup, "cgroup.kill"), "1");
+            } catch (IOException e) {
+                logger.debug("cgroup.kill is not supported, killing the process group of build {}", buildId);
+            }
+        }
+        if (pidFile != null) {
+            try {
+                final String pid = FileUtils.readFileToString(pidFile, StandardCharsets.UTF_8).trim();
+                if (!pid.isEmpty()) new ProcessBuilder("kill", "-KILL", "--", "-" + pid).redirectErrorStream(true).start().waitFor(5, TimeUnit.SECONDS);
+            } catch (IOException e) {
+                logger.warn("Could not kill the process group of build {}", buildId, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reads the resources used by the build from its cgroup.
+     *
+     * @param cgroup      the cgroup of the build, or {@code null}
+     * @param wallMillis  the time the build ran for
+     * @return the {@code Usage}, with {@code -1} for the values that couldn't be read
+     */
+    @NotNull
+    private static Usage readUsage(@Nullable final File cgroup, final long wallMillis) {
+        double cpuSeconds = -1;
+        long peakMemoryBytes = -1;
+        if (cgroup != null) {
+            try {
+                for (String line : FileUtils.readLines(new File(cgroup, "cpu.stat"), StandardCharsets.UTF_8)) {
+                    if (line.startsWith("usage_usec ")) cpuSeconds = Long.parseLong(line.substring(11).trim()) / 1e6;
+                }
+                final File peak = new File(cgroup, "memory.peak");
+                if (peak.exists()) peakMemoryBytes = Long.parseLong(FileUtils.readFileToString(peak, StandardCharsets.UTF_8).trim());
+            } catch (IOException | NumberFormatException e) {
+                logger.warn("Could not read the resource usage of cgroup {}", cgroup.getPath(), e);
+            }
+        }
+        return new Usage(wallMillis / 1000.0, cpuSeconds, peakMemoryBytes);
+    }
+
+    /**
+     * Removes the cgroup of the build. A cgroup can only be removed once its processes have exited, so removing is
+     * retried for a short while.
+     *
+     * @param cgroup the cgroup of the build, or {@code null}
+     */
+    private void removeCgroup(@Nullable final File cgroup) {
+        if (cgroup == null) return;
+        for (int attempt = 0; attempt < 50; attempt++) {
+            if (cgroup.delete() || !cgroup.exists()) return;
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        logger.warn("Could not remove cgroup {}", cgroup.getPath());
+    }
+
+    /**
+     * Writes a value to a cgroup interface file.
+     *
+     * @param file  the interface file
+     * @param value the value
+     * @throws IOException If the value couldn't be written
+     */
+    private static void write(@NotNull final File file, @NotNull final String value) throws IOException {
+        FileUtils.writeStringToFile(file, value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper class for the outcome of a sandboxed run.
+     */
+    public static class Run {
+        private final int exitCode;
+        private final boolean timedOut;
+        private final Usage usage;
+
+        Run(final int exitCode, final boolean timedOut, @NotNull final Usage usage) {
+            this.exitCode = exitCode;
+            this.timedOut = timedOut;
+            this.usage = usage;
+        }
+
+        /**
+         * Getter function for the {@code exitCode} field.
+         *
+         * @return The exit code of the command, or {@code -1} if it was killed
+         */
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * Getter function for the {@code timedOut} field.
+         *
+         * @return {@code true} if the command was killed because it ran for too long
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * Getter function for the {@code usage} field.
+         *
+         * @return The resources used by the command
+         */
+        @NotNull
+        public Usage getUsage() {
+            return usage;
+        }
+    }
+
+    /**
+     * Helper class for the resources used by a build.
+     */
+    public static class Usage {
+        private final double wallSeconds;
+        private final double cpuSeconds;
+        private final long peakMemoryBytes;
+
+        /**
+         * Creates a {@code Usage}.
+         *
+         * @param wallSeconds     the time the build ran for
+         * @param cpuSeconds      the CPU time used by every process of the build, or {@code -1} if it isn't known
+         * @param peakMemoryBytes the largest amount of memory used at once, or {@code -1} if it isn't known
+         */
+        public Usage(final double wallSeconds, final double cpuSeconds, final long peakMemoryBytes) {
+            this.wallSeconds = wallSeconds;
+            this.cpuSeconds = cpuSeconds;
+            this.peakMemoryBytes = peakMemoryBytes;
+        }
+
+        /**
+         * Getter function for the {@code wallSeconds} field.
+         *
+         * @return The time the build ran for in seconds
+         */
+        public double getWallSeconds() {
+            return wallSeconds;
+        }
+
+        /**
+         * Getter function for the {@code cpuSeconds} field.
+         *
+         * @return The CPU time used in seconds, or {@code -1} if it isn't known
+         */
+        public double getCpuSeconds() {
+            return cpuSeconds;
+        }
+
+        /**
+         * Getter function for the {@code peakMemoryBytes} field.
+         *
+         * @return The peak memory use in bytes, or {@code -1} if it isn't known
+         */
+        public long getPeakMemoryBytes() {
+            return peakMemoryBytes;
+        }
+
+        /**
+         * Describes the usage for the build log and the report.
+         *
+         * @return The resources used as a {@code String}
+         */
+        @Override
+        public String toString() {
+            return String.format("wall time %.1f s, CPU time %s, peak memory %s", wallSeconds,
+                    cpuSeconds < 0 ? "unknown" : String.format("%.1f s", cpuSeconds),
+                    peakMemoryBytes < 0 ? "unknown" : (peakMemoryBytes / (1024 * 1024)) + " MB");
+        }
+    }
+}
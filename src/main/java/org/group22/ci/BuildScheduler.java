@@ -0,0 +1,343 @@
+package org.group22.ci;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+public class BuildScheduler {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(BuildScheduler.class);
+    private final BlockingDeque<BuildJob> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private final int workerCount;
+    private final boolean cancelSuperseded;
+    private final BuildJournal journal;
+    private final Object lock = new Object();
+    private final Map<String, BuildJob> queuedByBranch = new HashMap<>();
+    private final Map<String, ProjectTester> runningByBranch = new HashMap<>();
+    private final ExecutorService supersededNotifier = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "build-superseded-notifier");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong maxWaitMillis = new AtomicLong();
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a {@code BuildScheduler} with a bounded queue that is drained by a fixed number of worker threads.
+     *
+     * @param workerCount   the number of builds that may run at the same time
+     * @param queueCapacity the number of builds that may wait in the queue before new builds are rejected
+     */
+    public BuildScheduler(final int workerCount, final int queueCapacity) {
+        this(workerCount, queueCapacity, false);
+    }
+
+    /**
+     * Creates a {@code BuildScheduler} with a bounded queue that is drained by a fixed number of worker threads.
+     *
+     * @param workerCount      the number of builds that may run at the same time
+     * @param queueCapacity    the number of builds that may wait in the queue before new builds are rejected
+     * @param cancelSuperseded {@code true} if a running build should be cancelled when a newer push is made to the same
+     *                         branch
+     */
+    public BuildScheduler(final int workerCount, final int queueCapacity, final boolean cancelSuperseded) {
+        this(workerCount, queueCapacity, cancelSuperseded, BuildJournal.getInstance());
+    }
+
+    /**
+     * Creates a {@code BuildScheduler} that records the changes a build takes over from the builds it replaces in
+     * {@code journal} instead of the shared {@code BuildJournal}.
+     *
+     * @param workerCount      the number of builds that may run at the same time
+     * @param queueCapacity    the number of builds that may wait in the queue before new builds are rejected
+     * @param cancelSuperseded {@code true} if a running build should be cancelled when a newer push is made to the same
+     *                         branch
+     * @param journal          the journal the builds are recorded in
+     */
+    public BuildScheduler(final int workerCount, final int queueCapacity, final boolean cancelSuperseded,
+                          @NotNull final BuildJournal journal) {
+        this.workerCount = workerCount;
+        this.queue = new LinkedBlockingDeque<>(queueCapacity);
+        this.cancelSuperseded = cancelSuperseded;
+        this.journal = journal;
+    }
+
+    /**
+     * Starts the worker threads. Each worker takes builds from the queue and runs them one at a time.
+     */
+    public void start() {
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::work, "build-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        logger.info("Started build scheduler with {} workers and queue capacity {}", workerCount, getQueueCapacity());
+    }
+
+    /**
+     * Stops the worker threads. Builds that are still waiting in the queue are dropped.
+     */
+    public void shutdown() {
+        stopped = true;
+        workers.forEach(Thread::interrupt);
+        supersededNotifier.shutdown();
+        logger.info("Stopped build scheduler, {} queued builds were dropped", queue.size());
+        queue.clear();
+    }
+
+    /**
+     * Puts a build in the queue without waiting for it to run. Only the newest push to a branch is built: a build of
+     * the same branch that is still waiting in the queue is replaced by the new one, and a running build of the same
+     * branch is cancelled if the scheduler was created with {@code cancelSuperseded}. Superseded builds still get a
+     * final commit status, and the new build takes over their changes, so the tests they would have run aren't skipped.
+     *
+     * @param projectTester the build to run
+     * @return {@code true} if the build was queued, {@code false} if the queue is full
+     */
+    public boolean submit(@NotNull final ProjectTester projectTester) {
+        final String branchKey = projectTester.getBranchKey();
+        final BuildJob job = new BuildJob(projectTester);
+        final BuildJob replaced;
+        final ProjectTester runningBuild;
+
+        synchronized (lock) {
+            final BuildJob queued = queuedByBranch.get(branchKey);
+            replaced = queued != null && queue.remove(queued) ? queued : null;
+            if (!cancelSuperseded) {
+                runningBuild = null;
+            } else if (queued != null && replaced == null) {
+                // A worker has taken the queued build but has not registered it as running yet
+                runningBuild = queued.projectTester;
+            } else {
+                runningBuild = runningByBranch.get(branchKey);
+            }
+            // Builds are only queued while holding the lock, so the queue can't fill up before the offer below
+            if (stopped || queue.remainingCapacity() == 0) {
+                if (replaced != null) queue.offer(replaced);
+                rejected.incrementAndGet();
+                logger.warn("Build queue is full, rejected build with id: {}", projectTester.getId());
+                return false;
+            }
+
+            // The new build may be taken as soon as it is queued, so it takes over the changes first
+            boolean inherited = replaced != null && projectTester.inheritChanges(replaced.projectTester);
+            inherited |= runningBuild != null && projectTester.inheritChanges(runningBuild);
+            if (inherited) journal.updated(projectTester.toJournal());
+            queue.offer(job);
+            queuedByBranch.put(branchKey, job);
+            if (runningBuild != null) runningBuild.cancel();
+        }
+
+        accepted.incrementAndGet();
+        logger.info("Queued build with id: {}, queue depth: {}", projectTester.getId(), queue.size());
+
+        if (replaced != null) {
+            superseded.incrementAndGet();
+            supersededNotifier.execute(replaced.projectTester::supersede);
+        }
+        if (runningBuild != null) cancelled.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * The loop run by every worker thread.
+     */
+    private void work() {
+        while (!stopped) {
+            final BuildJob job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            started(job);
+            try {
+                job.projectTester.processPush(workerCount);
+            } catch (RuntimeException e) {
+                logger.error("Build {} failed with an unexpected error", job.projectTester.getId(), e);
+            } finally {
+                // A cancellation may have interrupted the worker after the build already finished
+                Thread.interrupted();
+                finish(job.projectTester);
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest build from the queue that is {@code eligible}, without waiting, so it can be run somewhere else
+     * than on a worker thread, e.g. on a remote agent. The build counts as running until {@code finish} or
+     * {@code requeue} is called.
+     *
+     * @param eligible tells if a build may be taken, given the build and the time it has waited in milliseconds
+     * @return the build, or {@code null} if no queued build is eligible
+     */
+    @Nullable
+    public ProjectTester take(@NotNull final BiPredicate<ProjectTester, Long> eligible) {
+        for (BuildJob job : queue) {
+            final long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - job.enqueuedAt);
+            if (!eligible.test(job.projectTester, waitMillis)) continue;
+            // Taken and registered at once, so a queued build never looks taken but not running to the other methods
+            synchronized (lock) {
+                if (!queue.removeFirstOccurrence(job)) continue;
+                started(job);
+            }
+            return job.projectTester;
+        }
+        return null;
+    }
+
+    /**
+     * Registers a build taken from the queue as running.
+     *
+     * @param job the build
+     */
+    private void started(@NotNull final BuildJob job) {
+        synchronized (lock) {
+            queuedByBranch.remove(job.projectTester.getBranchKey(), job);
+            runningByBranch.put(job.projectTester.getBranchKey(), job.projectTester);
+        }
+
+        final long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - job.enqueuedAt);
+        totalWaitMillis.addAndGet(waitMillis);
+        maxWaitMillis.accumulateAndGet(waitMillis, Math::max);
+        running.incrementAndGet();
+        logger.info("Build {} started after waiting {} ms in the queue", job.projectTester.getId(), waitMillis);
+    }
+
+    /**
+     * Registers a running build as finished.
+     *
+     * @param projectTester the build
+     */
+    public void finish(@NotNull final ProjectTester projectTester) {
+        synchronized (lock) {
+            runningByBranch.remove(projectTester.getBranchKey(), projectTester);
+        }
+        running.decrementAndGet();
+        completed.incrementAndGet();
+    }
+
+    /**
+     * Puts a running build back at the head of the queue, e.g. because the agent running it was lost. If a newer push
+     * was made to the same branch in the meantime the build is superseded instead, and the newer build takes over its
+     * changes.
+     *
+     * @param projectTester the build
+     * @return {@code true} if the build was queued again, {@code false} if it was superseded or the queue is full
+     */
+    public boolean requeue(@NotNull final ProjectTester projectTester) {
+        final String branchKey = projectTester.getBranchKey();
+        final BuildJob job = new BuildJob(projectTester);
+        final boolean newer;
+        final boolean queued;
+        synchronized (lock) {
+            runningByBranch.remove(branchKey, projectTester);
+            final BuildJob newerJob = queuedByBranch.get(branchKey);
+            newer = projectTester.isCancelled() || newerJob != null;
+            // A cancelled build already handed its changes to the build that cancelled it
+            if (newerJob != null && !projectTester.isCancelled() && newerJob.projectTester.inheritChanges(projectTester)) {
+                journal.updated(newerJob.projectTester.toJournal());
+            }
+            queued = !newer && !stopped && queue.offerFirst(job);
+            if (queued) queuedByBranch.put(branchKey, job);
+        }
+        running.decrementAndGet();
+
+        if (newer) {
+            superseded.incrementAndGet();
+            supersededNotifier.execute(projectTester::supersede);
+        }
+        return queued;
+    }
+
+    /**
+     * Getter function for the number of builds waiting in the queue.
+     *
+     * @return The current queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Getter function for the maximum number of builds that can wait in the queue.
+     *
+     * @return The queue capacity
+     */
+    public int getQueueCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    /**
+     * Getter function for the number of builds that are currently running.
+     *
+     * @return The number of running builds
+     */
+    public int getRunning() {
+        return running.get();
+    }
+
+    /**
+     * Calculates the average time builds have waited in the queue before a worker picked them up.
+     *
+     * @return The average wait time in milliseconds
+     */
+    public long getAverageWaitMillis() {
+        final long started = completed.get() + running.get();
+        return started == 0 ? 0 : totalWaitMillis.get() / started;
+    }
+
+    /**
+     * Generates a plain text summary of the scheduler metrics, one metric per line.
+     *
+     * @return The metrics as a {@code String}
+     */
+    @NotNull
+    public String metrics() {
+        return "build_queue_depth " + getQueueDepth() + "\n" +
+                "build_queue_capacity " + getQueueCapacity() + "\n" +
+                "build_workers " + workerCount + "\n" +
+                "build_running " + getRunning() + "\n" +
+                "build_accepted_total " + accepted.get() + "\n" +
+                "build_rejected_total " + rejected.get() + "\n" +
+                "build_completed_total " + completed.get() + "\n" +
+                "build_superseded_total " + superseded.get() + "\n" +
+                "build_cancelled_total " + cancelled.get() + "\n" +
+                "build_queue_wait_avg_ms " + getAverageWaitMillis() + "\n" +
+                "build_queue_wait_max_ms " + maxWaitMillis.get() + "\n";
+    }
+
+    /**
+     * Helper class for a build waiting in the queue.
+     */
+    private static class BuildJob {
+        private final ProjectTester projectTester;
+        private final long enqueuedAt = System.nanoTime();
+
+        BuildJob(final ProjectTester projectTester) {
+            this.projectTester = projectTester;
+        }
+    }
+}
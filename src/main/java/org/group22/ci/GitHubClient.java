@@ -0,0 +1,229 @@
+package org.group22.ci;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.group22.utilities.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class GitHubClient {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(GitHubClient.class);
+    private static final GitHubClient INSTANCE = new GitHubClient(Configuration.GITHUB_API_URL, Configuration.GITHUB_TOKEN,
+            Configuration.GITHUB_MAX_RETRIES, 1000);
+    private static final int RATE_LIMIT_RESERVE = 50;
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+    private final String apiUrl;
+    private final String token;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final CloseableHttpClient httpClient;
+    private long rateLimitRemaining = -1;
+    private long rateLimitReset = 0;
+    private long lastRequest = 0;
+
+    /**
+     * Creates a {@code GitHubClient} that sends requests to {@code apiUrl} over a pool of kept-alive connections.
+     *
+     * @param apiUrl        the base URL of the Github API, ending with a slash
+     * @param token         the token used to authenticate with Github
+     * @param maxRetries    the number of times a request is retried after a server error or a rate limit
+     * @param backoffMillis the time to wait before the first retry, doubled for every retry after that
+     */
+    public GitHubClient(@NotNull final String apiUrl, final String token, final int maxRetries, final long backoffMillis) {
+        this.apiUrl = apiUrl.endsWith("/") ? apiUrl : apiUrl + "/";
+        this.token = token;
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(20);
+        connectionManager.setDefaultMaxPerRoute(20);
+        this.httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+    }
+
+    /**
+     * Returns the client shared by the whole server.
+     *
+     * @return the shared {@code GitHubClient}
+     */
+    public static GitHubClient getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sends {@code body} to {@code path} once, without waiting. Server errors, secondary rate limits and network
+     * errors fail the attempt with the time to wait before the next one: exponential backoff, or the time Github asked
+     * for in {@code Retry-After} or {@code X-RateLimit-Reset}. The caller schedules the retry, so a request that has
+     * to wait doesn't hold up requests to other repositories.
+     *
+     * @param path    the path of the API endpoint, relative to the base URL
+     * @param body    the JSON body of the request
+     * @param attempt the number of attempts made before this one
+     * @return the outcome of the attempt
+     */
+    @NotNull
+    public Attempt send(@NotNull final String path, @NotNull final JSONObject body, final int attempt) {
+        long wait;
+        try {
+            synchronized (this) {
+                lastRequest = System.currentTimeMillis();
+            }
+            final HttpPost request = new HttpPost(apiUrl + path);
+            request.addHeader("Accept", "application/vnd.github.v3+json");
+            request.addHeader("Authorization", "token " + token);
+            request.setEntity(new StringEntity(body.toString(), ContentType.APPLICATION_JSON));
+
+            try (CloseableHttpResponse response = httpClient.execute(request)) {
+                final int status = response.getStatusLine().getStatusCode();
+                final String responseBody = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+                updateRateLimit(response);
+
+                if (status >= 200 && status < 300) return new Attempt(Outcome.ACCEPTED, 0);
+                if (!isRetryable(status, responseBody)) {
+                    logger.error("Github rejected request to {} with status {}: {}", path, status, responseBody);
+                    return new Attempt(Outcome.REJECTED, 0);
+                }
+                logger.warn("Github answered request to {} with status {}, attempt {} of {}", path, status, attempt + 1, maxRetries + 1);
+                wait = retryDelay(response, attempt);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to send request to {}, attempt {} of {}", path, attempt + 1, maxRetries + 1, e);
+            wait = backoff(attempt);
+        }
+
+        if (attempt >= maxRetries) {
+            logger.error("Giving up on request to {} after {} attempts", path, attempt + 1);
+            return new Attempt(Outcome.FAILED, -1);
+        }
+        return new Attempt(Outcome.FAILED, wait);
+    }
+
+    /**
+     * Calculates how long to wait before sending the next request. When few requests are left in the rate limit
+     * window, requests are spread out over the rest of the window instead of failing once it runs out. The limit
+     * applies to the token, so the wait applies to every request.
+     *
+     * @return the time to wait in milliseconds, {@code 0} if a request can be sent right away
+     */
+    public synchronized long throttleMillis() {
+        if (rateLimitRemaining < 0 || rateLimitRemaining >= RATE_LIMIT_RESERVE) return 0;
+        final long now = System.currentTimeMillis();
+        final long untilReset = rateLimitReset - now;
+        if (untilReset <= 0) return 0;
+        if (rateLimitRemaining == 0) return Math.min(untilReset, MAX_BACKOFF_MILLIS);
+        final long spacing = Math.min(untilReset / rateLimitRemaining, MAX_BACKOFF_MILLIS);
+        return Math.max(0, lastRequest + spacing - now);
+    }
+
+    /**
+     * Checks if a failed request should be sent again. Server errors and rate limits are temporary, other client
+     * errors such as a bad token or a missing commit are not.
+     *
+     * @param status       the status code of the response
+     * @param responseBody the body of the response
+     * @return {@code true} if the request should be retried
+     */
+    private synchronized boolean isRetryable(final int status, @NotNull final String responseBody) {
+        if (status >= 500 || status == 429) return true;
+        return status == 403 && (rateLimitRemaining == 0 || responseBody.toLowerCase().contains("rate limit"));
+    }
+
+    /**
+     * Calculates the time to wait before retrying a request, preferring the time Github asked for.
+     *
+     * @param response the response to the failed request
+     * @param attempt  the number of attempts made before this one
+     * @return the time to wait in milliseconds
+     */
+    private long retryDelay(@NotNull final HttpResponse response, final int attempt) {
+        final Header retryAfter = response.getFirstHeader("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return Math.min(Long.parseLong(retryAfter.getValue().trim()) * 1000, MAX_BACKOFF_MILLIS);
+            } catch (NumberFormatException e) {
+                logger.warn("Github sent an invalid Retry-After header: {}", retryAfter.getValue());
+            }
+        }
+        synchronized (this) {
+            if (rateLimitRemaining == 0) return Math.min(Math.max(0, rateLimitReset - System.currentTimeMillis()), MAX_BACKOFF_MILLIS);
+        }
+        return backoff(attempt);
+    }
+
+    /**
+     * Calculates an exponential backoff with jitter.
+     *
+     * @param attempt the number of attempts made before this one
+     * @return the time to wait in milliseconds
+     */
+    private long backoff(final int attempt) {
+        final long delay = Math.min(backoffMillis << Math.min(attempt, 16), MAX_BACKOFF_MILLIS);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Stores the rate limit reported in the {@code X-RateLimit-Remaining} and {@code X-RateLimit-Reset} headers.
+     *
+     * @param response the response from Github
+     */
+    private synchronized void updateRateLimit(@NotNull final HttpResponse response) {
+        final Header remaining = response.getFirstHeader("X-RateLimit-Remaining");
+        final Header reset = response.getFirstHeader("X-RateLimit-Reset");
+        try {
+            if (remaining != null) rateLimitRemaining = Long.parseLong(remaining.getValue().trim());
+            if (reset != null) rateLimitReset = Long.parseLong(reset.getValue().trim()) * 1000;
+        } catch (NumberFormatException e) {
+            logger.warn("Github sent invalid rate limit headers", e);
+        }
+    }
+
+    /**
+     * The possible results of sending a request to Github.
+     */
+    public enum Outcome {
+        ACCEPTED, REJECTED, FAILED
+    }
+
+    /**
+     * Helper class for the result of one attempt at sending a request.
+     */
+    public static final class Attempt {
+        private final Outcome outcome;
+        private final long retryMillis;
+
+        Attempt(@NotNull final Outcome outcome, final long retryMillis) {
+            this.outcome = outcome;
+            this.retryMillis = retryMillis;
+        }
+
+        /**
+         * Returns whether Github accepted or rejected the request, or whether it failed.
+         *
+         * @return the outcome of the attempt
+         */
+        @NotNull
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * Returns the time to wait before the next attempt of a failed request.
+         *
+         * @return the time to wait in milliseconds, or {@code -1} if the retries are used up
+         */
+        public long getRetryMillis() {
+            return retryMillis;
+        }
+    }
+}
@@ -1,14 +1,27 @@
 package org.group22.ci;
 
+import org.eclipse.jgit.api.CheckoutCommand;
 import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.InvalidRemoteException;
 import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.RevisionSyntaxException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.group22.utilities.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class GitRepositoryHandler {
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(GitRepositoryHandler.class);
@@ -16,6 +29,8 @@ public class GitRepositoryHandler {
     private final String repositoryName;
     private final String cloneURL;
     private final String branch;
+    private final String commitId;
+    private boolean warm = false;
 
     /**
      * Creates a GitRepositoryHandler object
@@ -23,20 +38,113 @@ public class GitRepositoryHandler {
      * @param id             the build id for the project
      * @param repositoryName the name of the repository
      * @param cloneURL       the URL used for cloning the repository
+     * @param branch         the name of the branch
+     * @param commitId       the id of the head commit to check out
      */
-    public GitRepositoryHandler(final String id, final String repositoryName, final String cloneURL, final String branch) {
+    public GitRepositoryHandler(final String id, final String repositoryName, final String cloneURL, final String branch, final String commitId) {
         this.id = id;
         this.repositoryName = repositoryName;
         this.cloneURL = cloneURL;
         this.branch = branch;
+        this.commitId = commitId;
     }
 
     /**
-     * Clones specified github repository
+     * Clones specified github repository, using the strategy set by {@code Configuration.CLONE_STRATEGY}.
      *
      * @return {@code true} if the repository was successfully cloned, otherwise {@code false}
      */
     public boolean cloneRepository() {
+        return cloneRepository(CloneStrategy.fromName(Configuration.CLONE_STRATEGY));
+    }
+
+    /**
+     * Clones specified github repository, using {@code strategy}.
+     *
+     * @param strategy the way the repository is fetched
+     * @return {@code true} if the repository was successfully cloned, otherwise {@code false}
+     */
+    boolean cloneRepository(@NotNull final CloneStrategy strategy) {
+        if (CloneStrategy.MIRROR.equals(strategy)) {
+            return checkoutFromMirror();
+        } else if (CloneStrategy.SINGLE_BRANCH.equals(strategy)) {
+            return singleBranchClone();
+        }
+        return fullClone();
+    }
+
+    /**
+     * Checks if the repository was checked out from a mirror that already existed, i.e. if the clone was a cache hit.
+     *
+     * @return {@code true} if only the new commits had to be fetched
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * Finds the id of the Git tree that was checked out. Commits with the same tree have exactly the same content,
+     * whatever their history.
+     *
+     * @return the tree id, or {@code null} if it couldn't be read
+     */
+    @Nullable
+    public String getTreeId() {
+        return getTreeId(Constants.HEAD);
+    }
+
+    /**
+     * Finds the id of the Git tree of a commit in the history of the checked out repository.
+     *
+     * @param revision the id of the commit, or another revision such as {@code HEAD}
+     * @return the tree id, or {@code null} if the commit isn't in the clone or the tree couldn't be read
+     */
+    @Nullable
+    public String getTreeId(@NotNull final String revision) {
+        try (Git git = Git.open(new File(Configuration.PATH_TO_GIT + id + "/" + repositoryName))) {
+            final ObjectId tree = git.getRepository().resolve(revision + "^{tree}");
+            return tree == null ? null : tree.name();
+        } catch (MissingObjectException e) {
+            return null;
+        } catch (IOException | RevisionSyntaxException e) {
+            logger.error("Failed to read the tree of {} in build {}", revision, id, e);
+            return null;
+        }
+    }
+
+    /**
+     * Checks out the branch from the local mirror of the repository. The mirror is fetched from Github first, so only
+     * the commits that are new since the last build of the repository are downloaded.
+     *
+     * @return {@code true} if the branch was successfully checked out, otherwise {@code false}
+     */
+    private boolean checkoutFromMirror() {
+        logger.info("Checking out repository: {}, branch: {} from mirror", repositoryName, branch);
+
+        try {
+            warm = MirrorCache.getInstance().isMirrored(cloneURL);
+            MirrorCache.getInstance().checkout(cloneURL, branch, commitId, checkoutPaths(),
+                    new File(Configuration.PATH_TO_GIT + id + "/" + repositoryName));
+            return true;
+        } catch (TransportException e) {
+            logger.error("Transport operation from Github remote failed", e);
+        } catch (InvalidRemoteException e) {
+            logger.error("Invalid remote repository", e);
+        } catch (GitAPIException e) {
+            logger.error("Something went wrong with the Github API", e);
+        } catch (IOException e) {
+            logger.error("Failed to check out the repository from the mirror", e);
+        }
+
+        return false;
+    }
+
+    /**
+     * Clones the whole repository from Github.
+     *
+     * @return {@code true} if the repository was successfully cloned, otherwise {@code false}
+     */
+    private boolean fullClone() {
         logger.info("Cloning repository: {}, branch: {}", repositoryName, branch);
 
         CloneCommand cloneCommand = Git.cloneRepository();
@@ -58,4 +166,136 @@ public class GitRepositoryHandler {
 
         return false;
     }
+
+    /**
+     * Clones only the pushed branch without checking it out, and then checks out the head commit of the push. The
+     * whole history of the branch is fetched, since JGit can't fetch with a depth. If
+     * {@code Configuration.SPARSE_CHECKOUT} is set only the Maven project directory and the paths in
+     * {@code Configuration.SPARSE_CHECKOUT_PATHS} are written to disk.
+     *
+     * @return {@code true} if the repository was successfully cloned, otherwise {@code false}
+     */
+    private boolean singleBranchClone() {
+        logger.info("Cloning branch: {} of repository: {}", branch, repositoryName);
+
+        CloneCommand cloneCommand = Git.cloneRepository()
+                .setURI(cloneURL)
+                .setCredentialsProvider(new UsernamePasswordCredentialsProvider(Configuration.GITHUB_TOKEN, ""))
+                .setDirectory(new File(Configuration.PATH_TO_GIT + id + "/" + repositoryName))
+                .setBranch(Constants.R_HEADS + branch)
+                .setBranchesToClone(Collections.singletonList(Constants.R_HEADS + branch))
+                .setCloneAllBranches(false)
+                .setNoCheckout(true);
+
+        try (Git git = cloneCommand.call()) {
+            checkoutCommit(git, branch, resolveCommit(git.getRepository(), commitId, branch), checkoutPaths());
+            return true;
+        } catch (TransportException e) {
+            logger.error("Transport operation from Github remote failed", e);
+        } catch (InvalidRemoteException e) {
+            logger.error("Invalid remote repository", e);
+        } catch (GitAPIException e) {
+            logger.error("Something went wrong with the Github API", e);
+        } catch (IOException e) {
+            logger.error("Failed to check out commit: {}", commitId, e);
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds the paths that should be checked out. An empty list means that the whole tree is checked out.
+     *
+     * @return the paths to check out
+     */
+    @NotNull
+    private static List<String> checkoutPaths() {
+        final List<String> paths = new ArrayList<>();
+        if (!Configuration.SPARSE_CHECKOUT) return paths;
+
+        if (!Configuration.MAVEN_PROJECT_DIRECTORY.isEmpty()) paths.add(Configuration.MAVEN_PROJECT_DIRECTORY);
+        for (String path : Configuration.SPARSE_CHECKOUT_PATHS.split(",")) {
+            if (!path.trim().isEmpty()) paths.add(path.trim());
+        }
+        return paths;
+    }
+
+    /**
+     * Finds the commit to check out. This is the head commit of the push if it exists in the repository, otherwise the
+     * head of the branch.
+     *
+     * @param repository the repository to search
+     * @param commitId   the id of the head commit of the push, may be {@code null}
+     * @param branch     the name of the branch
+     * @return the commit to check out
+     * @throws IOException If neither the commit nor the branch exists in the repository
+     */
+    @NotNull
+    static ObjectId resolveCommit(@NotNull final Repository repository, @Nullable final String commitId, @NotNull final String branch) throws IOException {
+        if (commitId != null && ObjectId.isId(commitId) && repository.getObjectDatabase().has(ObjectId.fromString(commitId))) {
+            return ObjectId.fromString(commitId);
+        }
+
+        final ObjectId head = repository.resolve(Constants.R_HEADS + branch);
+        if (head == null) throw new IOException("Branch " + branch + " does not exist in repository " + repository.getDirectory());
+        if (commitId != null) logger.warn("Commit {} was not found, checking out the head of branch: {} instead", commitId, branch);
+        return head;
+    }
+
+    /**
+     * Points {@code branch} at {@code commit} and checks it out. If {@code paths} is not empty only those paths are
+     * written to the working tree.
+     *
+     * @param git    the repository to check out in
+     * @param branch the name of the branch
+     * @param commit the commit to check out
+     * @param paths  the paths to check out, or an empty list for the whole tree
+     * @throws GitAPIException If the checkout failed
+     * @throws IOException     If the branch couldn't be updated
+     */
+    static void checkoutCommit(@NotNull final Git git, @NotNull final String branch, @NotNull final ObjectId commit, @NotNull final List<String> paths)
+            throws GitAPIException, IOException {
+        final Repository repository = git.getRepository();
+        final RefUpdate branchUpdate = repository.updateRef(Constants.R_HEADS + branch);
+        branchUpdate.setNewObjectId(commit);
+        branchUpdate.forceUpdate();
+        repository.updateRef(Constants.HEAD).link(Constants.R_HEADS + branch);
+
+        final CheckoutCommand checkoutCommand = git.checkout().setStartPoint(commit.name());
+        if (paths.isEmpty()) {
+            checkoutCommand.setAllPaths(true);
+        } else {
+            checkoutCommand.addPaths(paths);
+        }
+        checkoutCommand.call();
+        logger.info("Checked out commit: {} of branch: {}{}", commit.name(), branch, paths.isEmpty() ? "" : ", paths: " + paths);
+    }
+
+    /**
+     * Enum class holding the ways a repository can be fetched from Github.
+     */
+    public enum CloneStrategy {
+        FULL,
+        MIRROR,
+        SINGLE_BRANCH;
+
+        /**
+         * Finds the strategy with the name {@code name}, ignoring case, e.g. {@code single-branch}. The old name
+         * {@code shallow} is still accepted for {@code SINGLE_BRANCH}.
+         *
+         * @param name the name of the strategy
+         * @return the strategy, or {@code FULL} if there is no strategy with that name
+         */
+        public static CloneStrategy fromName(final String name) {
+            if ("shallow".equalsIgnoreCase(name)) {
+                logger.warn("The clone strategy shallow was renamed to single-branch, it never fetched with a depth");
+                return SINGLE_BRANCH;
+            }
+            for (CloneStrategy strategy : values()) {
+                if (strategy.name().replace('_', '-').equalsIgnoreCase(name)) return strategy;
+            }
+            logger.warn("Unknown clone strategy: {}, falling back to full clones", name);
+            return FULL;
+        }
+    }
 }
@@ -1,19 +1,16 @@
 package org.group22.ci;
 
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.group22.utilities.Configuration;
 import org.group22.utilities.Helpers;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.json.JSONObject;
 
+import java.util.concurrent.CompletableFuture;
+
 public class GitStatusHandler {
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(GitStatusHandler.class);
     private String shaCommit;
-    private String createCommitUrl;
+    private String statusPath;
     private static final String STATE = "state";
     private static final String DESCRIPTION = "description";
     private String repository;
@@ -32,12 +29,12 @@ public class GitStatusHandler {
         this.shaCommit = shaCommit;
         this.buildId = buildId;
         String[] commitParams = {"repos", owner, repository, "statuses", shaCommit};
-        String gitApiUrl = "https://api.github.com/";
-        createCommitUrl = gitApiUrl + String.join("/", commitParams);
+        statusPath = String.join("/", commitParams);
     }
 
     /**
-     * Function used internally by {@code sendStatus} to set the status field to "waiting".
+     * Function used internally by {@code sendStatus} to set the status field to "pending", the state Github uses for
+     * builds that haven't finished.
      *
      * @param partialJson: {@code JSONObject} the main json object with the "waiting" field.
      * @return partialJson: {@code JSONObject} the same object as before with one extra field.
@@ -45,7 +42,7 @@ public class GitStatusHandler {
     @NotNull
     @Contract("_ -> param1")
     private JSONObject buildWaiting(@NotNull JSONObject partialJson) {
-        partialJson.put(STATE, "waiting");
+        partialJson.put(STATE, "pending");
         partialJson.put(DESCRIPTION, "The build hasn't finished yet, try again in a while!");
 
         return partialJson;
@@ -66,6 +63,22 @@ public class GitStatusHandler {
         return partialJson;
     }
 
+    /**
+     * Function used internally by {@code sendStatus} if a newer push made the build unnecessary (sets the status field
+     * to "error", since Github has no state for cancelled builds).
+     *
+     * @param partialJson: {@code JSONObject} the main json object with the "error" field.
+     * @return partialJson: {@code JSONObject} the same object as before with one extra field.
+     */
+    @NotNull
+    @Contract("_ -> param1")
+    private JSONObject buildSuperseded(@NotNull JSONObject partialJson) {
+        partialJson.put(STATE, "error");
+        partialJson.put(DESCRIPTION, "The build was skipped because a newer commit was pushed to the branch!");
+
+        return partialJson;
+    }
+
     /**
      * Function used internally by {@code sendStatus} to set the status to "success" if the project build goes well.
      *
@@ -98,12 +111,14 @@ public class GitStatusHandler {
 
 
     /**
-     * General function to interact with the REST Git Status API.
+     * General function to interact with the REST Git Status API. The status is added to the outbox of the
+     * {@code StatusDispatcher} and sent in the background, so the build never waits for Github.
      *
      * @param buildStatus: {@code BuildStatus} representing one of the three possible states of the project build
-     *                     (SUCCESS, FAILURE, ERROR,and WAITING).
+     *                     (SUCCESS, FAILURE, ERROR, WAITING and SUPERSEDED).
+     * @return a future that completes with {@code true} if Github accepted the status
      */
-    public void sendStatus(BuildStatus buildStatus) {
+    public CompletableFuture<Boolean> sendStatus(BuildStatus buildStatus) {
         if ("".equals(shaCommit)) {
             logger.error("Error: tried to change the status of a commit without specifying an id!");
             throw new IllegalArgumentException("The sha for the head commit was not set");
@@ -128,22 +143,15 @@ public class GitStatusHandler {
         } else if (BuildStatus.ERROR.equals(buildStatus)) {
             json = buildError(json);
             logger.info("Setting build status for commit {} in repository {} to ERROR", shaCommit, repository);
+        } else if (BuildStatus.SUPERSEDED.equals(buildStatus)) {
+            json = buildSuperseded(json);
+            logger.info("Setting build status for commit {} in repository {} to SUPERSEDED", shaCommit, repository);
         } else {
-            logger.error("Error: non existent id for actions (1-4), yours was {}", buildStatus.value);
-            return;
+            logger.error("Error: non existent id for actions (1-5), yours was {}", buildStatus.value);
+            return CompletableFuture.completedFuture(false);
         }
 
-        try (CloseableHttpClient httpClient = HttpClientBuilder.create().build()) {
-            HttpPost request = new HttpPost(createCommitUrl);
-            StringEntity params = new StringEntity(json.toString());
-            request.addHeader("content-type", "application/json");
-            request.addHeader("Authorization", "token " + Configuration.GITHUB_TOKEN);
-            request.setEntity(params);
-            httpClient.execute(request);
-
-        } catch (Exception e) {
-            logger.error("Error: a problem appeared while trying to send back the build results", e);
-        }
+        return StatusDispatcher.getInstance().enqueue(statusPath, json);
     }
 
     /**
@@ -153,7 +161,8 @@ public class GitStatusHandler {
         SUCCESS(1),
         FAILURE(2),
         WAITING(3),
-        ERROR(4);
+        ERROR(4),
+        SUPERSEDED(5);
 
         final int value;
 
@@ -0,0 +1,74 @@
+package org.group22.ci;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class HashRing {
+    private final int virtualNodes;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * Creates an empty {@code HashRing}. Every node is placed on the ring {@code virtualNodes} times, so the keys are
+     * spread evenly and a node that joins or leaves only moves its own share of the keys.
+     *
+     * @param virtualNodes the number of points of every node on the ring
+     */
+    public HashRing(final int virtualNodes) {
+        this.virtualNodes = Math.max(1, virtualNodes);
+    }
+
+    /**
+     * Adds a node to the ring. Adding a node that is already on the ring has no effect.
+     *
+     * @param node the name of the node
+     */
+    public void add(@NotNull final String node) {
+        for (int i = 0; i < virtualNodes; i++) ring.put(hash(node + "#" + i), node);
+    }
+
+    /**
+     * Removes a node from the ring. Its keys move to the next nodes on the ring, the other keys stay where they are.
+     *
+     * @param node the name of the node
+     */
+    public void remove(@NotNull final String node) {
+        for (int i = 0; i < virtualNodes; i++) ring.remove(hash(node + "#" + i), node);
+    }
+
+    /**
+     * Finds the node a key belongs to, the first node on the ring at or after the hash of the key.
+     *
+     * @param key the key, e.g. the name of a repository
+     * @return the name of the node, or {@code null} if the ring is empty
+     */
+    @Nullable
+    public String nodeFor(@NotNull final String key) {
+        if (ring.isEmpty()) return null;
+        final Map.Entry<Long, String> point = ring.ceilingEntry(hash(key));
+        return point == null ? ring.firstEntry().getValue() : point.getValue();
+    }
+
+    /**
+     * Hashes a {@code String} to a point on the ring. MD5 is used for its spread, not for security, and gives the same
+     * points in every JVM.
+     *
+     * @param value the value to hash
+     * @return the point on the ring
+     */
+    private static long hash(@NotNull final String value) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8));
+            long point = 0;
+            for (int i = 0; i < 8; i++) point = point << 8 | (digest[i] & 0xff);
+            return point;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.group22.ci;
+
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+import org.group22.utilities.Helpers;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class MavenOutputHandler implements InvocationOutputHandler, Closeable {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(MavenOutputHandler.class);
+    private static final Pattern MODULE = Pattern.compile("^\\[INFO\\] -+< (.+) >-+$");
+    private static final Pattern SUMMARY = Pattern.compile("^\\[(?:INFO|ERROR|WARNING)\\] Tests run: (\\d+), Failures: (\\d+), Errors: (\\d+), Skipped: (\\d+)\\s*$");
+    private static final Pattern FAILURE_DETAIL = Pattern.compile("^\\[ERROR\\] {3}(\\S.*)$");
+    private static final int MAX_FAILURE_DETAILS = 100;
+    private static final int MAX_DETAIL_LENGTH = 1000;
+    private static final int MAX_MODULES = 500;
+    private final Writer writer;
+    private final BuildLog liveLog;
+    private final List<String> failureDetails = new ArrayList<>();
+    private final Map<String, Helpers.Result> moduleResults = new LinkedHashMap<>();
+    private String currentModule = "";
+    private boolean resultSection = false;
+    private boolean offlineArtifactMissing = false;
+    private int testRun = 0;
+    private int failures = 0;
+    private int errors = 0;
+    private int skipped = 0;
+    private boolean resultFound = false;
+
+    /**
+     * Creates a {@code MavenOutputHandler} that writes the Maven output to {@code reportFile} while parsing the test
+     * results from it. Only the totals, the per-module results and a bounded number of failure details are kept in
+     * memory, no matter how long the output is.
+     *
+     * @param reportFile the file the output is written to
+     * @throws IOException If the report file couldn't be opened
+     */
+    public MavenOutputHandler(@NotNull final File reportFile) throws IOException {
+        this(reportFile, null);
+    }
+
+    /**
+     * Creates a {@code MavenOutputHandler} that also appends every line to the live log of the build, so the output
+     * can be followed while the build is running.
+     *
+     * @param reportFile the file the output is written to
+     * @param liveLog    the live log of the build, or {@code null} if the output isn't streamed
+     * @throws IOException If the report file couldn't be opened
+     */
+    public MavenOutputHandler(@NotNull final File reportFile, @Nullable final BuildLog liveLog) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportFile), StandardCharsets.UTF_8));
+        this.liveLog = liveLog;
+    }
+
+    /**
+     * Writes a line of Maven output to the report file and the live log, and parses it.
+     *
+     * @param line the line of output
+     */
+    @Override
+    public void consumeLine(final String line) {
+        try {
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            logger.error("Failed to write Maven output to the report file", e);
+        }
+        if (liveLog != null) liveLog.append(line);
+        parseLine(line);
+    }
+
+    /**
+     * Updates the parsed results with a line of Maven output.
+     *
+     * @param line the line of output
+     */
+    private void parseLine(@NotNull final String line) {
+        if (line.contains("in offline mode")) offlineArtifactMissing = true;
+
+        final Matcher module = MODULE.matcher(line);
+        if (module.matches()) {
+            currentModule = module.group(1);
+            resultSection = false;
+            return;
+        }
+
+        if (line.startsWith("[INFO] Results:")) {
+            resultSection = true;
+        } else if (resultSection) {
+            final Matcher summary = SUMMARY.matcher(line);
+            final Matcher detail = FAILURE_DETAIL.matcher(line);
+            if (summary.matches()) {
+                addSummary(Integer.parseInt(summary.group(1)), Integer.parseInt(summary.group(2)),
+                        Integer.parseInt(summary.group(3)), Integer.parseInt(summary.group(4)));
+                resultSection = false;
+            } else if (detail.matches() && failureDetails.size() < MAX_FAILURE_DETAILS) {
+                final String failure = detail.group(1);
+                final String prefix = currentModule.isEmpty() ? "" : currentModule + ": ";
+                failureDetails.add(prefix + (failure.length() > MAX_DETAIL_LENGTH ? failure.substring(0, MAX_DETAIL_LENGTH) + "..." : failure));
+            }
+        }
+    }
+
+    /**
+     * Adds the test summary of the current module to the totals.
+     *
+     * @param moduleTestRun  the number of tests run in the module
+     * @param moduleFailures the number of failed tests in the module
+     * @param moduleErrors   the number of tests with errors in the module
+     * @param moduleSkipped  the number of skipped tests in the module
+     */
+    private void addSummary(final int moduleTestRun, final int moduleFailures, final int moduleErrors, final int moduleSkipped) {
+        testRun += moduleTestRun;
+        failures += moduleFailures;
+        errors += moduleErrors;
+        skipped += moduleSkipped;
+        resultFound = true;
+        if (moduleResults.size() < MAX_MODULES) {
+            moduleResults.put(currentModule, new Helpers.Result(moduleTestRun, moduleFailures, moduleErrors, moduleSkipped));
+        }
+    }
+
+    /**
+     * Returns the test results of every module added together, including the failure details.
+     *
+     * @return the {@code Result}, or {@code null} if no tests were run
+     */
+    @Nullable
+    public Helpers.Result getResult() {
+        if (!resultFound) return null;
+        return new Helpers.Result(testRun, failures, errors, skipped, failureDetails);
+    }
+
+    /**
+     * Getter function for the test results of each module, in the order the modules were built.
+     *
+     * @return A map with the module name as key and its {@code Result} as value
+     */
+    @NotNull
+    public Map<String, Helpers.Result> getModuleResults() {
+        return Collections.unmodifiableMap(moduleResults);
+    }
+
+    /**
+     * Checks if Maven reported an artifact that couldn't be resolved because the build was offline.
+     *
+     * @return {@code true} if an artifact was missing in offline mode
+     */
+    public boolean isOfflineArtifactMissing() {
+        return offlineArtifactMissing;
+    }
+
+    /**
+     * Flushes and closes the report file.
+     *
+     * @throws IOException If the report file couldn't be written
+     */
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,302 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.Invoker;
+import org.group22.utilities.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class MavenRepositoryCache {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(MavenRepositoryCache.class);
+    private static final MavenRepositoryCache INSTANCE = new MavenRepositoryCache(new File(Configuration.PATH_TO_M2),
+            Configuration.MAVEN_OFFLINE_WHEN_WARM);
+    private static final Pattern MAVEN_CORE = Pattern.compile("^maven-core-(\\d+)\\.(\\d+)(?:\\..*)?\\.jar$");
+    private final File root;
+    private final File markers;
+    private final boolean offlineWhenWarm;
+    private final Map<String, ReentrantLock> repositoryLocks = new ConcurrentHashMap<>();
+    private final Map<File, Boolean> sharingSupported = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a {@code MavenRepositoryCache} that stores artifacts in {@code root}.
+     *
+     * @param root            the directory used as local Maven repository by every build
+     * @param offlineWhenWarm {@code true} if builds of repositories whose dependencies are already in the cache should
+     *                        run in offline mode
+     */
+    public MavenRepositoryCache(@NotNull final File root, final boolean offlineWhenWarm) {
+        this.root = root;
+        this.markers = new File(root, ".warm");
+        this.offlineWhenWarm = offlineWhenWarm;
+    }
+
+    /**
+     * Returns the cache shared by all builds on the server.
+     *
+     * @return the shared {@code MavenRepositoryCache}
+     */
+    public static MavenRepositoryCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Points {@code request} at the shared local repository. Maven processes that use the repository at the same time
+     * coordinate through file locks, which Maven only supports from version 3.9; older versions ignore the properties
+     * and could corrupt the repository, so with them the build gets a local repository of its own in {@code workspace}
+     * instead. If the dependencies of the project are known to be in the shared repository the request is made offline.
+     *
+     * @param request    the request to configure
+     * @param invoker    the invoker the request is run with
+     * @param cloneURL   the URL used for cloning the repository being built
+     * @param pomHash    the hash of the POM files of the project, see {@code pomHash}
+     * @param workspace  the workspace of the build
+     * @return {@code true} if the request was made offline
+     */
+    public boolean configure(@NotNull final InvocationRequest request, @NotNull final Invoker invoker, @NotNull final String cloneURL,
+                             @NotNull final String pomHash, @NotNull final File workspace) {
+        if (!isSharingSupported(invoker)) {
+            request.setLocalRepositoryDirectory(new File(workspace, ".m2/repository"));
+            request.setOffline(false);
+            return false;
+        }
+        request.setLocalRepositoryDirectory(root);
+
+        final Properties properties = request.getProperties() == null ? new Properties() : request.getProperties();
+        properties.setProperty("aether.syncContext.named.factory", "file-lock");
+        properties.setProperty("aether.syncContext.named.nameMapper", "file-gav");
+        request.setProperties(properties);
+
+        final boolean offline = offlineWhenWarm && pomHash.equals(readMarker(cloneURL, "offline"));
+        request.setOffline(offline);
+        if (offline) logger.info("Dependencies of repository: {} are cached, building offline", cloneURL);
+        return offline;
+    }
+
+    /**
+     * Resolves the dependencies and plugins of the project into the shared repository the first time the repository
+     * is seen, or when its POM files have changed. The attempt is recorded whether it succeeds or not, since
+     * {@code dependency:go-offline} often fails in multi-module projects and the build itself will resolve what is
+     * missing; only an attempt stopped by a cancelled build is tried again. {@code execute} runs the request the same
+     * way as the build, so it is sandboxed and killed by the build timeout or a cancellation. Builds of the same
+     * repository wait for a running attempt, and a cancelled build stops waiting.
+     *
+     * @param invoker    the invoker the build is run with
+     * @param baseDir    the directory of the Maven project
+     * @param cloneURL   the URL used for cloning the repository being built
+     * @param pomHash    the hash of the POM files of the project, see {@code pomHash}
+     * @param execute    runs a request and returns the exit code of Maven
+     */
+    public void preWarm(@NotNull final Invoker invoker, @NotNull final File baseDir, @NotNull final String cloneURL,
+                        @NotNull final String pomHash, @NotNull final ToIntFunction<InvocationRequest> execute) {
+        if (!isSharingSupported(invoker)) return;
+        final ReentrantLock lock = repositoryLocks.computeIfAbsent(cloneURL, key -> new ReentrantLock());
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            if (pomHash.equals(readMarker(cloneURL, "prewarmed")) || pomHash.equals(readMarker(cloneURL, "prewarm-failed"))) return;
+
+            logger.info("Pre-warming the dependency cache for repository: {}", cloneURL);
+            InvocationRequest request = new DefaultInvocationRequest();
+            request.setBaseDirectory(baseDir);
+            request.setGoals(Collections.singletonList("dependency:go-offline"));
+            request.setBatchMode(true);
+            request.setLocalRepositoryDirectory(root);
+            final Properties properties = new Properties();
+            properties.setProperty("aether.syncContext.named.factory", "file-lock");
+            properties.setProperty("aether.syncContext.named.nameMapper", "file-gav");
+            request.setProperties(properties);
+
+            final int exitCode = execute.applyAsInt(request);
+            if (Thread.currentThread().isInterrupted()) return;
+            if (exitCode == 0) {
+                writeMarker(cloneURL, "prewarmed", pomHash);
+            } else {
+                logger.warn("Pre-warming repository: {} exited with code {}, not trying again until its POM files change", cloneURL, exitCode);
+                writeMarker(cloneURL, "prewarm-failed", pomHash);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks if the Maven installation used by {@code invoker} can share the local repository with other Maven
+     * processes, i.e. if it is Maven 3.9 or newer. The version is read from the {@code maven-core} jar of the
+     * installation, or of the Maven bundled with the Maven daemon.
+     *
+     * @param invoker the invoker the build is run with
+     * @return {@code true} if the shared repository can be used, {@code false} if the version is older or unknown
+     */
+    public boolean isSharingSupported(@NotNull final Invoker invoker) {
+        final File home = invoker.getMavenExecutable() != null ? new File(invoker.getMavenExecutable().getAbsoluteFile().getParentFile().getParentFile(), "mvn")
+                : invoker.getMavenHome();
+        if (home == null) return false;
+        return sharingSupported.computeIfAbsent(home, key -> {
+            final int[] version = mavenVersion(key);
+            final boolean supported = version != null && (version[0] > 3 || version[0] == 3 && version[1] >= 9);
+            if (!supported) {
+                logger.warn("Maven in {} is {}, the shared local repository needs Maven 3.9 or newer; every build gets a local repository of its own",
+                        key.getPath(), version == null ? "of an unknown version" : "version " + version[0] + "." + version[1]);
+            }
+            return supported;
+        });
+    }
+
+    /**
+     * Reads the version of a Maven installation from the name of its {@code maven-core} jar.
+     *
+     * @param mavenHome the install folder of Maven
+     * @return the major and minor version, or {@code null} if the version couldn't be found
+     */
+    @Nullable
+    static int[] mavenVersion(@NotNull final File mavenHome) {
+        final File[] jars = new File(mavenHome, "lib").listFiles();
+        if (jars == null) return null;
+        for (File jar : jars) {
+            final Matcher matcher = MAVEN_CORE.matcher(jar.getName());
+            if (matcher.matches()) return new int[]{Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))};
+        }
+        return null;
+    }
+
+    /**
+     * Records the outcome of a build. Once an online build has got as far as running the tests, every artifact the
+     * project needs is in the cache, so later builds with the same POM files may run offline. A build that failed
+     * because it was offline clears that record again.
+     *
+     * @param cloneURL               the URL used for cloning the repository that was built
+     * @param pomHash                the hash of the POM files of the project, see {@code pomHash}
+     * @param offline                {@code true} if the build ran offline
+     * @param resolved               {@code true} if the build resolved its dependencies and ran the tests
+     * @param offlineArtifactMissing {@code true} if Maven reported an artifact missing in offline mode
+     * @return {@code true} if the build should be rerun online
+     */
+    public boolean recordBuild(@NotNull final String cloneURL, @NotNull final String pomHash, final boolean offline,
+                               final boolean resolved, final boolean offlineArtifactMissing) {
+        if (!offline) {
+            if (resolved) writeMarker(cloneURL, "offline", pomHash);
+            return false;
+        }
+        if (!offlineArtifactMissing) return false;
+
+        logger.warn("Offline build of repository: {} is missing artifacts, next builds will be online", cloneURL);
+        FileUtils.deleteQuietly(markerFile(cloneURL, "offline"));
+        return true;
+    }
+
+    /**
+     * Generates a hash of every {@code pom.xml} file in the project. The hash changes when a dependency or plugin is
+     * added, which means that the cache has to be warmed again.
+     *
+     * @param baseDir the directory of the Maven project
+     * @return the hash as a hexadecimal {@code String}
+     * @throws IOException If a POM file couldn't be read
+     */
+    @NotNull
+    public static String pomHash(@NotNull final File baseDir) throws IOException {
+        final List<File> poms = new ArrayList<>();
+        collectPoms(baseDir, poms);
+        poms.sort(null);
+
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (File pom : poms) {
+                digest.update(baseDir.toPath().relativize(pom.toPath()).toString().getBytes(StandardCharsets.UTF_8));
+                digest.update(FileUtils.readFileToByteArray(pom));
+            }
+            final StringBuilder hash = new StringBuilder();
+            for (byte b : digest.digest()) hash.append(String.format("%02x", b));
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /**
+     * Adds every {@code pom.xml} file below {@code directory} to {@code poms}, skipping build output and Git folders.
+     *
+     * @param directory the directory to search
+     * @param poms      the list the POM files are added to
+     */
+    private static void collectPoms(@NotNull final File directory, @NotNull final List<File> poms) {
+        final File[] files = directory.listFiles();
+        if (files == null) return;
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (!"target".equals(file.getName()) && !".git".equals(file.getName())) collectPoms(file, poms);
+            } else if ("pom.xml".equals(file.getName())) {
+                poms.add(file);
+            }
+        }
+    }
+
+    /**
+     * Finds the marker file of {@code kind} for {@code cloneURL}.
+     *
+     * @param cloneURL   the URL used for cloning the repository
+     * @param kind       the kind of marker
+     * @return the marker file
+     */
+    @NotNull
+    private File markerFile(@NotNull final String cloneURL, @NotNull final String kind) {
+        return new File(markers, MirrorCache.repositoryKey(cloneURL) + "." + kind);
+    }
+
+    /**
+     * Reads the POM hash stored in a marker file.
+     *
+     * @param cloneURL   the URL used for cloning the repository
+     * @param kind       the kind of marker
+     * @return the stored hash, or {@code null} if there is no marker
+     */
+    @Nullable
+    private String readMarker(@NotNull final String cloneURL, @NotNull final String kind) {
+        final File marker = markerFile(cloneURL, kind);
+        if (!marker.exists()) return null;
+        try {
+            return FileUtils.readFileToString(marker, StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            logger.error("Failed to read cache marker: {}", marker.getPath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a POM hash in a marker file.
+     *
+     * @param cloneURL   the URL used for cloning the repository
+     * @param kind       the kind of marker
+     * @param pomHash    the hash to store
+     */
+    private void writeMarker(@NotNull final String cloneURL, @NotNull final String kind, @NotNull final String pomHash) {
+        final File marker = markerFile(cloneURL, kind);
+        try {
+            FileUtils.writeStringToFile(marker, pomHash, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.error("Failed to write cache marker: {}", marker.getPath(), e);
+        }
+    }
+}
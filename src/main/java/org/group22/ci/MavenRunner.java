@@ -1,67 +1,264 @@
 package org.group22.ci;
 
 import org.apache.maven.shared.invoker.*;
+import org.apache.maven.shared.utils.cli.Commandline;
 import org.group22.utilities.Configuration;
+import org.group22.utilities.Helpers;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
 
 public class MavenRunner {
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(MavenRunner.class);
     private final String projectId;
     private final String repositoryName;
+    private final String cloneURL;
+    private final int concurrentBuilds;
+    private MavenOutputHandler output;
+    private BuildSandbox.Usage usage;
     
     /**
      * Creates and initializes a MavenRunner object
      *
-     * @param id             the id of the build
-     * @param repositoryName the name of the repository
+     * @param id               the id of the build
+     * @param repositoryName   the name of the repository
+     * @param cloneURL         the URL used for cloning the repository
+     * @param concurrentBuilds the number of builds the process runs at the same time, see {@code BuildProfile}
      */
-    public MavenRunner(final String id, final String repositoryName) {
+    public MavenRunner(final String id, final String repositoryName, final String cloneURL, final int concurrentBuilds) {
         this.projectId = id;
         this.repositoryName = repositoryName;
+        this.cloneURL = cloneURL;
+        this.concurrentBuilds = concurrentBuilds;
     }
 
-    public boolean runProject() {
-    	
-    	
+    /**
+     * Runs the tests of the Maven project once. The output from Maven is written to the report file of the build.
+     * Dependencies are resolved into the shared local repository of {@code MavenRepositoryCache}. Only the modules and
+     * tests in {@code selection} are run; the modules they depend on are built as well. Threads, forked test JVMs and
+     * JVM options are set from the {@code BuildProfile} of the repository.
+     *
+     * @param selection the modules and tests to run
+     * @return {@code true} if the build and the tests succeeded, otherwise {@code false}
+     */
+    public boolean runProject(@NotNull final TestSelection selection) {
+        final File baseDir = new File(Configuration.PATH_TO_GIT + projectId + "/" + repositoryName + "/" + Configuration.MAVEN_PROJECT_DIRECTORY);
+        final File reportFile = new File(Configuration.PATH_TO_REPORTS + projectId + ".txt");
+        final MavenRepositoryCache repositoryCache = MavenRepositoryCache.getInstance();
+
         InvocationRequest request = new DefaultInvocationRequest();
-        request.setBaseDirectory(new File(Configuration.PATH_TO_GIT + projectId + "/" + repositoryName));
+        request.setBaseDirectory(baseDir);
         request.setGoals(Collections.singletonList("test"));
         request.setBatchMode(true);
+        select(request, selection);
+        final BuildProfile profile = BuildProfile.forRepository(repositoryName, concurrentBuilds);
+        profile.apply(request);
 
-        Invoker invoker = new DefaultInvoker();
-        invoker.setMavenHome(new File(Configuration.M3_HOME));
-        
+        Invoker invoker = createInvoker();
+
+        final String pomHash;
         try {
-            logger.info("Running test for Maven project in repository: {}", repositoryName);
+            pomHash = MavenRepositoryCache.pomHash(baseDir);
+        } catch (IOException e) {
+            logger.error("Could not read the POM files of build {}", projectId, e);
+            return false;
+        }
+        repositoryCache.preWarm(invoker, baseDir, cloneURL, pomHash,
+                preWarm -> run(invoker, preWarm, line -> logger.debug("[{} pre-warm] {}", repositoryName, line)));
+        final boolean offline = repositoryCache.configure(request, invoker, cloneURL, pomHash,
+                new File(Configuration.PATH_TO_GIT + projectId));
 
-            PrintStream writeToFile = new PrintStream(new FileOutputStream(Configuration.PATH_TO_REPORTS + projectId + ".txt"));
-            InvocationOutputHandler outputHandler = new PrintStreamHandler(writeToFile, false);
+        logger.info("Running test for Maven project in repository: {} with {}", repositoryName, profile);
+        int exitCode = execute(invoker, request, reportFile);
 
-            invoker.setOutputHandler(outputHandler);
-            invoker.execute(request);
+        if (repositoryCache.recordBuild(cloneURL, pomHash, offline, exitCode == 0 || getResult() != null, isOfflineArtifactMissing())) {
+            final BuildLog liveLog = BuildLog.get(projectId);
+            if (liveLog != null) liveLog.append("[CI] Artifacts were missing in offline mode, running the build again online");
+            request.setOffline(false);
+            exitCode = execute(invoker, request, reportFile);
+            repositoryCache.recordBuild(cloneURL, pomHash, false, exitCode == 0 || getResult() != null, false);
+        }
 
-            InvocationResult result = invoker.execute(request);
+        logger.info("Test of build {} exited with code {}", projectId, exitCode);
+        return exitCode == 0;
+    }
 
+    /**
+     * Limits {@code request} to the modules and tests in {@code selection}, i.e. {@code -pl <modules> -am} and a
+     * Surefire {@code -Dtest} filter. Modules without any of the selected tests don't fail the build.
+     *
+     * @param request   the request to run
+     * @param selection the modules and tests to run
+     */
+    private static void select(@NotNull final InvocationRequest request, @NotNull final TestSelection selection) {
+        if (!selection.getModules().isEmpty()) {
+            request.setProjects(new ArrayList<>(selection.getModules()));
+            request.setAlsoMake(true);
+        }
+        if (!selection.getTests().isEmpty()) {
+            final Properties properties = request.getProperties() == null ? new Properties() : request.getProperties();
+            properties.setProperty("test", String.join(",", selection.getTests()));
+            properties.setProperty("surefire.failIfNoSpecifiedTests", "false");
+            properties.setProperty("failIfNoTests", "false");
+            request.setProperties(properties);
+        }
+    }
+
+    /**
+     * Returns the test results parsed from the Maven output while the build was running.
+     *
+     * @return the {@code Result}, or {@code null} if the build didn't run any tests
+     */
+    @Nullable
+    public Helpers.Result getResult() {
+        return output == null ? null : output.getResult();
+    }
+
+    /**
+     * Returns the resources used by the last sandboxed Maven run of the build.
+     *
+     * @return the {@code Usage}, or {@code null} if Maven didn't run in a sandbox
+     */
+    @Nullable
+    public BuildSandbox.Usage getUsage() {
+        return usage;
+    }
+
+    /**
+     * Checks if the build failed because an artifact was missing from the local repository in offline mode.
+     *
+     * @return {@code true} if an artifact was missing in offline mode
+     */
+    private boolean isOfflineArtifactMissing() {
+        return output != null && output.isOfflineArtifactMissing();
+    }
 
-            final int exitCode = result.getExitCode();
+    /**
+     * Runs {@code request} and streams the output from Maven to {@code reportFile} and the live log of the build,
+     * parsing the test results on the way.
+     *
+     * @param invoker    the invoker used to run Maven
+     * @param request    the request to run
+     * @param reportFile the file the output is written to
+     * @return the exit code of Maven, or {@code -1} if Maven couldn't be run or was killed
+     */
+    private int execute(final Invoker invoker, final InvocationRequest request, final File reportFile) {
+        try (MavenOutputHandler outputHandler = new MavenOutputHandler(reportFile, BuildLog.get(projectId))) {
+            output = outputHandler;
+            return run(invoker, request, outputHandler);
+        } catch (IOException e) {
+            logger.error("Could not write report file", e);
+        }
+        return -1;
+    }
 
-            logger.info("Test of build {} exited with code {}", projectId, exitCode);
+    /**
+     * Runs {@code request} and passes the output from Maven to {@code outputHandler}. Forked Maven processes run in a
+     * {@code BuildSandbox}, with the CPU and memory limits and the timeout from {@code Configuration}; the resources
+     * used are added to the end of the output. A build handed to the Maven daemon runs inside the daemon and can't be
+     * sandboxed.
+     *
+     * @param invoker       the invoker used to run Maven
+     * @param request       the request to run
+     * @param outputHandler the handler the output is passed to
+     * @return the exit code of Maven, or {@code -1} if Maven couldn't be run or was killed
+     */
+    private int run(final Invoker invoker, final InvocationRequest request, final InvocationOutputHandler outputHandler) {
+        try {
+            if (invoker.getMavenExecutable() == null) return executeSandboxed(invoker, request, outputHandler);
 
-            return exitCode == 0;
+            invoker.setOutputHandler(outputHandler);
+            InvocationResult result = invoker.execute(request);
+            return result.getExitCode();
 
-        } catch (MavenInvocationException e) {
+        } catch (MavenInvocationException | CommandLineConfigurationException e) {
             logger.error("Error while trying to run testes", e);
         } catch (IllegalStateException e) {
             logger.error("Build failed", e);
 
-        } catch (FileNotFoundException e) {
-            logger.error("Could not find report file", e);
+        } catch (IOException e) {
+            logger.error("Could not start Maven", e);
+        }
+        return -1;
+    }
+
+    /**
+     * Runs {@code request} as a forked Maven process in a {@code BuildSandbox}.
+     *
+     * @param invoker       the invoker holding the Maven installation
+     * @param request       the request to run
+     * @param outputHandler the handler the output is passed to
+     * @return the exit code of Maven, or {@code -1} if Maven was killed
+     * @throws CommandLineConfigurationException If the Maven command line couldn't be built
+     * @throws IOException                       If Maven couldn't be started
+     */
+    private int executeSandboxed(final Invoker invoker, final InvocationRequest request, final InvocationOutputHandler outputHandler)
+            throws CommandLineConfigurationException, IOException {
+        final MavenCommandLineBuilder builder = new MavenCommandLineBuilder();
+        builder.setMavenHome(invoker.getMavenHome());
+        final Commandline commandline = builder.build(request);
+        final List<String> environment = commandline.getEnvironmentVariables() == null ? Collections.emptyList()
+                : Arrays.asList(commandline.getEnvironmentVariables());
+
+        final BuildSandbox.Run run = new BuildSandbox(projectId).run(Arrays.asList(commandline.getCommandline()),
+                commandline.getWorkingDirectory(), environment, outputHandler);
+        usage = run.getUsage();
+        if (run.isTimedOut()) outputHandler.consumeLine("[CI] The build was killed after " + Configuration.BUILD_TIMEOUT_MINUTES + " minutes");
+        outputHandler.consumeLine("[CI] Resources used: " + usage);
+        logger.info("Build {} used {}", projectId, usage);
+        return run.getExitCode();
+    }
+
+    /**
+     * Creates the {@code Invoker} for the execution mode set by {@code Configuration.MAVEN_EXECUTION_MODE}. In
+     * {@code DAEMON} mode the build is handed to a Maven daemon ({@code mvnd}) that keeps a warm JVM between builds.
+     * If the daemon can't be found the build falls back to forking a new Maven process.
+     *
+     * @return the {@code Invoker} to run the build with
+     */
+    private Invoker createInvoker() {
+        Invoker invoker = new DefaultInvoker();
+        final ExecutionMode mode = ExecutionMode.fromName(Configuration.MAVEN_EXECUTION_MODE);
+
+        if (ExecutionMode.DAEMON.equals(mode)) {
+            final File daemon = new File(Configuration.MVND_HOME == null ? "" : Configuration.MVND_HOME, "bin/mvnd");
+            if (daemon.canExecute()) {
+                invoker.setMavenExecutable(daemon);
+                return invoker;
+            }
+            logger.warn("Could not find the Maven daemon at {}, falling back to forking Maven", daemon.getPath());
+        }
+
+        invoker.setMavenHome(new File(Configuration.M3_HOME));
+        return invoker;
+    }
+
+    /**
+     * Enum class holding the ways Maven can be run.
+     */
+    public enum ExecutionMode {
+        FORK,
+        DAEMON;
+
+        /**
+         * Finds the execution mode with the name {@code name}, ignoring case.
+         *
+         * @param name the name of the execution mode
+         * @return the execution mode, or {@code FORK} if there is no execution mode with that name
+         */
+        public static ExecutionMode fromName(final String name) {
+            for (ExecutionMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(name)) return mode;
+            }
+            logger.warn("Unknown Maven execution mode: {}, falling back to forking Maven", name);
+            return FORK;
         }
-        return false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,280 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.group22.utilities.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class MirrorCache {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(MirrorCache.class);
+    private static final MirrorCache INSTANCE = new MirrorCache(new File(Configuration.PATH_TO_MIRRORS),
+            Configuration.MIRROR_CACHE_MAX_MB * 1024L * 1024L);
+    private final File root;
+    private final long maxBytes;
+    private final Map<String, Mirror> mirrors = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a {@code MirrorCache} that keeps bare mirrors in the {@code root} directory. Mirrors that already exist
+     * in the directory, e.g. from before a restart, are reused.
+     *
+     * @param root     the directory the mirrors are stored in
+     * @param maxBytes the total size of the mirrors before the least recently used ones are removed
+     */
+    public MirrorCache(@NotNull final File root, final long maxBytes) {
+        this.root = root;
+        this.maxBytes = maxBytes;
+
+        final File[] existing = root.listFiles(File::isDirectory);
+        if (existing != null) {
+            for (File directory : existing) {
+                Mirror mirror = new Mirror(directory);
+                mirror.lastUsed = directory.lastModified();
+                mirror.size = FileUtils.sizeOfDirectory(directory);
+                mirrors.put(directory.getName(), mirror);
+            }
+        }
+    }
+
+    /**
+     * Returns the cache shared by all builds on the server.
+     *
+     * @return the shared {@code MirrorCache}
+     */
+    public static MirrorCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Brings the mirror of {@code cloneURL} up to date with the remote and checks out {@code commitId} into
+     * {@code directory}. The mirror is created the first time a repository is seen, after that only the pushed branch
+     * is fetched. The checkout shares the object database of the mirror, so no objects are copied, and the mirror is
+     * kept until the checkout is released with {@code release}.
+     *
+     * @param cloneURL  the URL used for cloning the repository
+     * @param branch    the branch that was pushed
+     * @param commitId  the commit to check out, the head of {@code branch} is used if it is {@code null} or missing
+     * @param paths     the paths to check out, or an empty list for the whole tree
+     * @param directory the directory to check out the branch into
+     * @return the commit that was checked out
+     * @throws GitAPIException If fetching from the remote or checking out the branch failed
+     * @throws IOException     If the mirror or the checkout couldn't be written to disk
+     */
+    public ObjectId checkout(@NotNull final String cloneURL, @NotNull final String branch, @Nullable final String commitId,
+                             @NotNull final List<String> paths, @NotNull final File directory) throws GitAPIException, IOException {
+        final Mirror mirror = mirrors.computeIfAbsent(repositoryKey(cloneURL), name -> new Mirror(new File(root, name)));
+
+        mirror.lock.writeLock().lock();
+        try {
+            fetch(mirror, cloneURL, branch);
+        } finally {
+            mirror.lock.writeLock().unlock();
+        }
+
+        final ObjectId commit;
+        mirror.lock.readLock().lock();
+        try {
+            // Registered under the lock, so the mirror can't be evicted between the checkout and the registration
+            mirror.users.add(directory.getAbsoluteFile());
+            commit = checkoutFromMirror(mirror, branch, commitId, paths, directory);
+        } catch (GitAPIException | IOException | RuntimeException e) {
+            mirror.users.remove(directory.getAbsoluteFile());
+            throw e;
+        } finally {
+            mirror.lock.readLock().unlock();
+        }
+
+        evict(mirror);
+        return commit;
+    }
+
+    /**
+     * Releases the mirrors used by the checkouts in {@code directory}, once the checkouts are no longer needed. A
+     * mirror is only evicted when no checkout borrows its objects any more.
+     *
+     * @param directory the checkout, or a directory containing checkouts such as the workspace of a build
+     */
+    public void release(@NotNull final File directory) {
+        final File released = directory.getAbsoluteFile();
+        for (Mirror mirror : mirrors.values()) {
+            mirror.users.removeIf(user -> user.toPath().startsWith(released.toPath()));
+        }
+    }
+
+    /**
+     * Checks if there is a mirror of a repository, i.e. if checking it out only has to fetch the new commits.
+     *
+     * @param cloneURL the URL used for cloning the repository
+     * @return {@code true} if the mirror exists
+     */
+    public boolean isMirrored(@NotNull final String cloneURL) {
+        return new File(new File(root, repositoryKey(cloneURL)), Constants.HEAD).exists();
+    }
+
+    /**
+     * Creates the mirror if it doesn't exist, otherwise fetches {@code branch} into it. Must be called while holding
+     * the write lock of the mirror.
+     *
+     * @param mirror   the mirror to update
+     * @param cloneURL the URL used for cloning the repository
+     * @param branch   the branch that was pushed
+     * @throws GitAPIException If fetching from the remote failed
+     * @throws IOException     If the mirror couldn't be opened
+     */
+    private void fetch(@NotNull final Mirror mirror, @NotNull final String cloneURL, @NotNull final String branch)
+            throws GitAPIException, IOException {
+        final UsernamePasswordCredentialsProvider credentials = new UsernamePasswordCredentialsProvider(Configuration.GITHUB_TOKEN, "");
+
+        if (new File(mirror.directory, Constants.HEAD).exists()) {
+            logger.info("Fetching branch: {} into mirror: {}", branch, mirror.directory.getName());
+            final String ref = Constants.R_HEADS + branch;
+            try (Git git = Git.open(mirror.directory)) {
+                git.fetch()
+                        .setRemote(Constants.DEFAULT_REMOTE_NAME)
+                        .setRefSpecs(new RefSpec("+" + ref + ":" + ref))
+                        .setCredentialsProvider(credentials)
+                        .call();
+            }
+        } else {
+            logger.info("Creating mirror: {} of repository: {}", mirror.directory.getName(), cloneURL);
+            FileUtils.deleteDirectory(mirror.directory);
+            Git.cloneRepository()
+                    .setURI(cloneURL)
+                    .setDirectory(mirror.directory)
+                    .setBare(true)
+                    .setCloneAllBranches(true)
+                    .setCredentialsProvider(credentials)
+                    .call()
+                    .close();
+        }
+
+        mirror.lastUsed = System.currentTimeMillis();
+        mirror.size = FileUtils.sizeOfDirectory(mirror.directory);
+        if (!mirror.directory.setLastModified(mirror.lastUsed)) {
+            logger.warn("Failed to update the last used time of mirror: {}", mirror.directory.getName());
+        }
+    }
+
+    /**
+     * Creates a repository in {@code directory} that borrows the objects of the mirror through
+     * {@code objects/info/alternates}, and checks out {@code commitId}. Must be called while holding the read lock of
+     * the mirror.
+     *
+     * @param mirror    the mirror to check out from
+     * @param branch    the branch that was pushed
+     * @param commitId  the commit to check out
+     * @param paths     the paths to check out, or an empty list for the whole tree
+     * @param directory the directory to check out the branch into
+     * @return the commit that was checked out
+     * @throws GitAPIException If the checkout failed
+     * @throws IOException     If the branch doesn't exist in the mirror or the checkout couldn't be written to disk
+     */
+    private ObjectId checkoutFromMirror(@NotNull final Mirror mirror, @NotNull final String branch, @Nullable final String commitId,
+                                        @NotNull final List<String> paths, @NotNull final File directory) throws GitAPIException, IOException {
+        final ObjectId commit;
+        try (Git mirrorGit = Git.open(mirror.directory)) {
+            commit = GitRepositoryHandler.resolveCommit(mirrorGit.getRepository(), commitId, branch);
+        }
+
+        try (Git git = Git.init().setDirectory(directory).call()) {
+            final Repository repository = git.getRepository();
+            final File alternates = new File(repository.getDirectory(), Constants.OBJECTS + "/info/alternates");
+            FileUtils.writeStringToFile(alternates,
+                    new File(mirror.directory, Constants.OBJECTS).getAbsolutePath() + "\n", StandardCharsets.UTF_8);
+
+            GitRepositoryHandler.checkoutCommit(git, branch, commit, paths);
+        }
+
+        return commit;
+    }
+
+    /**
+     * Removes the least recently used mirrors until the cache fits within its size limit. The mirror that was just
+     * checked out, mirrors that are being fetched or checked out and mirrors whose objects are borrowed by a checkout
+     * that wasn't released yet are skipped, even if that leaves the cache over its limit.
+     *
+     * @param current the mirror that was just checked out
+     */
+    private void evict(@NotNull final Mirror current) {
+        long total = mirrors.values().stream().mapToLong(mirror -> mirror.size).sum();
+        if (total <= maxBytes) return;
+
+        final List<Map.Entry<String, Mirror>> entries = new ArrayList<>(mirrors.entrySet());
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue().lastUsed));
+        for (Map.Entry<String, Mirror> entry : entries) {
+            if (total <= maxBytes) break;
+
+            // The entry is kept so that the mirror keeps its lock if the repository is pushed to again
+            final Mirror mirror = entry.getValue();
+            if (mirror == current || mirror.size == 0 || !mirror.lock.writeLock().tryLock()) continue;
+            try {
+                if (!mirror.users.isEmpty()) continue;
+                FileUtils.deleteDirectory(mirror.directory);
+                total -= mirror.size;
+                logger.info("Evicted mirror: {}, freed {} bytes", entry.getKey(), mirror.size);
+                mirror.size = 0;
+            } catch (IOException e) {
+                logger.error("Failed to delete mirror: {}", entry.getKey(), e);
+            } finally {
+                mirror.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Generates the key of a repository, used as the directory name of its mirror and to name its files in other
+     * caches. The key starts with the repository name to make it readable, followed by a hash of the URL to keep
+     * repositories with the same name but different owners apart.
+     *
+     * @param cloneURL the URL used for cloning the repository
+     * @return the key of the repository
+     */
+    @NotNull
+    static String repositoryKey(@NotNull final String cloneURL) {
+        final String repositoryName = cloneURL.replaceAll("(\\.git)?/*$", "").replaceAll(".*/", "");
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(cloneURL.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hash = new StringBuilder(repositoryName.replaceAll("[^A-Za-z0-9_.-]", "_")).append('-');
+            for (int i = 0; i < 6; i++) hash.append(String.format("%02x", digest[i]));
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /**
+     * Helper class for the state of one mirror.
+     */
+    private static class Mirror {
+        private final File directory;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        // The checkouts that borrow the objects of the mirror, only added to while holding the read lock
+        private final Set<File> users = ConcurrentHashMap.newKeySet();
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile long size = 0;
+
+        Mirror(final File directory) {
+            this.directory = directory;
+        }
+    }
+}
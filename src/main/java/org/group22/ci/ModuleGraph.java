@@ -0,0 +1,198 @@
+package org.group22.ci;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ModuleGraph {
+    private final Map<String, String> pathByKey = new HashMap<>();
+    private final Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+
+    /**
+     * Reads the modules of the Maven project in {@code baseDir} and the dependencies between them, starting from the
+     * root {@code pom.xml} and following the {@code modules} sections.
+     *
+     * @param baseDir the directory of the Maven project
+     * @return the {@code ModuleGraph}
+     * @throws IOException If a POM file couldn't be read or parsed
+     */
+    @NotNull
+    public static ModuleGraph load(@NotNull final File baseDir) throws IOException {
+        final ModuleGraph graph = new ModuleGraph();
+        final Map<String, Set<String>> dependencyKeys = new HashMap<>();
+        graph.addModule(baseDir, "", null, dependencyKeys);
+
+        // Only dependencies on modules of the same project are part of the graph
+        for (Map.Entry<String, Set<String>> module : dependencyKeys.entrySet()) {
+            final Set<String> paths = graph.dependencies.get(module.getKey());
+            for (String key : module.getValue()) {
+                final String path = graph.pathByKey.get(key);
+                if (path != null) paths.add(path);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Reads the POM file of a module and the modules below it.
+     *
+     * @param directory      the directory of the module
+     * @param path           the path of the module relative to the project, {@code ""} for the root module
+     * @param parentGroupId  the group id of the parent module, used when the module doesn't set its own
+     * @param dependencyKeys the map the dependencies of each module are added to
+     * @throws IOException If the POM file couldn't be read or parsed
+     */
+    private void addModule(@NotNull final File directory, @NotNull final String path, @Nullable final String parentGroupId,
+                           @NotNull final Map<String, Set<String>> dependencyKeys) throws IOException {
+        final Element project = parse(new File(directory, "pom.xml")).getDocumentElement();
+        final String groupId = childText(project, "groupId") != null ? childText(project, "groupId")
+                : childElement(project, "parent") != null ? childText(childElement(project, "parent"), "groupId") : parentGroupId;
+        pathByKey.put(groupId + ":" + childText(project, "artifactId"), path);
+        dependencies.put(path, new HashSet<>());
+
+        final Set<String> keys = new HashSet<>();
+        final Element dependencySection = childElement(project, "dependencies");
+        if (dependencySection != null) {
+            for (Element dependency : childElements(dependencySection, "dependency")) {
+                final String dependencyGroupId = childText(dependency, "groupId");
+                keys.add(("${project.groupId}".equals(dependencyGroupId) ? groupId : dependencyGroupId) + ":" + childText(dependency, "artifactId"));
+            }
+        }
+        dependencyKeys.put(path, keys);
+
+        final Element moduleSection = childElement(project, "modules");
+        if (moduleSection == null) return;
+        for (Element module : childElements(moduleSection, "module")) {
+            final String name = module.getTextContent().trim().replaceAll("/pom\\.xml$|/+$", "");
+            addModule(new File(directory, name), path.isEmpty() ? name : path + "/" + name, groupId, dependencyKeys);
+        }
+    }
+
+    /**
+     * Returns the paths of every module, relative to the project. The root module has the path {@code ""}.
+     *
+     * @return the module paths
+     */
+    @NotNull
+    public Set<String> getModules() {
+        return Collections.unmodifiableSet(dependencies.keySet());
+    }
+
+    /**
+     * Finds the module a file belongs to, i.e. the module with the longest path that contains the file.
+     *
+     * @param file the path of the file relative to the project
+     * @return the path of the module
+     */
+    @NotNull
+    public String moduleOf(@NotNull final String file) {
+        String best = "";
+        for (String module : dependencies.keySet()) {
+            if (!module.isEmpty() && file.startsWith(module + "/") && module.length() > best.length()) best = module;
+        }
+        return best;
+    }
+
+    /**
+     * Finds the modules that depend on any of {@code modules}, directly or through other modules, including
+     * {@code modules} themselves.
+     *
+     * @param modules the module paths
+     * @return the paths of the modules and everything that depends on them
+     */
+    @NotNull
+    public Set<String> withDependents(@NotNull final Set<String> modules) {
+        final Set<String> result = new HashSet<>(modules);
+        final Deque<String> pending = new ArrayDeque<>(modules);
+        while (!pending.isEmpty()) {
+            final String module = pending.pop();
+            for (Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+                if (entry.getValue().contains(module) && result.add(entry.getKey())) pending.push(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses a POM file. External entities are disabled since the file comes from the pushed repository.
+     *
+     * @param pom the POM file
+     * @return the parsed document
+     * @throws IOException If the file couldn't be read or parsed
+     */
+    @NotNull
+    private static Document parse(@NotNull final File pom) throws IOException {
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setExpandEntityReferences(false);
+            return factory.newDocumentBuilder().parse(pom);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Failed to parse " + pom.getPath(), e);
+        }
+    }
+
+    /**
+     * Finds the first child element of {@code parent} with the tag {@code name}.
+     *
+     * @param parent the parent element
+     * @param name   the tag name
+     * @return the child element, or {@code null} if there is none
+     */
+    @Nullable
+    private static Element childElement(@NotNull final Element parent, @NotNull final String name) {
+        for (Element child : childElements(parent, name)) return child;
+        return null;
+    }
+
+    /**
+     * Reads the text of the first child element of {@code parent} with the tag {@code name}.
+     *
+     * @param parent the parent element
+     * @param name   the tag name
+     * @return the trimmed text, or {@code null} if there is no such element
+     */
+    @Nullable
+    private static String childText(@NotNull final Element parent, @NotNull final String name) {
+        final Element child = childElement(parent, name);
+        return child == null ? null : child.getTextContent().trim();
+    }
+
+    /**
+     * Finds the child elements of {@code parent} with the tag {@code name}. Only direct children are returned, so
+     * e.g. the {@code artifactId} of a plugin isn't mistaken for the one of the project.
+     *
+     * @param parent the parent element
+     * @param name   the tag name
+     * @return the child elements
+     */
+    @NotNull
+    private static Iterable<Element> childElements(@NotNull final Element parent, @NotNull final String name) {
+        final List<Element> children = new ArrayList<>();
+        final NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            final Node node = nodes.item(i);
+            if (node.getNodeType() == Node.ELEMENT_NODE && name.equals(node.getNodeName())) children.add((Element) node);
+        }
+        return children;
+    }
+}
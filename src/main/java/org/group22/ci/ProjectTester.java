@@ -1,11 +1,19 @@
 package org.group22.ci;
 
 import org.group22.ci.GitStatusHandler.BuildStatus;
+import org.group22.utilities.Configuration;
 import org.group22.utilities.Helpers;
-import org.json.JSONObject;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class ProjectTester {
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ProjectTester.class);
+    private static final String FORCE_REBUILD_MARKER = "[ci rebuild]";
 
     private final String branch;
     private final String author;
@@ -13,19 +21,32 @@ public class ProjectTester {
     private final String commitId;
     private final String repositoryName;
     private final String cloneURL;
+    private final boolean forceRebuild;
+    private volatile Set<String> changedFiles;
+    private volatile String baseCommitId;
+    private volatile boolean cancelled = false;
+    private volatile boolean aborted = false;
+    private volatile Thread buildThread;
+    private volatile BuildRegistry.BuildRecord record;
+    private volatile boolean warmClone = false;
+    private volatile boolean statusSent = false;
+    private volatile CompletableFuture<Boolean> uploaded = CompletableFuture.completedFuture(false);
 
     /**
      * Creates and initializes a ProjectTester object.
      *
-     * @param jsonObject the payload from the Github POST request
+     * @param pushEvent the push event parsed from the Github POST request
      */
-    public ProjectTester(JSONObject jsonObject) {
-        commitId = Helpers.getHeadCommitId(jsonObject);
+    public ProjectTester(@NotNull final PushEvent pushEvent) {
+        commitId = pushEvent.getHeadCommitId();
         id = Helpers.generateId(commitId);
-        branch = Helpers.getBranch(jsonObject);
-        author = Helpers.getAuthor(jsonObject);
-        repositoryName = Helpers.getRepositoryName(jsonObject);
-        cloneURL = Helpers.getCloneURL(jsonObject);
+        branch = pushEvent.getBranch();
+        author = pushEvent.getAuthor();
+        repositoryName = pushEvent.getRepositoryName();
+        cloneURL = pushEvent.getCloneURL();
+        forceRebuild = pushEvent.getHeadCommitMessage().toLowerCase().contains(FORCE_REBUILD_MARKER);
+        changedFiles = pushEvent.getChangedFiles();
+        baseCommitId = pushEvent.getBaseCommitId();
     }
 
     /**
@@ -42,40 +63,339 @@ public class ProjectTester {
         this.branch = branch;
         this.author = author;
         this.cloneURL = cloneURL;
+        this.forceRebuild = false;
+        this.changedFiles = null;
+        this.baseCommitId = null;
         id = Helpers.generateId(headCommitId);
         this.commitId = headCommitId;
     }
 
     /**
-     * Processes a POST request from Github.
+     * Creates a ProjectTester object for a build that didn't finish before the server stopped. The build keeps its id,
+     * so the report link in its commit status stays valid.
+     *
+     * @param build the build replayed from the {@code BuildJournal}
+     */
+    public ProjectTester(@NotNull final BuildJournal.Build build) {
+        id = build.getId();
+        commitId = build.getCommitId();
+        branch = build.getBranch();
+        author = build.getAuthor();
+        repositoryName = build.getRepositoryName();
+        cloneURL = build.getCloneURL();
+        forceRebuild = build.isForceRebuild();
+        changedFiles = build.getChangedFiles();
+        baseCommitId = build.getBaseCommitId();
+    }
+
+    /**
+     * Converts the build to the form it is stored in the {@code BuildJournal}.
+     *
+     * @return The build as a {@code BuildJournal.Build}
+     */
+    @NotNull
+    public BuildJournal.Build toJournal() {
+        return new BuildJournal.Build(id, repositoryName, commitId, branch, author, cloneURL, forceRebuild, changedFiles, baseCommitId);
+    }
+
+    /**
+     * Processes a POST request from Github. If the build is cancelled by {@code cancel} while it is running, the commit
+     * gets the {@code SUPERSEDED} status instead of the result of the build. If the same tree was tested recently the
+     * result and report of that build are reused instead of running Maven, unless the head commit message contains
+     * {@code [ci rebuild]}. With {@code Configuration.INCREMENTAL_TESTS} only the modules and tests affected by the
+     * changed files are run, see {@code TestSelection}, if the commit before the push passed a full run. The output of
+     * the build can be followed through its {@code BuildLog} until it is finished. Every step is recorded in the
+     * {@code BuildJournal}, so the build can be recovered after a crash. If the build fails with an unexpected
+     * exception the commit gets the {@code ERROR} status; the live log and the workspace are released in every case.
+     * The build is added to the {@code BuildRegistry} and marked as finished in the journal once its reports are
+     * uploaded, so a crash or a failure during the upload leaves it to {@code BuildJournal.recover}. A build stopped by
+     * {@code abort} sends no status, uploads nothing and records nothing.
+     *
+     * @param concurrentBuilds the number of builds the calling process runs at the same time, used to size the Maven
+     *                         threads and test forks of the build
      */
-    public void processPush() {
+    public void processPush(final int concurrentBuilds) {
+        buildThread = Thread.currentThread();
         logger.info("Started test of repository: {}, branch: {}, pushed by: {}, id: {}", repositoryName, branch, author, id);
+        final BuildLog liveLog = BuildLog.open(id);
+        final GitStatusHandler gitStatusHandler = new GitStatusHandler(repositoryName, commitId, author, id);
+        final BuildJournal journal = BuildJournal.getInstance();
 
+        CompletableFuture<Boolean> upload = null;
+        try {
+            upload = runBuild(liveLog, gitStatusHandler, journal, concurrentBuilds);
+        } catch (RuntimeException e) {
+            logger.error("Build {} failed with an unexpected error", id, e);
+            liveLog.append("[CI] The build failed with an unexpected error: " + e);
+            if (!statusSent && !aborted) sendStatus(gitStatusHandler, journal, cancelled ? BuildStatus.SUPERSEDED : BuildStatus.ERROR);
+        } finally {
+            buildThread = null;
+            liveLog.append("[CI] Build " + id + " finished");
+            BuildLog.finish(id);
+            Helpers.cleanUp(id);
+            if (aborted) {
+                logger.info("Build {} was aborted, leaving it to the agent it was reassigned to", id);
+            } else if (upload == null) {
+                journal.finished(id);
+                uploaded = CompletableFuture.completedFuture(true);
+            } else {
+                uploaded = upload.handle((done, failure) -> {
+                    if (Boolean.TRUE.equals(done)) {
+                        BuildRegistry.getInstance().put(record);
+                        journal.record(id, BuildJournal.Event.UPLOADED);
+                        journal.finished(id);
+                        return true;
+                    }
+                    logger.warn("The reports of build {} weren't uploaded, they are uploaded again after a restart", id, failure);
+                    return false;
+                });
+            }
+        }
+    }
 
-        GitRepositoryHandler gitRepositoryHandler = new GitRepositoryHandler(id, repositoryName, cloneURL, branch);
-        MavenRunner mavenRunner = new MavenRunner(id, repositoryName);
+    /**
+     * Clones the repository, runs the tests and sets the status of the head commit, see {@code processPush}.
+     *
+     * @param liveLog          the live log of the build
+     * @param gitStatusHandler the handler setting the status of the head commit
+     * @param journal          the journal the steps of the build are recorded in
+     * @param concurrentBuilds the number of builds the calling process runs at the same time
+     * @return the upload of the reports, or {@code null} if the build has no reports to upload
+     */
+    @Nullable
+    private CompletableFuture<Boolean> runBuild(@NotNull final BuildLog liveLog, @NotNull final GitStatusHandler gitStatusHandler, @NotNull final BuildJournal journal,
+                          final int concurrentBuilds) {
+        liveLog.append("[CI] Cloning repository: " + repositoryName + ", branch: " + branch);
+        GitRepositoryHandler gitRepositoryHandler = new GitRepositoryHandler(id, repositoryName, cloneURL, branch, commitId);
+        MavenRunner mavenRunner = new MavenRunner(id, repositoryName, cloneURL, concurrentBuilds);
         AWSFileUploader awsFileUploader = new AWSFileUploader();
-        GitStatusHandler gitStatusHandler = new GitStatusHandler(repositoryName, commitId, author, id);
 
         gitStatusHandler.sendStatus(BuildStatus.WAITING);
-        boolean cloned = gitRepositoryHandler.cloneRepository();
+        WorkspaceManager.getInstance().allocate(id);
+        boolean cloned = !cancelled && gitRepositoryHandler.cloneRepository();
+        if (aborted) return null;
+        if (cloned) journal.record(id, BuildJournal.Event.CLONED);
+        warmClone = cloned && gitRepositoryHandler.isWarm();
+
+        if (cloned && !cancelled) {
+            final String treeId = gitRepositoryHandler.getTreeId();
+            final String cacheKey = treeId == null ? null : ResultCache.key(cloneURL, treeId);
+            final ResultCache.Entry cached = cacheKey == null || forceRebuild ? null : ResultCache.getInstance().get(cacheKey);
 
-        if (cloned) {
-            final boolean buildResult = mavenRunner.runProject();
-            
-            if (buildResult) {
-            	gitStatusHandler.sendStatus(BuildStatus.SUCCESS);
+            if (cached != null) {
+                if (aborted) return null;
+                logger.info("Tree {} of build {} was already tested by build {}, reusing its result", treeId, id, cached.getBuildId());
+                liveLog.append("[CI] This tree was already tested by build " + cached.getBuildId() + ", reusing its result");
+                new GitStatusHandler(repositoryName, commitId, author, cached.getBuildId()).sendStatus(cached.getStatus());
+                statusSent = true;
+                journal.record(id, BuildJournal.Event.STATUS_SENT, cached.getStatus());
             } else {
-            	gitStatusHandler.sendStatus(BuildStatus.FAILURE);
+                final boolean incremental = Configuration.INCREMENTAL_TESTS && baseTested(gitRepositoryHandler);
+                final TestSelection selection = incremental ? TestSelection.select(new File(Configuration.PATH_TO_GIT
+                        + id + "/" + repositoryName + "/" + Configuration.MAVEN_PROJECT_DIRECTORY), Configuration.MAVEN_PROJECT_DIRECTORY, changedFiles)
+                        : TestSelection.FULL;
+                logger.info("Build {} runs {}", id, selection);
+                liveLog.append("[CI] Running the tests of build " + id + ", " + selection);
+                final boolean buildResult = mavenRunner.runProject(selection);
+
+                if (aborted) {
+                    return null;
+                } else if (cancelled) {
+                    sendStatus(gitStatusHandler, journal, BuildStatus.SUPERSEDED);
+                } else {
+                    final BuildStatus status = buildResult ? BuildStatus.SUCCESS : BuildStatus.FAILURE;
+                    journal.record(id, BuildJournal.Event.TESTED, status);
+                    sendStatus(gitStatusHandler, journal, status);
+
+                    // The record is added to the registry once the reports are uploaded, see processPush
+                    record = new BuildRegistry.BuildRecord(id, repositoryName, branch, status, mavenRunner.getResult(), mavenRunner.getUsage());
+                    // A partial run says nothing about the tests that weren't selected
+                    if (cacheKey != null && selection.isFull()) ResultCache.getInstance().put(cacheKey, new ResultCache.Entry(id, status, mavenRunner.getResult()));
+                    return awsFileUploader.upload(id, mavenRunner.getResult());
+                }
             }
-            
-            awsFileUploader.upload(id);
-            
+        } else if (cancelled) {
+            sendStatus(gitStatusHandler, journal, BuildStatus.SUPERSEDED);
+        } else {
+            sendStatus(gitStatusHandler, journal, BuildStatus.ERROR);
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the commit the changed files are listed against passed a full run that is still in the
+     * {@code ResultCache}. Only then are the modules and tests that aren't affected by the changes known to pass, so
+     * that a partial run can stand for the whole project.
+     *
+     * @param gitRepositoryHandler the handler of the checked out repository
+     * @return {@code true} if the tree of the base commit passed a full run
+     */
+    private boolean baseTested(@NotNull final GitRepositoryHandler gitRepositoryHandler) {
+        final String base = baseCommitId;
+        if (base == null || changedFiles == null) return false;
+        final String baseTree = gitRepositoryHandler.getTreeId(base);
+        final ResultCache.Entry entry = baseTree == null ? null : ResultCache.getInstance().get(ResultCache.key(cloneURL, baseTree));
+        if (entry != null && entry.getStatus() == BuildStatus.SUCCESS) return true;
+        logger.info("Commit {} before build {} didn't pass a full run that is still cached, running every test", base, id);
+        return false;
+    }
+
+    /**
+     * Sets the final status of the head commit and records it in the journal.
+     *
+     * @param gitStatusHandler the handler setting the status of the head commit
+     * @param journal          the journal the status is recorded in
+     * @param status           the status
+     */
+    private void sendStatus(@NotNull final GitStatusHandler gitStatusHandler, @NotNull final BuildJournal journal, @NotNull final BuildStatus status) {
+        if (aborted) return;
+        gitStatusHandler.sendStatus(status);
+        statusSent = true;
+        journal.record(id, BuildJournal.Event.STATUS_SENT, status);
+    }
+
+    /**
+     * Takes over the changes of a build of the same branch that this build replaces before it could report a result,
+     * so the tests affected by them still run. The changes are then listed against the base commit of the replaced
+     * build. If the changes of either build are unknown, the whole project is tested.
+     * The caller records the merged changes in the {@code BuildJournal} before the replaced build is marked as finished,
+     * so a recovered build doesn't lose them. Must be called before the build starts.
+     *
+     * @param replaced the queued or cancelled build of the same branch
+     * @return {@code true} if the changes of this build were updated, {@code false} if the whole project is tested anyway
+     */
+    boolean inheritChanges(@NotNull final ProjectTester replaced) {
+        final Set<String> own = changedFiles;
+        final Set<String> inherited = replaced.changedFiles;
+        if (own == null) return false;
+        if (inherited == null) {
+            changedFiles = null;
         } else {
-            gitStatusHandler.sendStatus(BuildStatus.ERROR);
+            final Set<String> merged = new HashSet<>(own);
+            merged.addAll(inherited);
+            changedFiles = merged;
+            baseCommitId = replaced.baseCommitId;
+        }
+        return true;
+    }
+
+    /**
+     * Cancels the build because a newer push was made to the same branch. A running Maven invocation is stopped by
+     * interrupting the thread running the build.
+     */
+    public void cancel() {
+        cancelled = true;
+        final Thread thread = buildThread;
+        if (thread != null) {
+            logger.info("Cancelling build {} of repository: {}, branch: {}", id, repositoryName, branch);
+            thread.interrupt();
         }
+    }
 
-        Helpers.cleanUp(id);
+    /**
+     * Aborts the build because the agent running it lost its lease and the build was given to another agent. Unlike a
+     * cancelled build, an aborted build sends no commit status, uploads no reports and writes nothing to the
+     * {@code BuildRegistry} or the {@code BuildJournal}, since they belong to the agent that runs the build now.
+     */
+    public void abort() {
+        aborted = true;
+        cancel();
+    }
+
+    /**
+     * Checks if the build was aborted by {@code abort}.
+     *
+     * @return {@code true} if the build was aborted
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    /**
+     * Marks the head commit as superseded without running the build. Used for builds that were still waiting in the
+     * queue when a newer push was made to the same branch.
+     */
+    public void supersede() {
+        cancelled = true;
+        logger.info("Build {} of repository: {}, branch: {} was superseded before it started", id, repositoryName, branch);
+        new GitStatusHandler(repositoryName, commitId, author, id).sendStatus(BuildStatus.SUPERSEDED);
+        BuildJournal.getInstance().finished(id);
+    }
+
+    /**
+     * Marks the head commit as failed without running the build. Used for builds that lost the agent running them and
+     * couldn't be queued again.
+     */
+    public void abandon() {
+        cancelled = true;
+        logger.warn("Build {} of repository: {}, branch: {} was abandoned", id, repositoryName, branch);
+        new GitStatusHandler(repositoryName, commitId, author, id).sendStatus(BuildStatus.ERROR);
+        BuildJournal.getInstance().finished(id);
+    }
+
+    /**
+     * Checks if the build was cancelled or superseded by a newer push to the same branch.
+     *
+     * @return {@code true} if the build was cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the upload of the reports of the build. It is only set once {@code processPush} has returned.
+     *
+     * @return a future that completes with {@code true} once the reports are uploaded and the build is finished in the
+     * journal, or right away if the build had no reports to upload; {@code false} if the upload failed or the build
+     * was aborted
+     */
+    @NotNull
+    public CompletableFuture<Boolean> getUploaded() {
+        return uploaded;
+    }
+
+    /**
+     * Getter function for the {@code record} field.
+     *
+     * @return The record of the build, or {@code null} if the build didn't run the tests (yet)
+     */
+    public BuildRegistry.BuildRecord getRecord() {
+        return record;
+    }
+
+    /**
+     * Checks if the repository was checked out from a local mirror that already existed.
+     *
+     * @return {@code true} if the clone was a cache hit
+     */
+    public boolean isWarmClone() {
+        return warmClone;
+    }
+
+    /**
+     * Getter function for the {@code repositoryName} field.
+     *
+     * @return The name of the repository
+     */
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    /**
+     * Generates the key used to find builds of the same branch in the same repository.
+     *
+     * @return The repository and branch of the build as a {@code String}
+     */
+    public String getBranchKey() {
+        return cloneURL + "#" + branch;
+    }
+
+    /**
+     * Getter function for the {@code id} field.
+     *
+     * @return The build id
+     */
+    public String getId() {
+        return id;
     }
 }
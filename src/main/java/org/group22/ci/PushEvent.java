@@ -0,0 +1,359 @@
+package org.group22.ci;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+public class PushEvent {
+    // The body is left open, so the caller can read the rest of it, e.g. to verify its signature
+    private static final JsonFactory JSON_FACTORY = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    private static final String BRANCH_PREFIX = "refs/heads/";
+    // Github lists at most 20 commits in a push payload
+    private static final int MAX_LISTED_COMMITS = 20;
+    private String ref;
+    private String headCommitId;
+    private String before;
+    private String headCommitMessage = "";
+    private String pusher;
+    private String repositoryName;
+    private String cloneURL;
+    private boolean created;
+    private boolean deleted;
+    private boolean forced;
+    private int commits;
+    private boolean filesListed = true;
+    private final Set<String> changedFiles = new HashSet<>();
+
+    private PushEvent() {
+    }
+
+    /**
+     * Parses a push payload from Github in a single pass. Only the fields the server uses are kept; every other value,
+     * such as the full commit and repository objects, is skipped without being built in memory.
+     *
+     * @param body     the body of the webhook request
+     * @param maxBytes the largest body accepted
+     * @return the {@code PushEvent}, or {@code null} if the payload isn't a push of a branch with a head commit
+     * @throws PayloadTooLargeException If the body is larger than {@code maxBytes}
+     * @throws IOException              If the body couldn't be read or isn't valid JSON
+     */
+    @Nullable
+    public static PushEvent parse(@NotNull final InputStream body, final long maxBytes) throws IOException {
+        final PushEvent event = new PushEvent();
+        try (JsonParser parser = JSON_FACTORY.createParser(new LimitedInputStream(body, maxBytes))) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "ref":
+                        event.ref = textOrNull(parser, value);
+                        break;
+                    case "before":
+                        event.before = textOrNull(parser, value);
+                        break;
+                    case "created":
+                        event.created = value == JsonToken.VALUE_TRUE;
+                        break;
+                    case "deleted":
+                        event.deleted = value == JsonToken.VALUE_TRUE;
+                        break;
+                    case "forced":
+                        event.forced = value == JsonToken.VALUE_TRUE;
+                        break;
+                    case "head_commit":
+                        event.readHeadCommit(parser, value);
+                        break;
+                    case "pusher":
+                        event.readPusher(parser, value);
+                        break;
+                    case "repository":
+                        event.readRepository(parser, value);
+                        break;
+                    case "commits":
+                        event.readCommits(parser, value);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+
+        final boolean complete = event.headCommitId != null && event.pusher != null && event.repositoryName != null
+                && event.cloneURL != null && event.ref != null && event.ref.startsWith(BRANCH_PREFIX);
+        return complete ? event : null;
+    }
+
+    /**
+     * Reads the id and the message of the head commit.
+     *
+     * @param parser the parser, positioned on the value of {@code head_commit}
+     * @param value  the current token
+     * @throws IOException If the body couldn't be read or isn't valid JSON
+     */
+    private void readHeadCommit(@NotNull final JsonParser parser, @NotNull final JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            if ("id".equals(field)) {
+                headCommitId = textOrNull(parser, token);
+            } else if ("message".equals(field)) {
+                final String message = textOrNull(parser, token);
+                headCommitMessage = message == null ? "" : message;
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Reads the name of the user who pushed.
+     *
+     * @param parser the parser, positioned on the value of {@code pusher}
+     * @param value  the current token
+     * @throws IOException If the body couldn't be read or isn't valid JSON
+     */
+    private void readPusher(@NotNull final JsonParser parser, @NotNull final JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            if ("name".equals(field)) {
+                pusher = textOrNull(parser, token);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Reads the name and the clone URL of the repository.
+     *
+     * @param parser the parser, positioned on the value of {@code repository}
+     * @param value  the current token
+     * @throws IOException If the body couldn't be read or isn't valid JSON
+     */
+    private void readRepository(@NotNull final JsonParser parser, @NotNull final JsonToken value) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            if ("name".equals(field)) {
+                repositoryName = textOrNull(parser, token);
+            } else if ("clone_url".equals(field)) {
+                cloneURL = textOrNull(parser, token);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Reads the files added, modified and removed by the commits of the push.
+     *
+     * @param parser the parser, positioned on the value of {@code commits}
+     * @param value  the current token
+     * @throws IOException If the body couldn't be read or isn't valid JSON
+     */
+    private void readCommits(@NotNull final JsonParser parser, @NotNull final JsonToken value) throws IOException {
+        if (value != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            filesListed = false;
+            return;
+        }
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            commits++;
+            int lists = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken list = parser.nextToken();
+                if (list == JsonToken.START_ARRAY && ("added".equals(field) || "modified".equals(field) || "removed".equals(field))) {
+                    lists++;
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        if (parser.getCurrentToken() == JsonToken.VALUE_STRING) changedFiles.add(parser.getText());
+                        else parser.skipChildren();
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (lists < 3) filesListed = false;
+        }
+    }
+
+    /**
+     * Reads a text value.
+     *
+     * @param parser the parser, positioned on the value
+     * @param value  the current token
+     * @return the text, or {@code null} if the value isn't a string
+     * @throws IOException If the body couldn't be read or isn't valid JSON
+     */
+    @Nullable
+    private static String textOrNull(@NotNull final JsonParser parser, @NotNull final JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) return parser.getText();
+        parser.skipChildren();
+        return null;
+    }
+
+    /**
+     * Getter function for the {@code headCommitId} field.
+     *
+     * @return The id of the head commit
+     */
+    @NotNull
+    public String getHeadCommitId() {
+        return headCommitId;
+    }
+
+    /**
+     * Getter function for the {@code headCommitMessage} field.
+     *
+     * @return The message of the head commit, or an empty {@code String} if the payload has none
+     */
+    @NotNull
+    public String getHeadCommitMessage() {
+        return headCommitMessage;
+    }
+
+    /**
+     * Returns the name of the branch that was pushed.
+     *
+     * @return The name of the branch, without {@code refs/heads/}
+     */
+    @NotNull
+    public String getBranch() {
+        return ref.substring(BRANCH_PREFIX.length());
+    }
+
+    /**
+     * Getter function for the {@code pusher} field.
+     *
+     * @return The username of the person who pushed
+     */
+    @NotNull
+    public String getAuthor() {
+        return pusher;
+    }
+
+    /**
+     * Getter function for the {@code repositoryName} field.
+     *
+     * @return The name of the repository
+     */
+    @NotNull
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    /**
+     * Getter function for the {@code cloneURL} field.
+     *
+     * @return The URL for cloning the repository using HTTPS
+     */
+    @NotNull
+    public String getCloneURL() {
+        return cloneURL;
+    }
+
+    /**
+     * Returns the commit the branch pointed to before the push, the commit the changed files are listed against.
+     *
+     * @return The id of the commit, or {@code null} if the changes are unknown, e.g. for a new branch
+     */
+    @Nullable
+    public String getBaseCommitId() {
+        return getChangedFiles() == null ? null : before;
+    }
+
+    /**
+     * Returns the paths of the files added, modified or removed by the commits of the push. Github lists at most 20
+     * commits in the payload and doesn't list the files of a new or force pushed branch against its base, so the
+     * changes are unknown in those cases.
+     *
+     * @return The paths relative to the repository root, or {@code null} if the changes are unknown
+     */
+    @Nullable
+    public Set<String> getChangedFiles() {
+        if (commits == 0 || commits >= MAX_LISTED_COMMITS || !filesListed || created || deleted || forced) return null;
+        return changedFiles;
+    }
+
+    /**
+     * Helper class for an {@code InputStream} that fails once more than a set number of bytes have been read, so an
+     * oversized body without a {@code Content-Length} is rejected without reading all of it.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long read = 0;
+
+        LimitedInputStream(final InputStream in, final long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int value = super.read();
+            if (value >= 0) count(1);
+            return value;
+        }
+
+        @Override
+        public int read(@NotNull final byte[] buffer, final int offset, final int length) throws IOException {
+            final int count = super.read(buffer, offset, length);
+            if (count > 0) count(count);
+            return count;
+        }
+
+        /**
+         * Adds to the number of bytes read.
+         *
+         * @param bytes the number of bytes just read
+         * @throws PayloadTooLargeException If more than {@code maxBytes} have been read
+         */
+        private void count(final long bytes) throws PayloadTooLargeException {
+            read += bytes;
+            if (read > maxBytes) throw new PayloadTooLargeException(maxBytes);
+        }
+    }
+
+    /**
+     * Exception thrown when a webhook body is larger than the server accepts.
+     */
+    public static class PayloadTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates a {@code PayloadTooLargeException}.
+         *
+         * @param maxBytes the largest body accepted
+         */
+        public PayloadTooLargeException(final long maxBytes) {
+            super("The payload is larger than " + maxBytes + " bytes");
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.group22.ci;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.apache.commons.io.FileUtils;
+import org.group22.utilities.Configuration;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class ReportIndex {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ReportIndex.class);
+    private static final String PREFIX = "reports/";
+    private static final Pattern REPORT_KEY = Pattern.compile("^reports/([A-Za-z0-9_-]+)\\.txt$");
+    private static final String MARKER_PREFIX = "index/";
+    private static final Pattern MARKER_KEY = Pattern.compile("^index/\\d{13}_([A-Za-z0-9_-]+)$");
+    /**
+     * How far back an incremental sync lists the markers before the previous sync, so markers written by a server
+     * whose clock is behind, or whose upload was still running during the previous sync, are still found.
+     */
+    private static final long SYNC_OVERLAP_MILLIS = 10 * 60 * 1000L;
+    /**
+     * Orders build ids by the time the build started, and by commit for builds started in the same second. Build ids
+     * have the format {@code <commit>_yyyy-MM-dd_HH-mm-ss}, so the part after the first underscore sorts in time order.
+     */
+    public static final Comparator<String> CHRONOLOGICAL = Comparator
+            .comparing((String id) -> id.indexOf('_') < 0 ? "" : id.substring(id.indexOf('_') + 1))
+            .thenComparing(Comparator.naturalOrder());
+    private static final ReportIndex INSTANCE = new ReportIndex(new File(Configuration.PATH_TO_REPORT_INDEX));
+    private final File snapshot;
+    private final NavigableSet<String> ids = new ConcurrentSkipListSet<>(CHRONOLOGICAL);
+    private long syncedAt = -1;
+
+    /**
+     * Creates a {@code ReportIndex} that is persisted to {@code snapshot}. If the snapshot exists, e.g. from before a
+     * restart, the index is loaded from it so the bucket doesn't have to be listed again.
+     *
+     * @param snapshot the file the index is stored in
+     */
+    public ReportIndex(@NotNull final File snapshot) {
+        this.snapshot = snapshot;
+        load();
+    }
+
+    /**
+     * Returns the index shared by the whole server.
+     *
+     * @return the shared {@code ReportIndex}
+     */
+    public static ReportIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Lists the reports in {@code bucket} that aren't in the index yet and adds them. The listing is paginated with
+     * continuation tokens, so there is no limit on the number of reports. The first sync lists every report. After
+     * that only the markers written by {@code record} since the previous sync are listed: their keys start with the
+     * time they were written, so {@code StartAfter} skips exactly the markers that were already seen, whatever the id
+     * of the build. A full listing can be forced with {@code REPORT_INDEX_FULL_SYNC}.
+     *
+     * @param s3Client the client used to contact S3
+     * @param bucket   the bucket the reports are stored in
+     * @return the number of reports that were added to the index
+     */
+    public synchronized int sync(@NotNull final AmazonS3 s3Client, @NotNull final String bucket) {
+        final long startedAt = System.currentTimeMillis();
+        final int added;
+        if (syncedAt < 0 || Configuration.REPORT_INDEX_FULL_SYNC) {
+            added = list(s3Client, new ListObjectsV2Request().withBucketName(bucket).withPrefix(PREFIX), REPORT_KEY);
+        } else {
+            added = list(s3Client, new ListObjectsV2Request().withBucketName(bucket).withPrefix(MARKER_PREFIX)
+                    .withStartAfter(markerKey("", Math.max(0, syncedAt - SYNC_OVERLAP_MILLIS))), MARKER_KEY);
+        }
+        syncedAt = startedAt;
+
+        logger.info("Synced report index with bucket: {}, {} new reports, {} in total", bucket, added, ids.size());
+        save();
+        return added;
+    }
+
+    /**
+     * Lists the keys of {@code request} page by page and adds the builds of the keys matching {@code pattern}.
+     *
+     * @param s3Client the client used to contact S3
+     * @param request  the listing request
+     * @param pattern  the pattern of the keys, with the id of the build as its first group
+     * @return the number of reports that were added to the index
+     */
+    private int list(@NotNull final AmazonS3 s3Client, @NotNull final ListObjectsV2Request request, @NotNull final Pattern pattern) {
+        int added = 0;
+        ListObjectsV2Result result;
+        do {
+            result = s3Client.listObjectsV2(request);
+            for (S3ObjectSummary objectSummary : result.getObjectSummaries()) {
+                final Matcher matcher = pattern.matcher(objectSummary.getKey());
+                if (matcher.matches() && ids.add(matcher.group(1))) added++;
+            }
+            request.setContinuationToken(result.getNextContinuationToken());
+        } while (result.isTruncated());
+        return added;
+    }
+
+    /**
+     * Records a build whose reports were uploaded: an empty marker object, keyed by the current time, is written to
+     * {@code bucket} so the other servers find the build with their next {@code sync}, then the build is added to
+     * this index.
+     *
+     * @param s3Client the client used to contact S3
+     * @param bucket   the bucket the reports are stored in
+     * @param id       the id of the build
+     */
+    public void record(@NotNull final AmazonS3 s3Client, @NotNull final String bucket, @NotNull final String id) {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(0);
+        s3Client.putObject(new PutObjectRequest(bucket, markerKey(id, System.currentTimeMillis()),
+                new ByteArrayInputStream(new byte[0]), metadata));
+        add(id);
+    }
+
+    /**
+     * Builds the key of the marker of a build. The time is padded to a fixed width so the keys sort in time order.
+     *
+     * @param id     the id of the build
+     * @param millis the time the marker is written
+     * @return the key of the marker
+     */
+    @NotNull
+    static String markerKey(@NotNull final String id, final long millis) {
+        return String.format("%s%013d_%s", MARKER_PREFIX, millis, id);
+    }
+
+    /**
+     * Adds the report of a build to the index and appends it to the snapshot.
+     *
+     * @param id the id of the build
+     */
+    public synchronized void add(@NotNull final String id) {
+        if (!ids.add(id)) return;
+        if (!snapshot.exists()) {
+            save();
+            return;
+        }
+
+        try {
+            FileUtils.writeStringToFile(snapshot, id + "\n", StandardCharsets.UTF_8, true);
+        } catch (IOException e) {
+            logger.error("Failed to add build {} to the report index snapshot", id, e);
+        }
+    }
+
+    /**
+     * Getter function for the ids in the index, ordered by the time the builds started. The returned set is a live
+     * read-only view, so ranges such as the latest builds can be read without copying the index.
+     *
+     * @return The build ids, oldest first
+     */
+    @NotNull
+    public NavigableSet<String> getIds() {
+        return Collections.unmodifiableNavigableSet(ids);
+    }
+
+    /**
+     * Reads the index from the snapshot. The first line holds the time of the last sync with the bucket, the other
+     * lines hold one build id each. A snapshot without a valid time leads to a full listing on the next sync.
+     */
+    private void load() {
+        if (!snapshot.exists()) return;
+
+        try {
+            final List<String> lines = FileUtils.readLines(snapshot, StandardCharsets.UTF_8);
+            if (lines.isEmpty()) return;
+            try {
+                syncedAt = Long.parseLong(lines.get(0));
+            } catch (NumberFormatException e) {
+                syncedAt = -1;
+            }
+            for (String id : lines.subList(1, lines.size())) {
+                if (!id.isEmpty()) ids.add(id);
+            }
+            logger.info("Loaded {} reports from the report index snapshot", ids.size());
+        } catch (IOException e) {
+            logger.error("Failed to read the report index snapshot: {}", snapshot.getPath(), e);
+        }
+    }
+
+    /**
+     * Writes the whole index to the snapshot. The snapshot is replaced in one step, so a crash never leaves a
+     * partial snapshot behind.
+     */
+    private void save() {
+        final List<String> lines = new ArrayList<>(ids.size() + 1);
+        lines.add(String.valueOf(syncedAt));
+        lines.addAll(ids);
+
+        final File temporary = new File(snapshot.getPath() + ".tmp");
+        try {
+            FileUtils.writeLines(temporary, StandardCharsets.UTF_8.name(), lines, "\n");
+            Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Failed to write the report index snapshot: {}", snapshot.getPath(), e);
+        }
+    }
+}
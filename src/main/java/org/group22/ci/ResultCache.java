@@ -0,0 +1,212 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.group22.ci.GitStatusHandler.BuildStatus;
+import org.group22.utilities.Configuration;
+import org.group22.utilities.Helpers;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ResultCache {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ResultCache.class);
+    private static final ResultCache INSTANCE = new ResultCache(new File(Configuration.PATH_TO_RESULT_CACHE),
+            Configuration.RESULT_CACHE_TTL_HOURS * 3600000L, Configuration.RESULT_CACHE_MAX_ENTRIES);
+    private final File file;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final Map<String, Entry> entries;
+
+    /**
+     * Creates a {@code ResultCache} that keeps at most {@code maxEntries} results for {@code ttlMillis} each. The
+     * least recently used result is removed when the cache is full. Results are stored in {@code file} so they are
+     * kept across restarts.
+     *
+     * @param file       the file the results are stored in
+     * @param ttlMillis  the time a result can be reused, a value of {@code 0} or less disables the cache
+     * @param maxEntries the largest number of results kept
+     */
+    public ResultCache(@NotNull final File file, final long ttlMillis, final int maxEntries) {
+        this.file = file;
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return size() > ResultCache.this.maxEntries;
+            }
+        };
+        load();
+    }
+
+    /**
+     * Returns the cache shared by the whole server.
+     *
+     * @return the shared {@code ResultCache}
+     */
+    public static ResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Generates the key of a build. Two builds with the same key test exactly the same source tree in the same way.
+     * The POM files are part of the tree, so a change to the dependencies changes the key as well.
+     *
+     * @param cloneURL the URL used for cloning the repository
+     * @param treeId   the id of the Git tree that was checked out
+     * @return the key as a {@code String}
+     */
+    @NotNull
+    public static String key(@NotNull final String cloneURL, @NotNull final String treeId) {
+        return cloneURL + "#" + Configuration.MAVEN_PROJECT_DIRECTORY + "#" + treeId;
+    }
+
+    /**
+     * Finds the result of an earlier build of the same tree.
+     *
+     * @param key the key of the build, see {@code key}
+     * @return the {@code Entry}, or {@code null} if the tree hasn't been built or the result has expired
+     */
+    @Nullable
+    public synchronized Entry get(@NotNull final String key) {
+        if (ttlMillis <= 0) return null;
+
+        final Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (System.currentTimeMillis() - entry.createdAt > ttlMillis) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Stores the result of a build.
+     *
+     * @param key   the key of the build, see {@code key}
+     * @param entry the result of the build
+     */
+    public synchronized void put(@NotNull final String key, @NotNull final Entry entry) {
+        if (ttlMillis <= 0) return;
+        entries.put(key, entry);
+        save();
+    }
+
+    /**
+     * Reads the results stored by an earlier run of the server.
+     */
+    private void load() {
+        if (!file.exists()) return;
+
+        try {
+            final JSONArray stored = new JSONArray(FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+            for (int i = 0; i < stored.length(); i++) {
+                final JSONObject json = stored.getJSONObject(i);
+                final Helpers.Result result = json.has("testRun") ? new Helpers.Result(json.getInt("testRun"),
+                        json.getInt("failures"), json.getInt("errors"), json.getInt("skipped")) : null;
+                entries.put(json.getString("key"), new Entry(json.getString("buildId"),
+                        BuildStatus.valueOf(json.getString("status")), result, json.getLong("createdAt")));
+            }
+        } catch (IOException | JSONException | IllegalArgumentException e) {
+            logger.error("Failed to read the result cache: {}", file.getPath(), e);
+        }
+    }
+
+    /**
+     * Writes the results to disk, replacing the file in one step.
+     */
+    private void save() {
+        final JSONArray stored = new JSONArray();
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            final Entry entry = mapEntry.getValue();
+            final JSONObject json = new JSONObject()
+                    .put("key", mapEntry.getKey())
+                    .put("buildId", entry.buildId)
+                    .put("status", entry.status.name())
+                    .put("createdAt", entry.createdAt);
+            if (entry.result != null) {
+                json.put("testRun", entry.result.getTestRun())
+                        .put("failures", entry.result.getFailures())
+                        .put("errors", entry.result.getErrors())
+                        .put("skipped", entry.result.getSkipped());
+            }
+            stored.put(json);
+        }
+
+        final File temporary = new File(file.getPath() + ".tmp");
+        try {
+            FileUtils.writeStringToFile(temporary, stored.toString(), StandardCharsets.UTF_8);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Failed to write the result cache: {}", file.getPath(), e);
+        }
+    }
+
+    /**
+     * Helper class for the result of a build kept in the cache.
+     */
+    public static class Entry {
+        private final String buildId;
+        private final BuildStatus status;
+        private final Helpers.Result result;
+        private final long createdAt;
+
+        /**
+         * Creates an {@code Entry} for a build that has just finished.
+         *
+         * @param buildId the id of the build, which is also the id of its report
+         * @param status  the status of the build
+         * @param result  the test results of the build, or {@code null} if no tests were run
+         */
+        public Entry(@NotNull final String buildId, @NotNull final BuildStatus status, @Nullable final Helpers.Result result) {
+            this(buildId, status, result, System.currentTimeMillis());
+        }
+
+        private Entry(final String buildId, final BuildStatus status, final Helpers.Result result, final long createdAt) {
+            this.buildId = buildId;
+            this.status = status;
+            this.result = result;
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * Getter function for the {@code buildId} field.
+         *
+         * @return The id of the build that produced the result
+         */
+        @NotNull
+        public String getBuildId() {
+            return buildId;
+        }
+
+        /**
+         * Getter function for the {@code status} field.
+         *
+         * @return The status of the build
+         */
+        @NotNull
+        public BuildStatus getStatus() {
+            return status;
+        }
+
+        /**
+         * Getter function for the {@code result} field.
+         *
+         * @return The test results of the build, or {@code null} if no tests were run
+         */
+        @Nullable
+        public Helpers.Result getResult() {
+            return result;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.group22.utilities.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class StatusDispatcher {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(StatusDispatcher.class);
+    private static final StatusDispatcher INSTANCE = createInstance();
+    private static final long RETRY_MILLIS = 30000;
+    private static final long MAX_RETRY_MILLIS = 15 * 60000;
+    private final GitHubClient client;
+    private final File outboxFile;
+    private final long millisPerToken;
+    private final int burst;
+    private final long retryMillis;
+    private final Map<String, Update> outbox = new LinkedHashMap<>();
+    private final Map<String, Update> inFlight = new HashMap<>();
+    private double tokens;
+    private long lastRefill = System.currentTimeMillis();
+    private Thread dispatcher;
+
+    /**
+     * Creates a {@code StatusDispatcher} that sends updates through {@code client}, at most {@code perMinute} per
+     * minute after an initial burst of {@code burst}. Updates that weren't delivered before a restart are loaded from
+     * {@code outboxFile} and sent once the dispatcher is started.
+     *
+     * @param client     the client used to send the updates
+     * @param outboxFile the file the undelivered updates are stored in
+     * @param perMinute  the number of updates sent per minute
+     * @param burst      the number of updates that can be sent at once after a quiet period
+     */
+    public StatusDispatcher(@NotNull final GitHubClient client, @NotNull final File outboxFile, final int perMinute, final int burst) {
+        this(client, outboxFile, perMinute, burst, RETRY_MILLIS);
+    }
+
+    /**
+     * Creates a {@code StatusDispatcher} that waits {@code retryMillis} before sending an update that couldn't be
+     * delivered again, doubling the wait for every further failure.
+     *
+     * @param client      the client used to send the updates
+     * @param outboxFile  the file the undelivered updates are stored in
+     * @param perMinute   the number of updates sent per minute
+     * @param burst       the number of updates that can be sent at once after a quiet period
+     * @param retryMillis the time to wait before the first retry
+     */
+    StatusDispatcher(@NotNull final GitHubClient client, @NotNull final File outboxFile, final int perMinute, final int burst, final long retryMillis) {
+        this.client = client;
+        this.outboxFile = outboxFile;
+        this.millisPerToken = 60000L / Math.max(1, perMinute);
+        this.burst = Math.max(1, burst);
+        this.retryMillis = retryMillis;
+        this.tokens = this.burst;
+        load();
+    }
+
+    /**
+     * Creates and starts the dispatcher shared by the whole server.
+     *
+     * @return the shared {@code StatusDispatcher}
+     */
+    private static StatusDispatcher createInstance() {
+        final StatusDispatcher dispatcher = new StatusDispatcher(GitHubClient.getInstance(), new File(Configuration.PATH_TO_STATUS_OUTBOX),
+                Configuration.STATUS_UPDATES_PER_MINUTE, 10);
+        dispatcher.start();
+        return dispatcher;
+    }
+
+    /**
+     * Returns the dispatcher shared by the whole server.
+     *
+     * @return the shared {@code StatusDispatcher}
+     */
+    public static StatusDispatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts the thread that sends the updates in the outbox.
+     */
+    public synchronized void start() {
+        if (dispatcher != null) return;
+        dispatcher = new Thread(this::dispatch, "github-status-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Adds a status update to the outbox. An update for the same commit and context that hasn't been sent yet is
+     * replaced, since only the latest state matters to Github; its future completes together with the new update.
+     *
+     * @param path the path of the status endpoint of the commit
+     * @param body the JSON body of the status update
+     * @return a future that completes with {@code true} once the update, or a newer one that replaced it, was accepted,
+     * or with {@code false} if Github rejected it
+     */
+    @NotNull
+    public CompletableFuture<Boolean> enqueue(@NotNull final String path, @NotNull final JSONObject body) {
+        final Update update = new Update(path, body);
+        final CompletableFuture<Boolean> future = update.futures.get(0);
+        synchronized (outbox) {
+            final Update replaced = outbox.remove(update.key());
+            if (replaced != null) {
+                update.futures.addAll(replaced.futures);
+                logger.info("Collapsed status update for {} into the newer state: {}", path, body.optString("state"));
+            }
+            outbox.put(update.key(), update);
+            save();
+            outbox.notifyAll();
+        }
+        return future;
+    }
+
+    /**
+     * Returns the number of updates in the outbox, including the one being sent.
+     *
+     * @return the number of updates
+     */
+    public int pending() {
+        synchronized (outbox) {
+            return outbox.size() + inFlight.size();
+        }
+    }
+
+    /**
+     * Sends the updates in the outbox in the order they were first added, as fast as the token bucket allows. An
+     * update can be replaced by a newer state until it is picked up for sending; from then on it is kept in flight,
+     * and written to disk with the rest of the outbox, until Github answered. An update that couldn't be delivered
+     * goes back into the outbox and is retried later, unless a newer state has arrived for the same commit in the
+     * meantime. Updates waiting for a retry are skipped, so the other updates are sent in the meantime.
+     */
+    private void dispatch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                acquireToken();
+                final Update update;
+                synchronized (outbox) {
+                    update = next();
+                    outbox.remove(update.key());
+                    inFlight.put(update.key(), update);
+                }
+
+                final GitHubClient.Attempt attempt = client.send(update.path, update.body, update.attempts);
+                final GitHubClient.Outcome outcome = attempt.getOutcome();
+                synchronized (outbox) {
+                    inFlight.remove(update.key());
+                    if (outcome == GitHubClient.Outcome.FAILED) retry(update, attempt.getRetryMillis());
+                    save();
+                }
+                if (outcome != GitHubClient.Outcome.FAILED) {
+                    update.futures.forEach(future -> future.complete(outcome == GitHubClient.Outcome.ACCEPTED));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error while sending a status update", e);
+            }
+        }
+    }
+
+    /**
+     * Waits until an update in the outbox is due and returns the first one. While the Github rate limit is nearly used
+     * up, it also waits for the time the client asks for between requests. The lock is released while waiting, so
+     * updates can still be added. Must be called while holding the lock of the outbox.
+     *
+     * @return the update to send next
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    @NotNull
+    private Update next() throws InterruptedException {
+        while (true) {
+            final long now = System.currentTimeMillis();
+            long wait = Long.MAX_VALUE;
+            Update due = null;
+            for (Update update : outbox.values()) {
+                if (update.notBefore <= now) {
+                    due = update;
+                    break;
+                }
+                wait = Math.min(wait, update.notBefore - now);
+            }
+            if (due != null) {
+                final long throttle = client.throttleMillis();
+                if (throttle <= 0) return due;
+                logger.info("Github rate limit nearly used up, waiting {} ms", throttle);
+                wait = throttle;
+            }
+            if (wait == Long.MAX_VALUE) outbox.wait();
+            else outbox.wait(wait);
+        }
+    }
+
+    /**
+     * Puts an update that couldn't be delivered back into the outbox, to be sent again after the time the client asked
+     * for. Once the client gave up on it, the retries start over after a delay that doubles every time. If a newer
+     * state for the same commit arrived while it was being sent, only the newer state is kept and completes the
+     * futures of both. Must be called while holding the lock of the outbox.
+     *
+     * @param update      the update that couldn't be delivered
+     * @param retryMillis the time to wait before the next attempt, or {@code -1} if the client gave up
+     */
+    private void retry(@NotNull final Update update, final long retryMillis) {
+        final Update newer = outbox.get(update.key());
+        if (newer != null) {
+            newer.futures.addAll(update.futures);
+            logger.info("Dropped failed status update for {}, a newer state is waiting", update.path);
+            return;
+        }
+
+        final long delay;
+        if (retryMillis >= 0) {
+            delay = retryMillis;
+            update.attempts++;
+        } else {
+            delay = Math.min(this.retryMillis << Math.min(update.failures, 16), MAX_RETRY_MILLIS);
+            update.failures++;
+            update.attempts = 0;
+            logger.warn("Failed to deliver status update for {}, retrying in {} ms", update.path, delay);
+        }
+        update.notBefore = System.currentTimeMillis() + delay;
+        outbox.put(update.key(), update);
+    }
+
+    /**
+     * Waits until the token bucket holds a token and takes it. The bucket is refilled at a steady rate and holds at
+     * most {@code burst} tokens.
+     *
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    private void acquireToken() throws InterruptedException {
+        while (true) {
+            final long now = System.currentTimeMillis();
+            tokens = Math.min(burst, tokens + (double) (now - lastRefill) / millisPerToken);
+            lastRefill = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return;
+            }
+            Thread.sleep((long) Math.ceil((1 - tokens) * millisPerToken));
+        }
+    }
+
+    /**
+     * Reads the updates that were still in the outbox when the server stopped.
+     */
+    private void load() {
+        if (!outboxFile.exists()) return;
+
+        try {
+            final JSONArray updates = new JSONArray(FileUtils.readFileToString(outboxFile, StandardCharsets.UTF_8));
+            for (int i = 0; i < updates.length(); i++) {
+                final JSONObject stored = updates.getJSONObject(i);
+                final Update update = new Update(stored.getString("path"), stored.getJSONObject("body"));
+                outbox.put(update.key(), update);
+            }
+            if (!outbox.isEmpty()) logger.info("Loaded {} undelivered status updates", outbox.size());
+        } catch (IOException | JSONException e) {
+            logger.error("Failed to read the status outbox: {}", outboxFile.getPath(), e);
+        }
+    }
+
+    /**
+     * Writes the updates in the outbox to disk, including the one being sent, replacing the file in one step. Must be
+     * called while holding the lock of the outbox.
+     */
+    private void save() {
+        final JSONArray updates = new JSONArray();
+        for (Update update : inFlight.values()) {
+            updates.put(new JSONObject().put("path", update.path).put("body", update.body));
+        }
+        for (Update update : outbox.values()) {
+            updates.put(new JSONObject().put("path", update.path).put("body", update.body));
+        }
+
+        final File temporary = new File(outboxFile.getPath() + ".tmp");
+        try {
+            FileUtils.writeStringToFile(temporary, updates.toString(), StandardCharsets.UTF_8);
+            Files.move(temporary.toPath(), outboxFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Failed to write the status outbox: {}", outboxFile.getPath(), e);
+        }
+    }
+
+    /**
+     * Helper class for a status update waiting in the outbox.
+     */
+    private static class Update {
+        private final String path;
+        private final JSONObject body;
+        private final List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        private int attempts;
+        private int failures;
+        private long notBefore;
+
+        Update(final String path, final JSONObject body) {
+            this.path = path;
+            this.body = body;
+            this.futures.add(new CompletableFuture<>());
+        }
+
+        /**
+         * Generates the key used to collapse updates, the commit and the context of the status.
+         *
+         * @return The key as a {@code String}
+         */
+        String key() {
+            return path + "#" + body.optString("context");
+        }
+    }
+}
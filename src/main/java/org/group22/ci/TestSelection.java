@@ -0,0 +1,139 @@
+package org.group22.ci;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+public class TestSelection {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(TestSelection.class);
+    public static final TestSelection FULL = new TestSelection(Collections.emptySet(), Collections.emptySet());
+    private static final String TEST_SOURCES = "src/test/java/";
+    // The test classes Surefire runs by default
+    private static final Pattern SUREFIRE_TEST = Pattern.compile("(Test[^/]*|[^/]*(Test|Tests|TestCase))\\.java");
+    private final Set<String> modules;
+    private final Set<String> tests;
+
+    /**
+     * Creates a {@code TestSelection}. Empty sets select every module and every test.
+     *
+     * @param modules the paths of the modules to build, relative to the Maven project
+     * @param tests   the fully qualified names of the test classes to run
+     */
+    TestSelection(@NotNull final Set<String> modules, @NotNull final Set<String> tests) {
+        this.modules = modules;
+        this.tests = tests;
+    }
+
+    /**
+     * Works out which modules and tests of a Maven project are affected by the files changed in a push. A change to a
+     * main source file selects its module and every module depending on it. If only test classes changed, only those
+     * classes that still exist are run. Every module and test is selected when the changes are unknown, a build file
+     * such as a {@code pom.xml} or a file in {@code .mvn} changed, a file outside the modules changed, or nothing would
+     * be left to run, e.g. when the push only deleted test classes.
+     *
+     * @param baseDir          the directory of the checked out Maven project
+     * @param projectDirectory the path of the Maven project in the repository, {@code ""} for the repository root
+     * @param changedFiles     the paths of the changed files relative to the repository, or {@code null} if unknown
+     * @return the {@code TestSelection}
+     */
+    @NotNull
+    public static TestSelection select(@NotNull final File baseDir, @NotNull final String projectDirectory,
+                                       @Nullable final Collection<String> changedFiles) {
+        if (changedFiles == null) return FULL;
+
+        final String prefix = projectDirectory.isEmpty() || projectDirectory.endsWith("/") ? projectDirectory : projectDirectory + "/";
+        final Set<String> files = new HashSet<>();
+        for (String file : changedFiles) {
+            if (file.endsWith(".md")) continue;
+            // Files outside the Maven project can still be used by the build, e.g. through SPARSE_CHECKOUT_PATHS
+            if (!file.startsWith(prefix)) return FULL;
+            final String path = file.substring(prefix.length());
+            if (path.equals("pom.xml") || path.endsWith("/pom.xml") || path.startsWith(".mvn/")) return FULL;
+            files.add(path);
+        }
+        if (files.isEmpty()) return FULL;
+
+        final ModuleGraph graph;
+        try {
+            graph = ModuleGraph.load(baseDir);
+        } catch (IOException e) {
+            logger.warn("Could not read the modules of {}, running every test", baseDir.getPath(), e);
+            return FULL;
+        }
+
+        final Set<String> changedModules = new HashSet<>();
+        final Set<String> tests = new TreeSet<>();
+        boolean onlyTests = true;
+        for (String file : files) {
+            final String module = graph.moduleOf(file);
+            // Files of the root of a multi-module project, e.g. scripts or resources, aren't part of any module
+            if (module.isEmpty() && graph.getModules().size() > 1) return FULL;
+            changedModules.add(module);
+
+            final String path = module.isEmpty() ? file : file.substring(module.length() + 1);
+            if (path.startsWith(TEST_SOURCES) && SUREFIRE_TEST.matcher(path.substring(path.lastIndexOf('/') + 1)).matches()) {
+                // A deleted test class can't be run, and selecting it would make Surefire run nothing at all
+                if (new File(baseDir, file).isFile()) {
+                    tests.add(path.substring(TEST_SOURCES.length(), path.length() - ".java".length()).replace('/', '.'));
+                }
+            } else {
+                onlyTests = false;
+            }
+        }
+        if (onlyTests && tests.isEmpty()) return FULL;
+
+        final Set<String> modules = graph.getModules().size() > 1
+                ? new TreeSet<>(onlyTests ? changedModules : graph.withDependents(changedModules))
+                : Collections.emptySet();
+        return new TestSelection(modules, onlyTests ? tests : Collections.emptySet());
+    }
+
+    /**
+     * Checks if every module and every test is selected.
+     *
+     * @return {@code true} if the whole project is tested
+     */
+    public boolean isFull() {
+        return modules.isEmpty() && tests.isEmpty();
+    }
+
+    /**
+     * Getter function for the {@code modules} field.
+     *
+     * @return The paths of the modules to build, or an empty set for every module
+     */
+    @NotNull
+    public Set<String> getModules() {
+        return modules;
+    }
+
+    /**
+     * Getter function for the {@code tests} field.
+     *
+     * @return The fully qualified names of the test classes to run, or an empty set for every test
+     */
+    @NotNull
+    public Set<String> getTests() {
+        return tests;
+    }
+
+    /**
+     * Describes the selection for the build log.
+     *
+     * @return The selected modules and tests as a {@code String}
+     */
+    @Override
+    public String toString() {
+        if (isFull()) return "all modules and tests";
+        return "modules: " + (modules.isEmpty() ? "all" : String.join(",", modules))
+                + ", tests: " + (tests.isEmpty() ? "all" : String.join(",", tests));
+    }
+}
@@ -0,0 +1,255 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.group22.utilities.Configuration;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+public class WorkspaceManager {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(WorkspaceManager.class);
+    private static final WorkspaceManager INSTANCE = createInstance();
+    private static final String TRASH = ".ci-trash";
+    private static final String MARKER = ".ci-workspace";
+    private static final Pattern BUILD_ID = Pattern.compile("^[A-Za-z0-9]+_\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2}$");
+    private final File root;
+    private final File trash;
+    private final long quotaBytes;
+    private final Set<String> active = ConcurrentHashMap.newKeySet();
+    private final AtomicLong reaped = new AtomicLong();
+    private final AtomicLong releaseCounter = new AtomicLong();
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "workspace-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile long usedBytes = 0;
+
+    /**
+     * Creates a {@code WorkspaceManager} that keeps the workspaces of the builds in {@code root}. Released workspaces
+     * are moved into a trash folder in {@code root} and deleted in the background.
+     *
+     * @param root       the folder the workspaces are created in, e.g. on a {@code tmpfs} for RAM-backed builds
+     * @param quotaBytes the disk space the workspaces should stay below, {@code 0} for no quota
+     */
+    public WorkspaceManager(@NotNull final File root, final long quotaBytes) {
+        this.root = root;
+        this.trash = new File(root, TRASH);
+        this.quotaBytes = quotaBytes;
+    }
+
+    /**
+     * Creates the manager shared by the whole server and starts its quota watchdog.
+     *
+     * @return the shared {@code WorkspaceManager}
+     */
+    private static WorkspaceManager createInstance() {
+        final WorkspaceManager manager = new WorkspaceManager(new File(Configuration.PATH_TO_GIT), Configuration.WORKSPACE_QUOTA_MB * 1024L * 1024L);
+        manager.start(Configuration.WORKSPACE_WATCHDOG_SECONDS);
+        return manager;
+    }
+
+    /**
+     * Returns the manager shared by the whole server.
+     *
+     * @return the shared {@code WorkspaceManager}
+     */
+    public static WorkspaceManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts the watchdog that measures the disk space used by the workspaces every {@code intervalSeconds} and
+     * empties the trash right away when the quota is exceeded.
+     *
+     * @param intervalSeconds the time between two measurements
+     */
+    public void start(final int intervalSeconds) {
+        if (intervalSeconds <= 0) return;
+        reaper.scheduleWithFixedDelay(this::checkQuota, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates the workspace of a build, with a marker file that tells {@code reclaimOrphans} the folder belongs to the
+     * manager. If the workspaces used more than the quota at the last measurement, the trash is emptied first so the
+     * build has room for its checkout.
+     *
+     * @param id the id of the build
+     * @return the folder of the workspace
+     */
+    @NotNull
+    public File allocate(@NotNull final String id) {
+        if (quotaBytes > 0 && usedBytes > quotaBytes) {
+            logger.warn("Workspaces use {} MB of the {} MB quota, emptying the trash before build {}",
+                    usedBytes / (1024 * 1024), quotaBytes / (1024 * 1024), id);
+            reap();
+            usedBytes = measure();
+        }
+
+        final File workspace = new File(root, id);
+        if (!workspace.isDirectory() && !workspace.mkdirs()) logger.error("Failed to create the workspace of build {}", id);
+        try {
+            FileUtils.touch(new File(workspace, MARKER));
+        } catch (IOException e) {
+            logger.error("Failed to mark the workspace of build {}, it isn't reclaimed if the build doesn't finish", id, e);
+        }
+        active.add(id);
+        return workspace;
+    }
+
+    /**
+     * Releases the workspace of a build. The folder is renamed into the trash, which is quick no matter how large the
+     * checkout is, and deleted by the reaper in the background. If it can't be renamed it is deleted right away.
+     *
+     * @param id the id of the build
+     */
+    public void release(@NotNull final String id) {
+        active.remove(id);
+        final File workspace = new File(root, id);
+        if (!workspace.exists()) return;
+
+        if (moveToTrash(workspace)) {
+            reaper.execute(this::reap);
+            return;
+        }
+        try {
+            FileUtils.deleteDirectory(workspace);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Failed to delete the directory: {}", id, e);
+        }
+    }
+
+    /**
+     * Moves the workspaces left behind by builds that didn't finish, e.g. because the server crashed, into the trash.
+     * Only folders named like a build id that hold the marker written by {@code allocate} are reclaimed, so other files
+     * in a shared root such as {@code /tmp} or {@code /dev/shm} are left alone. Must be called on startup, before any
+     * build is started.
+     *
+     * @return the number of workspaces reclaimed
+     */
+    public int reclaimOrphans() {
+        final File[] workspaces = root.listFiles();
+        int reclaimed = 0;
+        if (workspaces != null) {
+            for (File workspace : workspaces) {
+                if (!isWorkspace(workspace) || active.contains(workspace.getName())) continue;
+                if (moveToTrash(workspace)) reclaimed++;
+            }
+        }
+        if (reclaimed > 0) logger.info("Reclaimed {} orphaned workspaces in {}", reclaimed, root.getPath());
+        reaper.execute(this::reap);
+        return reclaimed;
+    }
+
+    /**
+     * Checks if a folder in the root is a workspace created by {@code allocate}.
+     *
+     * @param file the file or folder in the root
+     * @return {@code true} if the folder is named like a build id and holds the workspace marker
+     */
+    private static boolean isWorkspace(@NotNull final File file) {
+        return BUILD_ID.matcher(file.getName()).matches() && new File(file, MARKER).isFile();
+    }
+
+    /**
+     * Renames a workspace into the trash. The trash is in the same folder as the workspaces, so the rename never copies
+     * any files.
+     *
+     * @param workspace the folder of the workspace
+     * @return {@code true} if the workspace was moved
+     */
+    private boolean moveToTrash(@NotNull final File workspace) {
+        if (!trash.isDirectory() && !trash.mkdirs()) return false;
+        final File target = new File(trash, workspace.getName() + "-" + releaseCounter.incrementAndGet());
+        return workspace.renameTo(target);
+    }
+
+    /**
+     * Deletes everything in the trash.
+     */
+    private synchronized void reap() {
+        final File[] released = trash.listFiles();
+        if (released == null) return;
+        for (File workspace : released) {
+            try {
+                FileUtils.forceDelete(workspace);
+                reaped.incrementAndGet();
+            } catch (IOException e) {
+                logger.error("Failed to delete the released workspace: {}", workspace.getPath(), e);
+            }
+        }
+    }
+
+    /**
+     * Measures the disk space used by the workspaces and empties the trash if the quota is exceeded.
+     */
+    private void checkQuota() {
+        try {
+            usedBytes = measure();
+            if (quotaBytes > 0 && usedBytes > quotaBytes) {
+                logger.warn("Workspaces use {} MB, more than the quota of {} MB", usedBytes / (1024 * 1024), quotaBytes / (1024 * 1024));
+                reap();
+                usedBytes = measure();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Unexpected error while checking the workspace quota", e);
+        }
+    }
+
+    /**
+     * Adds up the size of every file in the workspaces, including the trash. Other files in the root are left out, and
+     * files deleted while measuring are skipped.
+     *
+     * @return the used disk space in bytes
+     */
+    private long measure() {
+        final AtomicLong size = new AtomicLong();
+        final File[] files = root.listFiles(file -> TRASH.equals(file.getName()) || isWorkspace(file));
+        if (files == null) return 0;
+        for (File file : files) {
+            try {
+                Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(final Path path, final BasicFileAttributes attributes) {
+                        size.addAndGet(attributes.size());
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(final Path path, final IOException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                logger.warn("Failed to measure the size of the workspace {}", file.getPath(), e);
+            }
+        }
+        return size.get();
+    }
+
+    /**
+     * Generates a plain text summary of the workspace metrics, one metric per line.
+     *
+     * @return The metrics as a {@code String}
+     */
+    @NotNull
+    public String metrics() {
+        return "workspace_active " + active.size() + "\n" +
+                "workspace_used_bytes " + usedBytes + "\n" +
+                "workspace_quota_bytes " + quotaBytes + "\n" +
+                "workspace_reaped_total " + reaped.get() + "\n";
+    }
+}
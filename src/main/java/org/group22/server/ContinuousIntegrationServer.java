@@ -1,22 +1,47 @@
 package org.group22.server;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.group22.ci.BuildCoordinator;
+import org.group22.ci.BuildJournal;
+import org.group22.ci.BuildLog;
+import org.group22.ci.BuildRegistry;
+import org.group22.ci.BuildScheduler;
 import org.group22.ci.ProjectTester;
+import org.group22.ci.PushEvent;
+import org.group22.ci.WorkspaceManager;
 import org.group22.utilities.Configuration;
 import org.group22.utilities.Helpers;
 import org.jetbrains.annotations.NotNull;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ContinuousIntegrationServer extends AbstractHandler {
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ContinuousIntegrationServer.class);
+    private static final long LOG_POLL_MILLIS = 10000;
+    private final AtomicInteger logViewers = new AtomicInteger();
+    private static final int MAX_INDEX_PAGE_SIZE = 500;
+    private final IndexPageCache indexPageCache = new IndexPageCache(BuildRegistry.getInstance());
+    private final WebhookSignature webhookSignature = new WebhookSignature(Configuration.WEBHOOK_SECRET);
+    private final DeliveryCache deliveries = new DeliveryCache(Configuration.DELIVERY_CACHE_SIZE,
+            Configuration.DELIVERY_CACHE_TTL_MINUTES * 60L * 1000L);
+    private BuildScheduler buildScheduler;
+    private BuildCoordinator coordinator;
 
     /**
      * Sets up and starts the CI server.
@@ -26,8 +51,24 @@ public class ContinuousIntegrationServer extends AbstractHandler {
      */
     public void runServer(String[] args) throws Exception {
         Helpers.setUpConfiguration(args);
+        if (!webhookSignature.isEnabled()) logger.warn("WEBHOOK_SECRET is not set, webhook signatures are not checked");
+        WorkspaceManager.getInstance().reclaimOrphans();
+        if ("coordinator".equals(Configuration.CI_MODE)) {
+            // The builds are run by the agents, so the scheduler only keeps the queue
+            buildScheduler = new BuildScheduler(0, Configuration.BUILD_QUEUE_CAPACITY, Configuration.CANCEL_SUPERSEDED_BUILDS);
+            coordinator = new BuildCoordinator(buildScheduler, BuildJournal.getInstance(), Configuration.AGENT_LEASE_SECONDS * 1000L,
+                    Configuration.AFFINITY_WAIT_SECONDS * 1000L);
+            coordinator.start();
+            if (Configuration.AGENT_TOKEN == null) logger.warn("AGENT_TOKEN is not set, any client can take builds from the coordinator");
+        } else {
+            buildScheduler = new BuildScheduler(Configuration.BUILD_WORKERS, Configuration.BUILD_QUEUE_CAPACITY,
+                    Configuration.CANCEL_SUPERSEDED_BUILDS);
+        }
+        buildScheduler.start();
+        final int requeued = BuildJournal.getInstance().recover(buildScheduler);
+        if (requeued > 0) logger.info("Queued {} builds again that didn't finish before the restart", requeued);
         Server server = new Server(Configuration.SERVER_PORT);
-        server.setHandler(new ContinuousIntegrationServer());
+        server.setHandler(this);
         server.start();
         server.join();
     }
@@ -49,6 +90,8 @@ public class ContinuousIntegrationServer extends AbstractHandler {
 
             if ("GET".equalsIgnoreCase(request.getMethod())) {
                 handleGetRequest(request, response, target);
+            } else if ("POST".equalsIgnoreCase(request.getMethod()) && target.startsWith("/agent/")) {
+                handleAgentRequest(request, response, target);
             } else if ("POST".equalsIgnoreCase(request.getMethod())) {
                 handlePostRequest(request, response);
             }
@@ -70,21 +113,34 @@ public class ContinuousIntegrationServer extends AbstractHandler {
      */
     private void handleGetRequest(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response, @NotNull final String target) throws IOException {
         try {
+            if ("/metrics".equals(target)) {
+                response.setContentType("text/plain;charset=utf-8");
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.getWriter().print(buildScheduler.metrics() + WorkspaceManager.getInstance().metrics()
+                        + BuildJournal.getInstance().metrics() + (coordinator == null ? "" : coordinator.metrics()));
+                response.getWriter().flush();
+                return;
+            }
+
+            if (target.matches("/builds/[a-z0-9_-]+/log")) {
+                streamBuildLog(request, response, target.replaceAll("^/builds/|/log$", ""));
+                return;
+            }
+
             if (target.matches("/reports/[a-z0-9_-]+")) {
                 final String reportId = request.getRequestURI().replace("/reports/", "");
-                if (Configuration.PREVIOUS_BUILDS.contains(reportId)) {
+                if (BuildRegistry.getInstance().contains(reportId)) {
                     final String reportURL = Helpers.reportAddressHTML(reportId);
                     response.sendRedirect(reportURL);
                     logger.info("Served build report for build with id: {}", reportId);
+                    return;
                 } else {
                     logger.warn("URL for non-existing report was requested, id: {}", reportId);
                 }
             } else {
                 logger.warn("GET request with no matching target was received, target: {}", target);
             }
-            response.setStatus(HttpServletResponse.SC_OK);
-            response.getWriter().println(Helpers.generateIndex());
-            response.getWriter().flush();
+            serveIndex(request, response);
         } catch (IOException e) {
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Something went wrong while handling GET request");
             logger.error("Server failed to write response to GET request", e);
@@ -92,30 +148,249 @@ public class ContinuousIntegrationServer extends AbstractHandler {
     }
 
     /**
-     * Handles {@code POST} requests that are sent to the server. Starts the CI process for the repository specified by
-     * the request.
+     * Sends a page of the index of build reports. The page can be filtered with the {@code repository} and
+     * {@code branch} query parameters and paged with {@code cursor} and {@code limit}. Pages are served from the
+     * {@code IndexPageCache}, compressed with gzip if the client accepts it, and answered with
+     * {@code 304 Not Modified} if the client already has the current version.
+     *
+     * @param request  The request
+     * @param response The response
+     * @throws IOException If something goes wrong while sending the response
+     */
+    private void serveIndex(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws IOException {
+        int limit = Configuration.INDEX_PAGE_SIZE;
+        try {
+            if (request.getParameter("limit") != null) limit = Integer.parseInt(request.getParameter("limit"));
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid page size in index request: {}", request.getParameter("limit"));
+        }
+        limit = Math.max(1, Math.min(limit, MAX_INDEX_PAGE_SIZE));
+
+        indexPageCache.get(request.getParameter("repository"), request.getParameter("branch"), request.getParameter("cursor"), limit)
+                .write(request, response);
+    }
+
+    /**
+     * Streams the output of a running build to the client as it is written, using chunked transfer encoding. The
+     * client may resume from a byte offset with the {@code offset} query parameter, the offset of the first byte sent
+     * is returned in the {@code X-Log-Offset} header. Output that has already left the ring buffer of the
+     * {@code BuildLog} is skipped, so a slow client never holds up the build. The stream ends when the build is
+     * finished.
+     *
+     * @param request  The request
+     * @param response The response
+     * @param id       The id of the build
+     * @throws IOException If something goes wrong while sending the response
+     */
+    private void streamBuildLog(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response, @NotNull final String id) throws IOException {
+        final BuildLog log = BuildLog.get(id);
+        if (log == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "There is no live log for build: " + id);
+            return;
+        }
+
+        long offset;
+        try {
+            offset = request.getParameter("offset") == null ? 0 : Long.parseLong(request.getParameter("offset"));
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The offset must be a number");
+            return;
+        }
+
+        if (logViewers.incrementAndGet() > Configuration.MAX_LOG_VIEWERS) {
+            logViewers.decrementAndGet();
+            response.setHeader("Retry-After", "10");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many clients are following build logs");
+            return;
+        }
+
+        try {
+            final byte[] buffer = new byte[8192];
+            BuildLog.Chunk chunk = log.read(offset, buffer, LOG_POLL_MILLIS);
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("text/plain;charset=utf-8");
+            response.setHeader("Cache-Control", "no-cache");
+            response.setHeader("X-Log-Offset", String.valueOf(chunk.getOffset()));
+            final OutputStream out = response.getOutputStream();
+            offset = chunk.getOffset();
+
+            while (true) {
+                if (chunk.getOffset() > offset) {
+                    out.write(("\n[CI] Skipped " + (chunk.getOffset() - offset) + " bytes of output\n").getBytes(StandardCharsets.UTF_8));
+                }
+                out.write(buffer, 0, chunk.getLength());
+                out.flush();
+                offset = chunk.getOffset() + chunk.getLength();
+                if (chunk.isEnd()) break;
+                chunk = log.read(offset, buffer, LOG_POLL_MILLIS);
+            }
+            logger.info("Finished streaming the log of build: {}", id);
+        } catch (IOException e) {
+            logger.info("Client stopped following the log of build: {}", id);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            logViewers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Handles {@code POST} requests that are sent to the server. Queues the CI process for the repository specified by
+     * the request and responds with the build id right away, without waiting for the build to run. If the build queue
+     * is full the request is rejected with {@code 429 Too Many Requests}. If a webhook secret is set, deliveries without
+     * a valid signature are rejected with {@code 401 Unauthorized}, and deliveries that were already handled are
+     * answered without starting another build.
      *
      * @param request  The request
      * @param response The response
      * @throws IOException If something goes wrong while parsing the request or sending the response
      */
     private void handlePostRequest(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response) throws IOException {
-        String payload = IOUtils.toString(request.getReader());
+        // Only pushes are built, so other events are answered before their body is read
+        final String event = request.getHeader("X-GitHub-Event");
+        if ("ping".equals(event)) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().println("pong");
+            return;
+        }
+        if (event != null && !"push".equals(event)) {
+            logger.info("Ignored {} event", event);
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Only push events are built");
+            return;
+        }
+        final String deliveryId = request.getHeader("X-GitHub-Delivery");
+        if (deliveryId != null && deliveries.contains(deliveryId)) {
+            answerDuplicate(response, deliveryId);
+            return;
+        }
+        final long maxBytes = Configuration.MAX_WEBHOOK_BODY_KB * 1024L;
+        if (request.getContentLengthLong() > maxBytes) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "The payload is larger than " + maxBytes + " bytes");
+            return;
+        }
+
         try {
-            JSONObject jsonObject = new JSONObject(payload);
-            if (Helpers.isPushEvent(jsonObject)) {
-                ProjectTester projectTester = new ProjectTester(jsonObject);
-                projectTester.processPush();
-                response.setStatus(HttpServletResponse.SC_OK);
-                response.getWriter().println("CI job running");
-                logger.info("Successfully handled POST request");
+            // The signature is computed over the raw bytes while they are parsed, so the body is read only once
+            final WebhookSignature.SignedInputStream signedBody = webhookSignature.isEnabled()
+                    ? webhookSignature.wrap(request.getInputStream()) : null;
+            final PushEvent pushEvent = PushEvent.parse(signedBody != null ? signedBody : request.getInputStream(), maxBytes);
+            if (signedBody != null && !signedBody.verify(request.getHeader("X-Hub-Signature-256"))) {
+                logger.warn("Rejected delivery {} with an invalid signature", deliveryId);
+                response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "The signature of the payload is not valid");
+                return;
+            }
+            if (pushEvent != null) {
+                if (deliveryId != null && !deliveries.add(deliveryId)) {
+                    answerDuplicate(response, deliveryId);
+                    return;
+                }
+                ProjectTester projectTester = new ProjectTester(pushEvent);
+                // The build is on disk before it is acknowledged, so a crash after the response doesn't lose it
+                if (!BuildJournal.getInstance().received(projectTester.toJournal())) {
+                    // Part of the event may still have reached the disk, so the redelivery isn't built twice after a crash
+                    BuildJournal.getInstance().finished(projectTester.getId());
+                    if (deliveryId != null) deliveries.remove(deliveryId);
+                    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The build couldn't be recorded, try again later");
+                    return;
+                }
+                if (coordinator != null ? coordinator.submit(projectTester) : buildScheduler.submit(projectTester)) {
+                    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+                    response.getWriter().println("CI job queued, build id: " + projectTester.getId());
+                    logger.info("Successfully handled POST request");
+                } else {
+                    BuildJournal.getInstance().finished(projectTester.getId());
+                    if (deliveryId != null) deliveries.remove(deliveryId);
+                    response.setHeader("Retry-After", "60");
+                    response.sendError(HttpStatus.TOO_MANY_REQUESTS_429, "The build queue is full, try again later");
+                }
             } else {
                 logger.info("Received POST request with invalid JSON object");
                 response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Post request most contain a head commit");
             }
-        } catch (JSONException e) {
-            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Something went wrong while handling POST request");
+        } catch (PushEvent.PayloadTooLargeException e) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, e.getMessage());
+        } catch (JsonProcessingException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The payload is not valid JSON");
             logger.error("Server failed while parsing received payload", e);
         }
     }
+
+    /**
+     * Answers a delivery that was already handled, so Github stops redelivering it without a second build being started.
+     *
+     * @param response   The response
+     * @param deliveryId The value of the {@code X-GitHub-Delivery} header
+     * @throws IOException If something goes wrong while sending the response
+     */
+    private void answerDuplicate(@NotNull HttpServletResponse response, @NotNull final String deliveryId) throws IOException {
+        logger.info("Ignored duplicate delivery {}", deliveryId);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().println("Duplicate delivery, already handled");
+    }
+
+    /**
+     * Handles the requests of the build agents when the server runs as the coordinator of a build farm. Agents ask for
+     * builds with a long poll on {@code /agent/poll}, renew the leases of their running builds on
+     * {@code /agent/heartbeat} and report finished builds on {@code /agent/complete}. If {@code AGENT_TOKEN} is set,
+     * agents have to send it as a bearer token.
+     *
+     * @param request  The request
+     * @param response The response
+     * @param target   The target
+     * @throws IOException If something goes wrong while parsing the request or sending the response
+     */
+    private void handleAgentRequest(@NotNull HttpServletRequest request, @NotNull HttpServletResponse response, @NotNull final String target) throws IOException {
+        if (coordinator == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "The server doesn't run as a coordinator");
+            return;
+        }
+        if (Configuration.AGENT_TOKEN != null) {
+            final String authorization = request.getHeader("Authorization");
+            final byte[] expected = ("Bearer " + Configuration.AGENT_TOKEN).getBytes(StandardCharsets.UTF_8);
+            if (authorization == null || !MessageDigest.isEqual(expected, authorization.getBytes(StandardCharsets.UTF_8))) {
+                response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "The agent token is not valid");
+                return;
+            }
+        }
+        final String agentId = request.getParameter("agent");
+        if (agentId == null || agentId.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The agent id is missing");
+            return;
+        }
+
+        response.setContentType("application/json;charset=utf-8");
+        try {
+            final JSONObject answer;
+            if ("/agent/poll".equals(target)) {
+                final int slots = request.getParameter("slots") == null ? 1 : Integer.parseInt(request.getParameter("slots"));
+                final long wait = request.getParameter("wait") == null ? 20000 : Long.parseLong(request.getParameter("wait"));
+                final BuildJournal.Build build = coordinator.poll(agentId, slots, wait);
+                if (build == null) {
+                    response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+                    return;
+                }
+                answer = build.toJSON();
+            } else if ("/agent/heartbeat".equals(target)) {
+                final JSONArray running = new JSONObject(IOUtils.toString(request.getReader())).optJSONArray("running");
+                final List<String> buildIds = new ArrayList<>();
+                for (int i = 0; running != null && i < running.length(); i++) buildIds.add(running.getString(i));
+                final BuildCoordinator.HeartbeatReply reply = coordinator.heartbeat(agentId, buildIds);
+                answer = new JSONObject().put("cancel", new JSONArray(reply.getCancel())).put("abort", new JSONArray(reply.getAbort()));
+            } else if ("/agent/complete".equals(target) && request.getParameter("build") != null) {
+                final JSONObject report = new JSONObject(IOUtils.toString(request.getReader()));
+                answer = new JSONObject().put("accepted", coordinator.complete(agentId, request.getParameter("build"), report));
+            } else {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown agent request: " + target);
+                return;
+            }
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().print(answer);
+        } catch (JSONException | NumberFormatException e) {
+            logger.warn("Received invalid request from agent {}: {}", agentId, target, e);
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The request is not valid");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The coordinator is shutting down");
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+package org.group22.server;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DeliveryCache {
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Long> deliveries = new LinkedHashMap<>();
+
+    /**
+     * Creates a {@code DeliveryCache} that remembers at most {@code maxEntries} delivery ids for {@code ttlMillis}
+     * each. When the cache is full the oldest id is forgotten first.
+     *
+     * @param maxEntries the largest number of ids kept
+     * @param ttlMillis  the time an id is kept
+     */
+    public DeliveryCache(final int maxEntries, final long ttlMillis) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Checks if a delivery was already handled, without remembering it.
+     *
+     * @param deliveryId the value of the {@code X-GitHub-Delivery} header
+     * @return {@code true} if the delivery was handled within the time to live
+     */
+    public synchronized boolean contains(@NotNull final String deliveryId) {
+        expire(System.currentTimeMillis());
+        return deliveries.containsKey(deliveryId);
+    }
+
+    /**
+     * Remembers a delivery, unless it was already handled. Checking and remembering happen at once, so only one of two
+     * deliveries with the same id arriving at the same time is handled.
+     *
+     * @param deliveryId the value of the {@code X-GitHub-Delivery} header
+     * @return {@code true} if the delivery is new, {@code false} if it is a duplicate
+     */
+    public synchronized boolean add(@NotNull final String deliveryId) {
+        final long now = System.currentTimeMillis();
+        expire(now);
+        if (deliveries.containsKey(deliveryId)) return false;
+        deliveries.put(deliveryId, now);
+        if (deliveries.size() > maxEntries) {
+            final Iterator<String> oldest = deliveries.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        return true;
+    }
+
+    /**
+     * Forgets a delivery, so it is handled again if Github redelivers it. Used when a delivery couldn't be handled,
+     * e.g. because the build queue was full.
+     *
+     * @param deliveryId the value of the {@code X-GitHub-Delivery} header
+     */
+    public synchronized void remove(@NotNull final String deliveryId) {
+        deliveries.remove(deliveryId);
+    }
+
+    /**
+     * Forgets the ids older than the time to live. The ids are kept in the order they were added, so only the oldest
+     * ones have to be looked at.
+     *
+     * @param now the current time in milliseconds
+     */
+    private void expire(final long now) {
+        final Iterator<Map.Entry<String, Long>> iterator = deliveries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getValue() < ttlMillis) return;
+            iterator.remove();
+        }
+    }
+}
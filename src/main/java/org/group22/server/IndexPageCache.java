@@ -0,0 +1,218 @@
+package org.group22.server;
+
+import org.group22.ci.BuildRegistry;
+import org.group22.utilities.Helpers;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.zip.GZIPOutputStream;
+
+public class IndexPageCache {
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(IndexPageCache.class);
+    private static final int MAX_PAGES = 256;
+    private final BuildRegistry registry;
+    private final Map<String, Page> pages = new LinkedHashMap<String, Page>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Page> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+
+    /**
+     * Creates an {@code IndexPageCache} for the builds in {@code registry}. A cached page is rendered again only after
+     * the version of the registry has changed, i.e. after a build was added.
+     *
+     * @param registry the registry the index is rendered from
+     */
+    public IndexPageCache(@NotNull final BuildRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Returns a page of the index, rendering it if it isn't cached or the registry has changed since it was rendered.
+     * Builds are listed newest first, starting after the build {@code cursor}.
+     *
+     * @param repository the repository to list builds of, or {@code null} for every repository
+     * @param branch     the branch to list builds of, or {@code null} for every branch; ignored without a repository
+     * @param cursor     the id of the last build on the previous page, or {@code null} for the first page
+     * @param limit      the largest number of builds on the page
+     * @return the {@code Page}
+     */
+    @NotNull
+    public Page get(@Nullable final String repository, @Nullable final String branch, @Nullable final String cursor, final int limit) {
+        final String key = repository + "\n" + branch + "\n" + cursor + "\n" + limit;
+        // The version is read before rendering, so a build added while rendering causes the page to be rendered again
+        final long version = registry.getVersion();
+        synchronized (pages) {
+            final Page page = pages.get(key);
+            if (page != null && page.version == version) return page;
+        }
+
+        final Page page = render(repository, branch, cursor, limit, version);
+        synchronized (pages) {
+            pages.put(key, page);
+        }
+        return page;
+    }
+
+    /**
+     * Renders a page of the index.
+     *
+     * @param repository the repository to list builds of, or {@code null} for every repository
+     * @param branch     the branch to list builds of, or {@code null} for every branch
+     * @param cursor     the id of the last build on the previous page, or {@code null} for the first page
+     * @param limit      the largest number of builds on the page
+     * @param version    the version of the registry the page is rendered from
+     * @return the {@code Page}
+     */
+    @NotNull
+    private Page render(@Nullable final String repository, @Nullable final String branch, @Nullable final String cursor,
+                        final int limit, final long version) {
+        NavigableMap<String, BuildRegistry.BuildRecord> builds = repository == null ? registry.getBuilds()
+                : branch == null ? registry.getBuilds(repository) : registry.getBuilds(repository, branch);
+        if (cursor != null) builds = builds.tailMap(cursor, false);
+
+        final List<String> ids = new ArrayList<>(Math.min(limit, 64));
+        String nextPage = null;
+        for (String id : builds.keySet()) {
+            if (ids.size() == limit) {
+                nextPage = nextPage(repository, branch, ids.get(ids.size() - 1), limit);
+                break;
+            }
+            ids.add(id);
+        }
+
+        final byte[] html = Helpers.generateIndex(ids, nextPage).getBytes(StandardCharsets.UTF_8);
+        return new Page(version, html, gzip(html));
+    }
+
+    /**
+     * Generates the URL of the next page of the index.
+     *
+     * @param repository the repository filter, or {@code null}
+     * @param branch     the branch filter, or {@code null}
+     * @param cursor     the id of the last build on the current page
+     * @param limit      the number of builds on each page
+     * @return the URL of the next page
+     */
+    @NotNull
+    private static String nextPage(@Nullable final String repository, @Nullable final String branch, @NotNull final String cursor, final int limit) {
+        try {
+            final StringBuilder url = new StringBuilder("/reports?cursor=").append(URLEncoder.encode(cursor, "UTF-8"))
+                    .append("&amp;limit=").append(limit);
+            if (repository != null) url.append("&amp;repository=").append(URLEncoder.encode(repository, "UTF-8"));
+            if (repository != null && branch != null) url.append("&amp;branch=").append(URLEncoder.encode(branch, "UTF-8"));
+            return url.toString();
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available", e);
+        }
+    }
+
+    /**
+     * Compresses a rendered page with gzip.
+     *
+     * @param html the rendered page
+     * @return the compressed page, or {@code null} if it couldn't be compressed
+     */
+    @Nullable
+    private static byte[] gzip(@NotNull final byte[] html) {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(html.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(html);
+        } catch (IOException e) {
+            logger.error("Failed to compress the index page", e);
+            return null;
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Helper class for a rendered page of the index.
+     */
+    public static class Page {
+        private final long version;
+        private final byte[] html;
+        private final byte[] gzipped;
+
+        Page(final long version, @NotNull final byte[] html, @Nullable final byte[] gzipped) {
+            this.version = version;
+            this.html = html;
+            this.gzipped = gzipped;
+        }
+
+        /**
+         * Generates the entity tag of the page, which changes every time a build is added to the registry. The
+         * compressed page gets its own tag, since its bytes differ from the uncompressed page.
+         *
+         * @param compressed {@code true} for the tag of the compressed page
+         * @return The entity tag, including the quotes
+         */
+        @NotNull
+        public String getETag(final boolean compressed) {
+            return "\"v" + version + (compressed ? "-gzip\"" : "\"");
+        }
+
+        /**
+         * Sends the page, compressed with gzip if the client accepts it, or answers {@code 304 Not Modified} if the
+         * {@code If-None-Match} header of the request holds the entity tag of the current version.
+         *
+         * @param request  the request for the page
+         * @param response the response the page is written to
+         * @throws IOException If the page couldn't be written
+         */
+        public void write(@NotNull final HttpServletRequest request, @NotNull final HttpServletResponse response) throws IOException {
+            final String acceptEncoding = request.getHeader("Accept-Encoding");
+            final boolean compressed = gzipped != null && acceptEncoding != null && acceptEncoding.contains("gzip");
+            final String eTag = getETag(compressed);
+
+            response.setHeader("ETag", eTag);
+            response.setHeader("Vary", "Accept-Encoding");
+            response.setHeader("Cache-Control", "no-cache");
+            final String ifNoneMatch = request.getHeader("If-None-Match");
+            if (ifNoneMatch != null && (ifNoneMatch.contains(eTag) || "*".equals(ifNoneMatch.trim()))) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            final byte[] body = compressed ? gzipped : html;
+            if (compressed) response.setHeader("Content-Encoding", "gzip");
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType("text/html;charset=utf-8");
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+            response.getOutputStream().flush();
+        }
+
+        /**
+         * Getter function for the {@code html} field.
+         *
+         * @return The page as UTF-8 encoded {@code HTML}
+         */
+        @NotNull
+        public byte[] getHtml() {
+            return html;
+        }
+
+        /**
+         * Getter function for the {@code gzipped} field.
+         *
+         * @return The page compressed with gzip, or {@code null} if it couldn't be compressed
+         */
+        @Nullable
+        public byte[] getGzipped() {
+            return gzipped;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.group22.server;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+public class WebhookSignature {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String PREFIX = "sha256=";
+    private static final int MAX_TRAILING_BYTES = 65536;
+    private final SecretKeySpec key;
+
+    /**
+     * Creates a {@code WebhookSignature} for the secret set on the Github webhook.
+     *
+     * @param secret the webhook secret, or {@code null} if deliveries aren't signed
+     */
+    public WebhookSignature(@Nullable final String secret) {
+        this.key = secret == null || secret.isEmpty() ? null : new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+
+    /**
+     * Checks if deliveries have to be signed, i.e. if a secret is set.
+     *
+     * @return {@code true} if a secret is set
+     */
+    public boolean isEnabled() {
+        return key != null;
+    }
+
+    /**
+     * Wraps the body of a delivery so the signature is computed over the raw bytes while they are read, e.g. by the
+     * JSON parser.
+     *
+     * @param body the body of the webhook request
+     * @return the wrapped body
+     */
+    @NotNull
+    public SignedInputStream wrap(@NotNull final InputStream body) {
+        try {
+            final Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return new SignedInputStream(body, mac);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Helper class for an {@code InputStream} that feeds every byte read into a {@code Mac}.
+     */
+    public static class SignedInputStream extends FilterInputStream {
+        private final Mac mac;
+
+        SignedInputStream(final InputStream in, final Mac mac) {
+            super(in);
+            this.mac = mac;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int value = super.read();
+            if (value >= 0) mac.update((byte) value);
+            return value;
+        }
+
+        @Override
+        public int read(@NotNull final byte[] buffer, final int offset, final int length) throws IOException {
+            final int count = super.read(buffer, offset, length);
+            if (count > 0) mac.update(buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(final long count) throws IOException {
+            final byte[] buffer = new byte[(int) Math.min(count, 8192)];
+            final int read = read(buffer, 0, buffer.length);
+            return Math.max(read, 0);
+        }
+
+        /**
+         * Reads the rest of the body and compares its signature with the {@code X-Hub-Signature-256} header. The
+         * comparison takes the same time no matter where the signatures differ. A body with more than 64 KB after the
+         * part that was parsed is rejected.
+         *
+         * @param header the value of the {@code X-Hub-Signature-256} header, {@code sha256=} followed by the hex digest
+         * @return {@code true} if the signature is valid
+         * @throws IOException If the rest of the body couldn't be read
+         */
+        public boolean verify(@Nullable final String header) throws IOException {
+            // Trailing bytes the parser didn't need, normally whitespace, are part of the signed body as well
+            final byte[] buffer = new byte[8192];
+            int trailing = 0;
+            int count;
+            while ((count = read(buffer, 0, buffer.length)) >= 0) {
+                trailing += count;
+                if (trailing > MAX_TRAILING_BYTES) return false;
+            }
+            final byte[] expected = mac.doFinal();
+            if (header == null || !header.startsWith(PREFIX)) return false;
+            final byte[] actual = decodeHex(header.substring(PREFIX.length()));
+            return actual != null && MessageDigest.isEqual(expected, actual);
+        }
+
+        /**
+         * Decodes a hex {@code String}.
+         *
+         * @param hex the hex {@code String}
+         * @return the bytes, or {@code null} if {@code hex} isn't valid hex
+         */
+        @Nullable
+        private static byte[] decodeHex(@NotNull final String hex) {
+            if (hex.length() % 2 != 0) return null;
+            final byte[] bytes = new byte[hex.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                final int high = Character.digit(hex.charAt(2 * i), 16);
+                final int low = Character.digit(hex.charAt(2 * i + 1), 16);
+                if (high < 0 || low < 0) return null;
+                bytes[i] = (byte) (high << 4 | low);
+            }
+            return bytes;
+        }
+    }
+}
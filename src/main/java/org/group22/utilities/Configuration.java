@@ -1,19 +1,115 @@
 package org.group22.utilities;
 
-import java.util.Set;
-import java.util.HashSet;
+import java.lang.management.ManagementFactory;
 
 public class Configuration {
     public static final String AWS_ACCESS_KEY_ID = System.getenv("AWS_ACCESS_KEY_ID");
     public static final String AWS_SECRET_KEY = System.getenv("AWS_SECRET_KEY");
     public static String S3_BUCKET_REGION;
     public static String BUCKET_NAME;
-    public static Set<String> PREVIOUS_BUILDS = new HashSet<String>();
+    public static final String S3_ENDPOINT = System.getenv("S3_ENDPOINT");
+    public static final int S3_MAX_RETRIES = intFromEnv("S3_MAX_RETRIES", 5);
+    public static final int S3_MULTIPART_THRESHOLD_MB = intFromEnv("S3_MULTIPART_THRESHOLD_MB", 16);
+    public static final int UPLOAD_THREADS = intFromEnv("UPLOAD_THREADS", 4);
     public static final int SERVER_PORT = System.getenv("PORT") == null ? 8080 : Integer.parseInt(System.getenv("PORT"));
+    public static final int MAX_WEBHOOK_BODY_KB = intFromEnv("MAX_WEBHOOK_BODY_KB", 5120);
+    public static final String WEBHOOK_SECRET = System.getenv("WEBHOOK_SECRET");
+    public static final int DELIVERY_CACHE_SIZE = intFromEnv("DELIVERY_CACHE_SIZE", 10000);
+    public static final int DELIVERY_CACHE_TTL_MINUTES = intFromEnv("DELIVERY_CACHE_TTL_MINUTES", 1440);
     public static final String GITHUB_TOKEN = System.getenv("GITHUB_TOKEN");
+    public static final String GITHUB_API_URL = stringFromEnv("GITHUB_API_URL", "https://api.github.com/");
+    public static final int GITHUB_MAX_RETRIES = intFromEnv("GITHUB_MAX_RETRIES", 5);
+    public static final int STATUS_UPDATES_PER_MINUTE = intFromEnv("STATUS_UPDATES_PER_MINUTE", 60);
     public static final String M3_HOME = System.getenv("MAVEN_HOME");
+    public static final String MVND_HOME = System.getenv("MVND_HOME");
+    public static final String MAVEN_EXECUTION_MODE = stringFromEnv("MAVEN_EXECUTION_MODE", "fork");
+    public static final boolean MAVEN_OFFLINE_WHEN_WARM = booleanFromEnv("MAVEN_OFFLINE_WHEN_WARM", false);
     public static final String PATH_TO_RESOURCES = "./";
-    public static final String PATH_TO_GIT = PATH_TO_RESOURCES + "git/";
+    public static final String PATH_TO_GIT = withTrailingSlash(stringFromEnv("WORKSPACE_ROOT", PATH_TO_RESOURCES + "git/"));
+    public static final int WORKSPACE_QUOTA_MB = intFromEnv("WORKSPACE_QUOTA_MB", 0);
+    public static final int WORKSPACE_WATCHDOG_SECONDS = intFromEnv("WORKSPACE_WATCHDOG_SECONDS", 60);
     public static final String PATH_TO_REPORTS = PATH_TO_RESOURCES + "reports/";
     public static final String PATH_TO_REPORTS_HTML = PATH_TO_RESOURCES + "reports_html/";
+    public static final int BUILD_WORKERS = intFromEnv("BUILD_WORKERS", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    public static final int BUILD_QUEUE_CAPACITY = intFromEnv("BUILD_QUEUE_CAPACITY", 50);
+    public static final String CI_MODE = stringFromEnv("CI_MODE", "standalone");
+    public static final String COORDINATOR_URL = stringFromEnv("COORDINATOR_URL", "http://localhost:8080");
+    public static final String AGENT_ID = stringFromEnv("AGENT_ID", ManagementFactory.getRuntimeMXBean().getName());
+    public static final int AGENT_SLOTS = intFromEnv("AGENT_SLOTS", BUILD_WORKERS);
+    public static final String AGENT_TOKEN = System.getenv("AGENT_TOKEN");
+    public static final int AGENT_HEARTBEAT_SECONDS = intFromEnv("AGENT_HEARTBEAT_SECONDS", 10);
+    public static final int AGENT_LEASE_SECONDS = intFromEnv("AGENT_LEASE_SECONDS", 30);
+    public static final int AFFINITY_WAIT_SECONDS = intFromEnv("AFFINITY_WAIT_SECONDS", 10);
+    public static final int BUILD_TIMEOUT_MINUTES = intFromEnv("BUILD_TIMEOUT_MINUTES", 60);
+    public static final double BUILD_CPU_LIMIT = Double.parseDouble(stringFromEnv("BUILD_CPU_LIMIT", "0"));
+    public static final int BUILD_MEMORY_LIMIT_MB = intFromEnv("BUILD_MEMORY_LIMIT_MB", 0);
+    public static final String BUILD_CGROUP = stringFromEnv("BUILD_CGROUP", "/sys/fs/cgroup/ci-builds");
+    public static final String PATH_TO_BUILD_PROFILES = stringFromEnv("BUILD_PROFILES", PATH_TO_RESOURCES + "build-profiles.json");
+    public static final boolean CANCEL_SUPERSEDED_BUILDS = booleanFromEnv("CANCEL_SUPERSEDED_BUILDS", true);
+    public static final String PATH_TO_REPORT_INDEX = PATH_TO_RESOURCES + "report-index.txt";
+    public static final boolean REPORT_INDEX_FULL_SYNC = booleanFromEnv("REPORT_INDEX_FULL_SYNC", false);
+    public static final String PATH_TO_STATUS_OUTBOX = PATH_TO_RESOURCES + "status-outbox.json";
+    public static final String PATH_TO_BUILD_JOURNAL = stringFromEnv("BUILD_JOURNAL", PATH_TO_RESOURCES + "build-journal.log");
+    public static final int JOURNAL_SYNC_MILLIS = intFromEnv("JOURNAL_SYNC_MILLIS", 10);
+    public static final int JOURNAL_COMPACT_KB = intFromEnv("JOURNAL_COMPACT_KB", 1024);
+    public static final String PATH_TO_RESULT_CACHE = PATH_TO_RESOURCES + "result-cache.json";
+    public static final int RESULT_CACHE_TTL_HOURS = intFromEnv("RESULT_CACHE_TTL_HOURS", 24);
+    public static final int RESULT_CACHE_MAX_ENTRIES = intFromEnv("RESULT_CACHE_MAX_ENTRIES", 1000);
+    public static final int INDEX_PAGE_SIZE = intFromEnv("INDEX_PAGE_SIZE", 50);
+    public static final String PATH_TO_MIRRORS = PATH_TO_RESOURCES + "mirrors/";
+    public static final String PATH_TO_M2 = stringFromEnv("MAVEN_LOCAL_REPOSITORY", PATH_TO_RESOURCES + "m2/repository/");
+    public static final String CLONE_STRATEGY = stringFromEnv("CLONE_STRATEGY", "mirror");
+    public static final int MIRROR_CACHE_MAX_MB = intFromEnv("MIRROR_CACHE_MAX_MB", 5120);
+    public static final String MAVEN_PROJECT_DIRECTORY = stringFromEnv("MAVEN_PROJECT_DIRECTORY", "");
+    public static final boolean INCREMENTAL_TESTS = booleanFromEnv("INCREMENTAL_TESTS", true);
+    public static final boolean SPARSE_CHECKOUT = booleanFromEnv("SPARSE_CHECKOUT", false);
+    public static final String SPARSE_CHECKOUT_PATHS = stringFromEnv("SPARSE_CHECKOUT_PATHS", "");
+    public static final int LIVE_LOG_BUFFER_KB = intFromEnv("LIVE_LOG_BUFFER_KB", 1024);
+    public static final int MAX_LOG_VIEWERS = intFromEnv("MAX_LOG_VIEWERS", 50);
+
+    /**
+     * Reads an integer from the environment variable {@code name}.
+     *
+     * @param name         the name of the environment variable
+     * @param defaultValue the value used when the variable is not set
+     * @return the value of the variable, or {@code defaultValue} if it is not set
+     */
+    private static int intFromEnv(final String name, final int defaultValue) {
+        final String value = System.getenv(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Reads a {@code String} from the environment variable {@code name}.
+     *
+     * @param name         the name of the environment variable
+     * @param defaultValue the value used when the variable is not set
+     * @return the value of the variable, or {@code defaultValue} if it is not set
+     */
+    private static String stringFromEnv(final String name, final String defaultValue) {
+        final String value = System.getenv(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Adds a slash to the end of a folder path, so file names can be appended to it.
+     *
+     * @param path the path of the folder
+     * @return the path ending with a slash
+     */
+    private static String withTrailingSlash(final String path) {
+        return path.endsWith("/") ? path : path + "/";
+    }
+
+    /**
+     * Reads a boolean from the environment variable {@code name}.
+     *
+     * @param name         the name of the environment variable
+     * @param defaultValue the value used when the variable is not set
+     * @return {@code true} if the variable is set to "true", or {@code defaultValue} if it is not set
+     */
+    private static boolean booleanFromEnv(final String name, final boolean defaultValue) {
+        final String value = System.getenv(name);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
 }
@@ -2,11 +2,16 @@ package org.group22.utilities;
 
 import org.apache.commons.io.FileUtils;
 import org.group22.ci.AWSFileUploader;
+import org.group22.ci.BuildRegistry;
+import org.group22.ci.MirrorCache;
+import org.group22.ci.WorkspaceManager;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.json.JSONObject;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -107,7 +112,7 @@ public class Helpers {
         Configuration.S3_BUCKET_REGION = args[1];
 
         AWSFileUploader awsFileUploader = new AWSFileUploader();
-        Configuration.PREVIOUS_BUILDS = awsFileUploader.getReports();
+        awsFileUploader.getReports().forEach(BuildRegistry.getInstance()::add);
 
         if (Configuration.AWS_ACCESS_KEY_ID.isEmpty()) {
             throw new MissingResourceException("The AWS access key id is missing", "", "");
@@ -125,27 +130,24 @@ public class Helpers {
     }
 
     /**
-     * Adds a new report id to the {@code PREVIOUS_BUILDS} set.
+     * Adds a new report id to the {@code BuildRegistry}, if it isn't there already.
      *
      * @param newReport the id of the new report
      */
     public static void updatePreviousBuilds(final String newReport) {
-        Configuration.PREVIOUS_BUILDS.add(newReport);
+        BuildRegistry.getInstance().add(newReport);
     }
 
     /**
-     * Deletes the folder in the git directory with the name specified by {@code id}.
+     * Removes the folder in the git directory with the name specified by {@code id}. The folder is gone when the
+     * method returns, but its files are deleted in the background by {@code WorkspaceManager}. The mirrors its
+     * checkouts borrowed objects from can be evicted again.
      *
      * @param id The name of the directory to delete
      */
     public static void cleanUp(final String id) {
-        try {
-            FileUtils.deleteDirectory(new File(Configuration.PATH_TO_GIT + id));
-        } catch (IllegalArgumentException e) {
-            logger.error("The directory {} does not exist or is not a directory", id, e);
-        } catch (IOException e) {
-            logger.error("Failed to delete the directory: {}", id, e);
-        }
+        MirrorCache.getInstance().release(new File(Configuration.PATH_TO_GIT + id));
+        WorkspaceManager.getInstance().release(id);
     }
 
     /**
@@ -160,18 +162,17 @@ public class Helpers {
     @NotNull
     @Contract("_ -> new")
     private static Result parseResultFile(final String fileName) throws ParseException, FileNotFoundException {
-        Scanner textScanner = new Scanner(new File(Configuration.PATH_TO_REPORTS + fileName + ".txt"));
-
-        boolean resultSection = false;
-        while (textScanner.hasNextLine()) {
-            final String line = textScanner.nextLine();
-            if (line.contains("[INFO] Results:")) {
-                resultSection = true;
-            } else if (resultSection && (line.contains("[ERROR] Tests run:") || line.contains("[INFO] Tests run:"))) {
-                return parseLine(line);
+        try (Scanner textScanner = new Scanner(new File(Configuration.PATH_TO_REPORTS + fileName + ".txt"))) {
+            boolean resultSection = false;
+            while (textScanner.hasNextLine()) {
+                final String line = textScanner.nextLine();
+                if (line.contains("[INFO] Results:")) {
+                    resultSection = true;
+                } else if (resultSection && (line.contains("[ERROR] Tests run:") || line.contains("[INFO] Tests run:"))) {
+                    return parseLine(line);
+                }
             }
         }
-        textScanner.close();
         throw new ParseException("Couldn't parse Maven result file", 0);
     }
 
@@ -184,42 +185,43 @@ public class Helpers {
      * @throws IOException If there was an issue reading or writing to file
      */
     public static void txtToHTMLFile(final String fileName) throws IOException, ParseException {
-        final Result result = parseResultFile(fileName);
-        final InputStream inputStream = Helpers.class.getClassLoader().getResourceAsStream("HTML/template.html");
-        final Scanner htmlScanner;
-
-        if (inputStream != null) {
-            htmlScanner = new Scanner(inputStream);
-        } else {
-            throw new IOException("Can't find HTML template");
-        }
-
-        final FileWriter htmlWriter = new FileWriter(Configuration.PATH_TO_REPORTS_HTML + fileName + ".html");
-        final int height = 100 / result.testRun;
-        final Map<String, String> map = substitutionMap(result, height);
-
-        while (htmlScanner.hasNextLine()) {
-            String htmlLine = htmlScanner.nextLine();
-            for (Map.Entry<String, String> entry : map.entrySet()) {
-                if (htmlLine.contains(entry.getKey())) {
-                    htmlLine = htmlLine.replace(entry.getKey(), entry.getValue());
-                }
-            }
+        txtToHTMLFile(fileName, parseResultFile(fileName));
+    }
 
-            htmlWriter.write(htmlLine);
+    /**
+     * Generates a {@code HTML} file based on a {@code Result} that was already parsed from the Maven output. The
+     * generated {@code HTML} file is saved to the system, including the details of the failed tests.
+     *
+     * @param fileName The name of the build report
+     * @param result   The result of the Maven test
+     * @throws IOException If there was an issue reading or writing to file
+     */
+    public static void txtToHTMLFile(final String fileName, @NotNull final Result result) throws IOException {
+        try (Writer htmlWriter = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(Configuration.PATH_TO_REPORTS_HTML + fileName + ".html"), StandardCharsets.UTF_8))) {
+            ReportTemplate.getInstance().render(result, htmlWriter);
         }
-
-        htmlScanner.close();
-        htmlWriter.close();
     }
 
     /**
-     * Generates the index {@code HTML} landing page as a {@code String}.
+     * Generates the index {@code HTML} landing page as a {@code String}, listing every build newest first.
      *
      * @return The {@code HTML} page as a {@code String}
      */
     @NotNull
     public static String generateIndex() {
+        return generateIndex(BuildRegistry.getInstance().getBuilds().keySet(), null);
+    }
+
+    /**
+     * Generates one page of the index {@code HTML} landing page as a {@code String}.
+     *
+     * @param ids      The ids of the builds on the page
+     * @param nextPage The URL of the next page, or {@code null} if this is the last page
+     * @return The {@code HTML} page as a {@code String}
+     */
+    @NotNull
+    public static String generateIndex(@NotNull final Collection<String> ids, @Nullable final String nextPage) {
         StringBuilder stringBuilderList = new StringBuilder();
         stringBuilderList.append("<!DOCTYPE html> <html lang=\"en\">");
         stringBuilderList.append("<head>" + "<meta charset=\"UTF-8\">" + "<title>CI Server</title>" + "</head>");
@@ -227,16 +229,21 @@ public class Helpers {
         stringBuilderList.append("<h1>Index Group 22 - CI Server</h1>");
         stringBuilderList.append("<h2>List of previous builds on the CI server</h2>");
         stringBuilderList.append("<ul>");
-        for (String id : Configuration.PREVIOUS_BUILDS) {
+        for (String id : ids) {
             stringBuilderList.append("<li>");
             stringBuilderList.append("<a href=\"");
-            stringBuilderList.append(reportAddressHTML(id));
+            stringBuilderList.append(ReportTemplate.escape(reportAddressHTML(id)));
             stringBuilderList.append("\">");
-            stringBuilderList.append(id);
+            stringBuilderList.append(ReportTemplate.escape(id));
             stringBuilderList.append("</a>");
             stringBuilderList.append("</li>");
         }
         stringBuilderList.append("</ul>");
+        if (nextPage != null) {
+            stringBuilderList.append("<a href=\"");
+            stringBuilderList.append(nextPage);
+            stringBuilderList.append("\">Older builds</a>");
+        }
         stringBuilderList.append("</body>");
         stringBuilderList.append("</html>");
 
@@ -271,7 +278,8 @@ public class Helpers {
 
     /**
      * Generates a {@code String} containing the URL to the report specified by the {@code id} variable, and in the
-     * folder set by the {@code folder} variable. The URL doesn't congaing the file type of the given report.
+     * folder set by the {@code folder} variable. The URL doesn't congaing the file type of the given report. When
+     * {@code S3_ENDPOINT} is set the URL points at that endpoint with path-style addressing.
      *
      * @param id     The id of the report
      * @param folder The folder the report is in
@@ -280,6 +288,9 @@ public class Helpers {
     @NotNull
     @Contract(pure = true)
     private static String getAddress(final String id, final String folder) {
+        if (Configuration.S3_ENDPOINT != null) {
+            return Configuration.S3_ENDPOINT.replaceAll("/+$", "") + "/" + Configuration.BUCKET_NAME + "/" + folder + "/" + id;
+        }
         return "https://" + Configuration.BUCKET_NAME + ".s3." +
                 Configuration.S3_BUCKET_REGION + ".amazonaws.com/" + folder + "/" + id;
     }
@@ -302,33 +313,6 @@ public class Helpers {
         return new Helpers.Result(numbers);
     }
 
-    /**
-     * Generates map for replacing placeholder values in HTML template with values from {@code Result} object.
-     *
-     * @param result The {@code Result} object
-     * @param height The height
-     * @return A map with placeholder as key and result as value
-     */
-    @NotNull
-    private static Map<String, String> substitutionMap(@NotNull final Result result, final int height) {
-        Map<String, String> map = new HashMap<>();
-        for (String[] data : new String[][]{
-                {"[tr]", Integer.toString(result.getTestRun())},
-                {"[fl]", Integer.toString(result.getFailures())},
-                {"[er]", Integer.toString(result.getErrors())},
-                {"[sk]", Integer.toString(result.getSkipped())},
-                {"[trHeight]", Integer.toString(result.getTestRun() * height)},
-                {"[flHeight]", Integer.toString(result.getFailures() * height)},
-                {"[erHeight]", Integer.toString(result.getErrors() * height)},
-                {"[skHeight]", Integer.toString(result.getSkipped() * height)},
-        }) {
-            if (map.put(data[0], data[1]) != null) {
-                throw new IllegalStateException("Duplicate key");
-            }
-        }
-        return map;
-    }
-
     /**
      * Helper class for storing the values parsed from Maven result file.
      */
@@ -337,19 +321,22 @@ public class Helpers {
         private final int failures;
         private final int errors;
         private final int skipped;
+        private final List<String> failureDetails;
 
         public Result(final int testRun, final int failures, final int errors, final int skipped) {
+            this(testRun, failures, errors, skipped, Collections.emptyList());
+        }
+
+        public Result(final int testRun, final int failures, final int errors, final int skipped, @NotNull final List<String> failureDetails) {
             this.testRun = testRun;
             this.failures = failures;
             this.errors = errors;
             this.skipped = skipped;
+            this.failureDetails = Collections.unmodifiableList(new ArrayList<>(failureDetails));
         }
 
         public Result(@NotNull final List<Integer> list) {
-            this.testRun = list.get(0);
-            this.failures = list.get(1);
-            this.errors = list.get(2);
-            this.skipped = list.get(3);
+            this(list.get(0), list.get(1), list.get(2), list.get(3));
         }
 
         /**
@@ -387,5 +374,14 @@ public class Helpers {
         public int getSkipped() {
             return skipped;
         }
+
+        /**
+         * Getter function for the {@code failureDetails} field.
+         *
+         * @return The names and messages of the failed tests
+         */
+        public List<String> getFailureDetails() {
+            return failureDetails;
+        }
     }
 }
@@ -0,0 +1,220 @@
+package org.group22.utilities;
+
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ReportTemplate {
+    private static final String TEMPLATE = "HTML/template.html";
+    private static final int PILLAR_HEIGHT = 100;
+    private static ReportTemplate instance;
+    private final List<Object> segments;
+
+    /**
+     * Compiles a template into a list of segments, the literal text between the placeholders and the placeholders
+     * themselves, so rendering a report only writes the segments one after another. Text in square brackets that isn't
+     * a known placeholder is kept as it is.
+     *
+     * @param template the template
+     */
+    public ReportTemplate(@NotNull final String template) {
+        final List<Object> compiled = new ArrayList<>();
+        int literalStart = 0;
+        int position = 0;
+        while ((position = template.indexOf('[', position)) >= 0) {
+            final int end = template.indexOf(']', position);
+            if (end < 0) break;
+            final Placeholder placeholder = Placeholder.fromName(template.substring(position + 1, end));
+            if (placeholder == null) {
+                position++;
+                continue;
+            }
+            if (position > literalStart) compiled.add(template.substring(literalStart, position));
+            compiled.add(placeholder);
+            literalStart = position = end + 1;
+        }
+        if (literalStart < template.length()) compiled.add(template.substring(literalStart));
+        this.segments = Collections.unmodifiableList(compiled);
+    }
+
+    /**
+     * Returns the compiled report template from the classpath. The template is read and compiled on the first call
+     * only.
+     *
+     * @return the {@code ReportTemplate}
+     * @throws IOException If the template couldn't be found or read
+     */
+    @NotNull
+    public static synchronized ReportTemplate getInstance() throws IOException {
+        if (instance == null) {
+            try (InputStream inputStream = ReportTemplate.class.getClassLoader().getResourceAsStream(TEMPLATE)) {
+                if (inputStream == null) throw new IOException("Can't find HTML template");
+                instance = new ReportTemplate(IOUtils.toString(inputStream, StandardCharsets.UTF_8));
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Writes the report of {@code result} to {@code writer}. The pillars are scaled to the number of tests run, so a
+     * build that ran no tests gets empty pillars.
+     *
+     * @param result the result of the Maven test
+     * @param writer the writer the report is written to
+     * @throws IOException If the report couldn't be written
+     */
+    public void render(@NotNull final Helpers.Result result, @NotNull final Writer writer) throws IOException {
+        for (Object segment : segments) {
+            if (segment instanceof String) {
+                writer.write((String) segment);
+                continue;
+            }
+            switch ((Placeholder) segment) {
+                case TESTS_RUN:
+                    writer.write(Integer.toString(result.getTestRun()));
+                    break;
+                case FAILURES:
+                    writer.write(Integer.toString(result.getFailures()));
+                    break;
+                case ERRORS:
+                    writer.write(Integer.toString(result.getErrors()));
+                    break;
+                case SKIPPED:
+                    writer.write(Integer.toString(result.getSkipped()));
+                    break;
+                case TESTS_RUN_HEIGHT:
+                    writer.write(Integer.toString(height(result.getTestRun(), result)));
+                    break;
+                case FAILURES_HEIGHT:
+                    writer.write(Integer.toString(height(result.getFailures(), result)));
+                    break;
+                case ERRORS_HEIGHT:
+                    writer.write(Integer.toString(height(result.getErrors(), result)));
+                    break;
+                case SKIPPED_HEIGHT:
+                    writer.write(Integer.toString(height(result.getSkipped(), result)));
+                    break;
+                case FAILURE_DETAILS:
+                    writeFailureDetails(result.getFailureDetails(), writer);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Calculates the height of a pillar in pixels.
+     *
+     * @param count  the number of tests the pillar shows
+     * @param result the result of the Maven test
+     * @return the height, {@code 0} if no tests were run
+     */
+    private static int height(final int count, @NotNull final Helpers.Result result) {
+        return result.getTestRun() == 0 ? 0 : (int) ((long) count * PILLAR_HEIGHT / result.getTestRun());
+    }
+
+    /**
+     * Writes the names and messages of the failed tests as a list.
+     *
+     * @param failureDetails the names and messages of the failed tests
+     * @param writer         the writer the list is written to
+     * @throws IOException If the list couldn't be written
+     */
+    private static void writeFailureDetails(@NotNull final List<String> failureDetails, @NotNull final Writer writer) throws IOException {
+        if (failureDetails.isEmpty()) return;
+        writer.write("<ul>\n");
+        for (String detail : failureDetails) {
+            writer.write("    <li>");
+            writeEscaped(detail, writer);
+            writer.write("</li>\n");
+        }
+        writer.write("</ul>");
+    }
+
+    /**
+     * Escapes the characters of a text that have a meaning in {@code HTML}.
+     *
+     * @param text the text
+     * @return the escaped text
+     */
+    @NotNull
+    public static String escape(@NotNull final String text) {
+        final StringWriter writer = new StringWriter(text.length() + 16);
+        try {
+            writeEscaped(text, writer);
+        } catch (IOException e) {
+            throw new IllegalStateException("A StringWriter doesn't throw", e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes text with the characters that have a meaning in {@code HTML} escaped.
+     *
+     * @param text   the text
+     * @param writer the writer the text is written to
+     * @throws IOException If the text couldn't be written
+     */
+    private static void writeEscaped(@NotNull final String text, @NotNull final Writer writer) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            final char character = text.charAt(i);
+            switch (character) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '"':
+                    writer.write("&quot;");
+                    break;
+                default:
+                    writer.write(character);
+            }
+        }
+    }
+
+    /**
+     * Enum class holding the placeholders of the report template.
+     */
+    private enum Placeholder {
+        TESTS_RUN("tr"),
+        FAILURES("fl"),
+        ERRORS("er"),
+        SKIPPED("sk"),
+        TESTS_RUN_HEIGHT("trHeight"),
+        FAILURES_HEIGHT("flHeight"),
+        ERRORS_HEIGHT("erHeight"),
+        SKIPPED_HEIGHT("skHeight"),
+        FAILURE_DETAILS("failures");
+
+        private final String name;
+
+        Placeholder(final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Finds the placeholder written as {@code [name]} in the template.
+         *
+         * @param name the name between the square brackets
+         * @return the placeholder, or {@code null} if there is no placeholder with that name
+         */
+        static Placeholder fromName(@NotNull final String name) {
+            for (Placeholder placeholder : values()) {
+                if (placeholder.name.equals(name)) return placeholder;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.group22.ci;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.group22.utilities.Configuration;
+import org.group22.utilities.Helpers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AWSFileUploaderTest {
+	private static final String ID = "uploadtest_2020-01-01_00-00-00";
+	private final File reports = new File(Configuration.PATH_TO_REPORTS);
+	private final File report = new File(reports, ID + ".txt");
+	private boolean createdReports;
+	private StubS3 s3;
+	private ReportIndex reportIndex;
+	private BuildRegistry registry;
+	private AWSFileUploader uploader;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		createdReports = reports.mkdirs();
+		FileUtils.writeStringToFile(report, "[INFO] Tests run: 2, Failures: 0, Errors: 0, Skipped: 0\n", StandardCharsets.UTF_8);
+		s3 = new StubS3();
+		reportIndex = new ReportIndex(new File(Files.createTempDirectory("index").toFile(), "report-index.txt"));
+		registry = new BuildRegistry();
+		uploader = new AWSFileUploader(s3, "bucket", reportIndex, registry);
+	}
+
+	@AfterEach
+	void tearDown() {
+		FileUtils.deleteQuietly(report);
+		if (createdReports) FileUtils.deleteQuietly(reports);
+	}
+
+	@Nested
+	@DisplayName("Tests the upload function")
+	class uploadTest {
+		@Test
+		@DisplayName("Uploads both reports compressed, then adds the build to the index")
+		void basicTest() throws Exception {
+			assertTrue(uploader.upload(ID, new Helpers.Result(2, 0, 0, 0)).get());
+
+			assertEquals("[INFO] Tests run: 2, Failures: 0, Errors: 0, Skipped: 0\n", s3.objects.get("reports/" + ID + ".txt"));
+			assertTrue(s3.objects.get("reports_html/" + ID + ".html").contains("<html"));
+			assertTrue(s3.objects.keySet().stream().anyMatch(key -> key.startsWith("index/") && key.endsWith("_" + ID)));
+			assertTrue(reportIndex.getIds().contains(ID));
+			assertTrue(registry.contains(ID));
+		}
+
+		@Test
+		@DisplayName("Leaves the build out of the index if a report wasn't uploaded")
+		void failedTest() throws Exception {
+			s3.failing = "reports_html/" + ID + ".html";
+			assertFalse(uploader.upload(ID, new Helpers.Result(2, 0, 0, 0)).get());
+
+			assertTrue(s3.objects.containsKey("reports/" + ID + ".txt"));
+			assertFalse(reportIndex.getIds().contains(ID));
+			assertFalse(registry.contains(ID));
+		}
+	}
+
+	private static class StubS3 extends AbstractAmazonS3 {
+		private final Map<String, String> objects = new ConcurrentHashMap<>();
+		private volatile String failing;
+
+		@Override
+		public PutObjectResult putObject(PutObjectRequest request) {
+			if (request.getKey().equals(failing)) throw new AmazonServiceException("Stubbed failure");
+			try (InputStream in = request.getFile() != null ? new FileInputStream(request.getFile()) : request.getInputStream()) {
+				byte[] body = IOUtils.toByteArray(in);
+				if ("gzip".equals(request.getMetadata().getContentEncoding())) {
+					body = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(body)));
+				}
+				objects.put(request.getKey(), new String(body, StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return new PutObjectResult();
+		}
+	}
+}
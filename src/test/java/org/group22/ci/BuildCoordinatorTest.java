@@ -0,0 +1,195 @@
+package org.group22.ci;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BuildCoordinatorTest {
+	private static BuildCoordinator coordinator(long leaseMillis) throws IOException {
+		return coordinator(new BuildRegistry(), reportIndex(), leaseMillis, 0);
+	}
+
+	private static BuildCoordinator coordinator(BuildRegistry registry, ReportIndex reportIndex, long leaseMillis, long affinityWaitMillis)
+			throws IOException {
+		BuildJournal journal = new BuildJournal(new File(Files.createTempDirectory("journal").toFile(), "journal.log"), 0, 0);
+		return new BuildCoordinator(new BuildScheduler(0, 10), journal, registry, reportIndex, leaseMillis, affinityWaitMillis);
+	}
+
+	private static ReportIndex reportIndex() throws IOException {
+		return new ReportIndex(new File(Files.createTempDirectory("index").toFile(), "report-index.txt"));
+	}
+
+	private static ProjectTester build(String sha, String branch) {
+		return new ProjectTester("repo", sha, branch, "author", "url");
+	}
+
+	private static CompletableFuture<BuildJournal.Build> pollAsync(BuildCoordinator coordinator, String agent, int slots, long wait) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return coordinator.poll(agent, slots, wait);
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+	}
+
+	@Nested
+	@DisplayName("Tests the poll function")
+	class pollTest {
+		@Test
+		@DisplayName("An agent gets no more builds than it has slots")
+		void capacityTest() throws Exception {
+			BuildCoordinator coordinator = coordinator(60000);
+			ProjectTester first = build("sha1", "master");
+			assertTrue(coordinator.submit(first));
+			assertTrue(coordinator.submit(build("sha2", "develop")));
+
+			BuildJournal.Build build = coordinator.poll("agent", 1, 100);
+			assertNotNull(build);
+			assertEquals(first.getId(), build.getId());
+			assertNull(coordinator.poll("agent", 1, 100));
+			assertNotNull(coordinator.poll("other", 1, 100));
+		}
+
+		@Test
+		@DisplayName("A build goes to the waiting agent with the most free slots")
+		void preferenceTest() throws Exception {
+			BuildCoordinator coordinator = coordinator(60000);
+			CompletableFuture<BuildJournal.Build> small = pollAsync(coordinator, "small", 1, 1500);
+			CompletableFuture<BuildJournal.Build> large = pollAsync(coordinator, "large", 4, 1500);
+			Thread.sleep(300);
+			ProjectTester projectTester = build("sha1", "master");
+			assertTrue(coordinator.submit(projectTester));
+
+			assertEquals(projectTester.getId(), large.get().getId());
+			assertNull(small.get());
+		}
+	}
+
+	@Nested
+	@DisplayName("Tests the leases of the builds")
+	class leaseTest {
+		@Test
+		@DisplayName("A build whose lease runs out is reassigned to another agent")
+		void expiryTest() throws Exception {
+			BuildCoordinator coordinator = coordinator(200);
+			coordinator.start();
+			ProjectTester projectTester = build("sha1", "master");
+			coordinator.submit(projectTester);
+			assertNotNull(coordinator.poll("lost", 1, 100));
+
+			BuildJournal.Build reassigned = coordinator.poll("other", 1, 2000);
+			assertNotNull(reassigned);
+			assertEquals(projectTester.getId(), reassigned.getId());
+			BuildCoordinator.HeartbeatReply reply = coordinator.heartbeat("lost", Collections.singleton(projectTester.getId()));
+			assertEquals(Collections.singleton(projectTester.getId()), reply.getAbort());
+			assertTrue(reply.getCancel().isEmpty());
+			assertFalse(coordinator.complete("lost", projectTester.getId(), new JSONObject()));
+			assertTrue(coordinator.metrics().contains("farm_reassigned_total 1"));
+		}
+
+		@Test
+		@DisplayName("Heartbeats keep the lease of a running build")
+		void heartbeatTest() throws Exception {
+			BuildRegistry registry = new BuildRegistry();
+			ReportIndex reportIndex = reportIndex();
+			BuildCoordinator coordinator = coordinator(registry, reportIndex, 300, 0);
+			coordinator.start();
+			ProjectTester projectTester = build("sha1", "master");
+			coordinator.submit(projectTester);
+			assertNotNull(coordinator.poll("agent", 1, 100));
+
+			for (int i = 0; i < 6; i++) {
+				BuildCoordinator.HeartbeatReply reply = coordinator.heartbeat("agent", Collections.singleton(projectTester.getId()));
+				assertTrue(reply.getCancel().isEmpty() && reply.getAbort().isEmpty());
+				Thread.sleep(100);
+			}
+			assertNull(coordinator.poll("other", 1, 100));
+			assertTrue(coordinator.complete("agent", projectTester.getId(), new JSONObject().put("status", "SUCCESS")
+					.put("testRun", 3).put("failures", 0).put("errors", 0).put("skipped", 1)));
+			assertEquals(GitStatusHandler.BuildStatus.SUCCESS, registry.get(projectTester.getId()).getStatus());
+			assertTrue(reportIndex.getIds().contains(projectTester.getId()));
+			assertNull(BuildRegistry.getInstance().get(projectTester.getId()));
+		}
+
+		@Test
+		@DisplayName("A build whose reports weren't uploaded is finished without being indexed")
+		void notUploadedTest() throws Exception {
+			BuildRegistry registry = new BuildRegistry();
+			ReportIndex reportIndex = reportIndex();
+			BuildCoordinator coordinator = coordinator(registry, reportIndex, 60000, 0);
+			ProjectTester projectTester = build("sha1", "master");
+			coordinator.submit(projectTester);
+			assertNotNull(coordinator.poll("agent", 1, 100));
+
+			assertTrue(coordinator.complete("agent", projectTester.getId(), new JSONObject().put("status", "SUCCESS")
+					.put("uploaded", false)));
+			assertNull(registry.get(projectTester.getId()));
+			assertFalse(reportIndex.getIds().contains(projectTester.getId()));
+			assertTrue(coordinator.metrics().contains("farm_leases 0"));
+		}
+	}
+
+	@Nested
+	@DisplayName("Tests the repository affinity")
+	class affinityTest {
+		private BuildCoordinator coordinator;
+
+		private String repositoryOf(String agent) {
+			HashRing ring = new HashRing(64);
+			ring.add("a");
+			ring.add("b");
+			for (int i = 0; ; i++) {
+				if (agent.equals(ring.nodeFor("repo-" + i))) return "repo-" + i;
+			}
+		}
+
+		private ProjectTester build(String repository, String sha) {
+			return new ProjectTester(repository, sha, "master", "author", "url/" + repository);
+		}
+
+		@Test
+		@DisplayName("A build waits for the agent of its repository, then spills over")
+		void spilloverTest() throws Exception {
+			coordinator = coordinator(new BuildRegistry(), reportIndex(), 60000, 1000);
+			coordinator.heartbeat("a", Collections.emptyList());
+			coordinator.heartbeat("b", Collections.emptyList());
+			ProjectTester ofB = build(repositoryOf("b"), "sha1");
+			coordinator.submit(ofB);
+
+			assertNull(coordinator.poll("a", 1, 300));
+			BuildJournal.Build spilled = coordinator.poll("a", 1, 3000);
+			assertNotNull(spilled);
+			assertEquals(ofB.getId(), spilled.getId());
+			assertTrue(coordinator.metrics().contains("farm_agent_affinity_hit_ratio{agent=\"a\"} 0.000"));
+		}
+
+		@Test
+		@DisplayName("Builds go to the agent of their repository, or spill over right away when it is saturated")
+		void saturatedTest() throws Exception {
+			coordinator = coordinator(new BuildRegistry(), reportIndex(), 60000, 60000);
+			coordinator.heartbeat("a", Collections.emptyList());
+			String repository = repositoryOf("b");
+			ProjectTester first = build(repository, "sha1");
+			ProjectTester second = new ProjectTester(repository, "sha2", "develop", "author", "url/" + repository);
+			coordinator.submit(first);
+			coordinator.submit(second);
+
+			assertEquals(first.getId(), coordinator.poll("b", 1, 100).getId());
+			assertEquals(second.getId(), coordinator.poll("a", 1, 100).getId());
+			assertTrue(coordinator.complete("b", first.getId(), new JSONObject().put("warm", true)));
+			String metrics = coordinator.metrics();
+			assertTrue(metrics.contains("farm_agent_affinity_hit_ratio{agent=\"b\"} 1.000"), metrics);
+			assertTrue(metrics.contains("farm_agent_cache_hit_ratio{agent=\"b\"} 1.000"), metrics);
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.group22.ci.GitStatusHandler.BuildStatus;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BuildJournalTest {
+	private static BuildJournal.Build build(String id) {
+		return new BuildJournal.Build(id, "repo", "sha", "master", "author", "url", false, Collections.singleton("pom.xml"), "base");
+	}
+
+	private BuildJournal started(File file, long compactBytes) {
+		BuildJournal journal = new BuildJournal(file, 0, compactBytes);
+		journal.start();
+		return journal;
+	}
+
+	@Nested
+	@DisplayName("Tests the replay of the journal")
+	class replayTest {
+		@Test
+		@DisplayName("Only the builds that didn't finish are replayed, with their last step")
+		void unfinishedTest() throws IOException {
+			File file = new File(Files.createTempDirectory("journal").toFile(), "journal.log");
+			BuildJournal journal = started(file, 0);
+			assertTrue(journal.received(build("a")));
+			assertTrue(journal.received(build("b")));
+			journal.record("a", BuildJournal.Event.CLONED);
+			journal.record("a", BuildJournal.Event.TESTED, BuildStatus.FAILURE);
+			journal.finished("b");
+			assertTrue(journal.received(build("c")));
+
+			List<BuildJournal.Build> unfinished = new ArrayList<>(new BuildJournal(file, 0, 0).getUnfinished());
+			assertEquals(2, unfinished.size());
+			assertEquals("a", unfinished.get(0).getId());
+			assertEquals(BuildJournal.Event.TESTED, unfinished.get(0).getLastEvent());
+			assertEquals(BuildStatus.FAILURE, unfinished.get(0).getTestedStatus());
+			assertEquals(Collections.singleton("pom.xml"), unfinished.get(0).getChangedFiles());
+			assertEquals("c", unfinished.get(1).getId());
+			assertEquals(BuildJournal.Event.RECEIVED, unfinished.get(1).getLastEvent());
+		}
+
+		@Test
+		@DisplayName("A line that was only partly written is skipped")
+		void tornLineTest() throws IOException {
+			File file = new File(Files.createTempDirectory("journal").toFile(), "journal.log");
+			assertTrue(started(file, 0).received(build("a")));
+			FileUtils.writeStringToFile(file, "{\"id\":\"b\",\"ev", StandardCharsets.UTF_8, true);
+
+			BuildJournal replayed = new BuildJournal(file, 0, 0);
+			assertEquals(1, replayed.getUnfinished().size());
+			assertEquals("a", replayed.getUnfinished().iterator().next().getId());
+		}
+	}
+
+	@Nested
+	@DisplayName("Tests the compaction of the journal")
+	class compactTest {
+		@Test
+		@DisplayName("Finished builds are removed when the journal is compacted")
+		void basicTest() throws IOException {
+			File file = new File(Files.createTempDirectory("journal").toFile(), "journal.log");
+			BuildJournal journal = started(file, 0);
+			for (int i = 0; i < 50; i++) {
+				journal.received(build("done" + i));
+				journal.finished("done" + i);
+			}
+			assertTrue(journal.received(build("open")));
+
+			new BuildJournal(file, 0, 0);
+			List<String> lines = FileUtils.readLines(file, StandardCharsets.UTF_8);
+			assertEquals(1, lines.size());
+			assertTrue(lines.get(0).contains("\"open\""));
+		}
+	}
+
+	@Nested
+	@DisplayName("Tests the recover function")
+	class recoverTest {
+		@Test
+		@DisplayName("Builds that weren't tested are queued again with the same id")
+		void requeueTest() throws IOException {
+			File file = new File(Files.createTempDirectory("journal").toFile(), "journal.log");
+			assertTrue(started(file, 0).received(build("sha_2020-01-01_00-00-00")));
+
+			BuildScheduler scheduler = new BuildScheduler(1, 10);
+			assertEquals(1, new BuildJournal(file, 0, 0).recover(scheduler));
+			assertEquals(1, scheduler.getQueueDepth());
+		}
+
+		@Test
+		@DisplayName("Tested builds are finished once their reports were uploaded")
+		void uploadedTest() throws IOException {
+			File file = new File(Files.createTempDirectory("journal").toFile(), "journal.log");
+			BuildJournal journal = started(file, 0);
+			assertTrue(journal.received(build("uploaded")));
+			journal.record("uploaded", BuildJournal.Event.TESTED, BuildStatus.SUCCESS);
+			journal.record("uploaded", BuildJournal.Event.STATUS_SENT, BuildStatus.SUCCESS);
+			journal.record("uploaded", BuildJournal.Event.UPLOADED);
+			assertTrue(journal.received(build("queued")));
+
+			BuildJournal recovered = started(file, 0);
+			assertEquals(BuildJournal.Event.UPLOADED, recovered.getUnfinished().iterator().next().getLastEvent());
+			assertEquals(1, recovered.recover(new BuildScheduler(0, 10)));
+			assertTrue(recovered.received(build("other")));
+			assertEquals(Arrays.asList("queued", "other"), recovered.getUnfinished().stream().map(BuildJournal.Build::getId)
+					.collect(Collectors.toList()));
+		}
+
+		@Test
+		@DisplayName("An agent drops the builds it didn't test, the coordinator reassigns them")
+		void agentTest() throws IOException {
+			File file = new File(Files.createTempDirectory("journal").toFile(), "journal.log");
+			BuildJournal journal = started(file, 0);
+			assertTrue(journal.received(build("untested")));
+			journal.record("untested", BuildJournal.Event.CLONED);
+			assertTrue(journal.received(build("uploaded")));
+			journal.record("uploaded", BuildJournal.Event.TESTED, BuildStatus.SUCCESS);
+			journal.record("uploaded", BuildJournal.Event.STATUS_SENT, BuildStatus.SUCCESS);
+			journal.record("uploaded", BuildJournal.Event.UPLOADED);
+			assertTrue(journal.received(build("queued")));
+
+			BuildJournal recovered = started(file, 0);
+			assertEquals(3, recovered.getUnfinished().size());
+			recovered.recoverAgent();
+			assertTrue(recovered.received(build("other")));
+			assertEquals(Collections.singletonList("other"), recovered.getUnfinished().stream().map(BuildJournal.Build::getId)
+					.collect(Collectors.toList()));
+		}
+	}
+
+	@Nested
+	@DisplayName("Tests the received function")
+	class receivedTest {
+		@Test
+		@DisplayName("A build that couldn't be written is reported as not received")
+		void writeFailureTest() throws IOException {
+			File directory = new File(Files.createTempDirectory("journal").toFile(), "missing");
+			File file = new File(directory, "journal.log");
+			BuildJournal journal = started(file, 0);
+			assertFalse(journal.received(build("a")));
+			assertTrue(journal.metrics().contains("journal_write_failures_total 1"));
+			assertTrue(journal.getUnfinished().isEmpty());
+
+			assertTrue(directory.mkdirs());
+			assertTrue(journal.received(build("b")));
+			assertEquals(1, new BuildJournal(file, 0, 0).getUnfinished().size());
+		}
+	}
+}
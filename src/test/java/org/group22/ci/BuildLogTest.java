@@ -0,0 +1,44 @@
+package org.group22.ci;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BuildLogTest {
+	@Nested
+	@DisplayName("Tests the read function")
+	class readTest {
+		@Test
+		@DisplayName("Reads the output from the offset until the log is closed")
+		void resumeTest() throws InterruptedException {
+			BuildLog log = new BuildLog(64);
+			log.append("first");
+			log.append("second");
+			log.close();
+
+			byte[] buffer = new byte[64];
+			BuildLog.Chunk chunk = log.read(6, buffer, 0);
+			assertEquals(6, chunk.getOffset());
+			assertEquals("second\n", new String(buffer, 0, chunk.getLength(), StandardCharsets.UTF_8));
+			assertTrue(chunk.isEnd());
+		}
+
+		@Test
+		@DisplayName("Skips ahead when the reader has fallen behind the buffer")
+		void slowReaderTest() throws InterruptedException {
+			BuildLog log = new BuildLog(8);
+			log.append("0123");
+			log.append("4567");
+
+			byte[] buffer = new byte[8];
+			BuildLog.Chunk chunk = log.read(0, buffer, 0);
+			assertEquals(2, chunk.getOffset());
+			assertEquals("23\n4567\n", new String(buffer, 0, chunk.getLength(), StandardCharsets.UTF_8));
+			assertFalse(chunk.isEnd());
+		}
+	}
+}
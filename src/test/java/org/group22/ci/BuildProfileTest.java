@@ -0,0 +1,83 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BuildProfileTest {
+	@Nested
+	@DisplayName("Tests the resolve function")
+	class resolveTest {
+		@Test
+		@DisplayName("Gives the cores of a build to the test forks and leaves the Maven threads alone")
+		void autoSizeTest() {
+			InvocationRequest request = new DefaultInvocationRequest();
+			BuildProfile.resolve(Collections.emptyMap(), "repo", 16, 2).apply(request);
+			assertNull(request.getThreads());
+			assertEquals("8", request.getProperties().getProperty("forkCount"));
+
+			request = new DefaultInvocationRequest();
+			BuildProfile.resolve(Collections.emptyMap(), "repo", 16, 8).apply(request);
+			assertEquals("2", request.getProperties().getProperty("forkCount"));
+
+			request = new DefaultInvocationRequest();
+			BuildProfile.resolve(Collections.emptyMap(), "repo", 2, 4).apply(request);
+			assertNull(request.getThreads());
+			assertEquals("1", request.getProperties().getProperty("forkCount"));
+		}
+
+		@Test
+		@DisplayName("Prefers the profile of the repository over the default profile")
+		void profileTest() throws IOException {
+			File file = new File(Files.createTempDirectory("profiles").toFile(), "build-profiles.json");
+			file.deleteOnExit();
+			FileUtils.writeStringToFile(file, new JSONObject()
+					.put("default", new JSONObject().put("threads", "2").put("mavenOpts", "-Xmx1g"))
+					.put("repo", new JSONObject().put("forkCount", "0.5C").put("parallel", "classes").put("threadCount", 4))
+					.toString(), StandardCharsets.UTF_8);
+			Map<String, JSONObject> profiles = BuildProfile.load(file);
+
+			InvocationRequest request = new DefaultInvocationRequest();
+			BuildProfile.resolve(profiles, "repo", 8, 1).apply(request);
+			assertEquals("2", request.getThreads());
+			assertEquals("-Xmx1g", request.getMavenOpts());
+			assertEquals("4", request.getProperties().getProperty("forkCount"));
+			assertEquals("classes", request.getProperties().getProperty("parallel"));
+			assertEquals("4", request.getProperties().getProperty("threadCount"));
+
+			request = new DefaultInvocationRequest();
+			BuildProfile.resolve(profiles, "other", 8, 1).apply(request);
+			assertEquals("4", request.getProperties().getProperty("forkCount"));
+			assertNull(request.getProperties().getProperty("parallel"));
+		}
+
+		@Test
+		@DisplayName("Counts per core use the cores of the build, not of the machine")
+		void perCoreTest() {
+			Map<String, JSONObject> profiles = Collections.singletonMap("repo", new JSONObject().put("threads", "1C").put("forkCount", "0.5C"));
+
+			InvocationRequest request = new DefaultInvocationRequest();
+			BuildProfile.resolve(profiles, "repo", 16, 4).apply(request);
+			assertEquals("4", request.getThreads());
+			assertEquals("2", request.getProperties().getProperty("forkCount"));
+
+			request = new DefaultInvocationRequest();
+			BuildProfile.resolve(Collections.singletonMap("repo", new JSONObject().put("threads", "0.5C")), "repo", 4, 4).apply(request);
+			assertEquals("1", request.getThreads());
+			assertEquals("1", request.getProperties().getProperty("forkCount"));
+		}
+	}
+}
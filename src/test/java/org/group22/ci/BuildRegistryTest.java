@@ -0,0 +1,37 @@
+package org.group22.ci;
+
+import org.group22.ci.GitStatusHandler.BuildStatus;
+import org.group22.utilities.Helpers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BuildRegistryTest {
+	@Nested
+	@DisplayName("Tests the put function")
+	class putTest {
+		@Test
+		@DisplayName("Indexes the builds by repository and branch, newest first")
+		void indexTest() {
+			BuildRegistry registry = new BuildRegistry();
+			registry.add("a_2020-02-01_10-00-00");
+			registry.put(new BuildRegistry.BuildRecord("a_2020-02-01_10-00-00", "repo", "master", BuildStatus.SUCCESS,
+					new Helpers.Result(3, 0, 0, 0)));
+			registry.put(new BuildRegistry.BuildRecord("b_2020-02-02_10-00-00", "repo", "dev", BuildStatus.FAILURE, null));
+			registry.add("c_2020-02-03_10-00-00");
+
+			assertEquals(3, registry.size());
+			assertEquals(Arrays.asList("c_2020-02-03_10-00-00", "b_2020-02-02_10-00-00", "a_2020-02-01_10-00-00"),
+					new ArrayList<>(registry.getBuilds().keySet()));
+			assertEquals(2, registry.getBuilds("repo").size());
+			assertEquals(1, registry.getBuilds("repo", "master").size());
+			assertEquals(3, registry.get("a_2020-02-01_10-00-00").getResult().getTestRun());
+			assertEquals(4, registry.getVersion());
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.shared.invoker.InvocationOutputHandler;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BuildSandboxTest {
+	private static final List<String> ENVIRONMENT = Collections.singletonList("PATH=" + System.getenv("PATH"));
+
+	@Nested
+	@DisplayName("Tests the run function")
+	class runTest {
+		@Test
+		@DisplayName("Passes the output and the exit code of the command")
+		void outputTest() throws IOException {
+			File directory = Files.createTempDirectory("sandbox").toFile();
+			directory.deleteOnExit();
+			List<String> lines = Collections.synchronizedList(new ArrayList<>());
+			BuildSandbox sandbox = new BuildSandbox("output", new File(directory, "cgroup"), 0, 0, 10000);
+
+			BuildSandbox.Run run = sandbox.run(Arrays.asList("/bin/sh", "-c", "echo hello; echo failed >&2; exit 3"),
+					directory, ENVIRONMENT, (InvocationOutputHandler) lines::add);
+			assertEquals(3, run.getExitCode());
+			assertFalse(run.isTimedOut());
+			assertEquals(Arrays.asList("hello", "failed"), lines);
+			assertTrue(run.getUsage().getWallSeconds() >= 0);
+		}
+
+		@Test
+		@DisplayName("Kills the whole process tree when the timeout runs out")
+		void timeoutTest() throws IOException, InterruptedException {
+			File directory = Files.createTempDirectory("sandbox").toFile();
+			directory.deleteOnExit();
+			File childPid = new File(directory, "child.pid");
+			BuildSandbox sandbox = new BuildSandbox("timeout", new File(directory, "cgroup"), 0, 0, 500);
+
+			long start = System.currentTimeMillis();
+			BuildSandbox.Run run = sandbox.run(Arrays.asList("/bin/sh", "-c", "sleep 60 & echo $! > child.pid; wait"),
+					directory, ENVIRONMENT, (InvocationOutputHandler) line -> { });
+			assertTrue(run.isTimedOut());
+			assertEquals(-1, run.getExitCode());
+			assertTrue(System.currentTimeMillis() - start < 10000);
+
+			File process = new File("/proc/" + FileUtils.readFileToString(childPid, StandardCharsets.UTF_8).trim());
+			for (int i = 0; i < 50 && process.exists(); i++) Thread.sleep(100);
+			assertFalse(process.exists());
+		}
+	}
+}
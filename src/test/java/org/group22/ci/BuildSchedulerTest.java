@@ -0,0 +1,50 @@
+package org.group22.ci;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BuildSchedulerTest {
+	@Nested
+	@DisplayName("Tests the submit function")
+	class submitTest {
+		@Test
+		@DisplayName("Rejects builds when the queue is full")
+		void queueFullTest() {
+			BuildScheduler scheduler = new BuildScheduler(1, 2);
+			assertTrue(scheduler.submit(new ProjectTester("repo", "sha1", "master", "author", "url")));
+			assertTrue(scheduler.submit(new ProjectTester("repo", "sha2", "develop", "author", "url")));
+			assertFalse(scheduler.submit(new ProjectTester("repo", "sha3", "feature", "author", "url")));
+			assertEquals(2, scheduler.getQueueDepth());
+			assertTrue(scheduler.metrics().contains("build_rejected_total 1"));
+		}
+
+		@Test
+		@DisplayName("A build takes over the changes of the build it cancels")
+		void inheritChangesTest() throws IOException {
+			BuildJournal journal = new BuildJournal(new File(Files.createTempDirectory("journal").toFile(), "journal.log"), 0, 0);
+			BuildScheduler scheduler = new BuildScheduler(0, 10, true, journal);
+			ProjectTester first = new ProjectTester(new BuildJournal.Build("build_1", "repo", "sha1", "master", "author", "url", false,
+					Collections.singleton("x/src/main/java/X.java"), "sha0"));
+			ProjectTester second = new ProjectTester(new BuildJournal.Build("build_2", "repo", "sha2", "master", "author", "url", false,
+					Collections.singleton("y/src/main/java/Y.java"), "sha1"));
+			assertTrue(scheduler.submit(first));
+			assertSame(first, scheduler.take((build, waitMillis) -> true));
+
+			assertTrue(scheduler.submit(second));
+			assertTrue(first.isCancelled());
+			BuildJournal.Build merged = scheduler.take((build, waitMillis) -> true).toJournal();
+			assertEquals(new HashSet<>(Arrays.asList("x/src/main/java/X.java", "y/src/main/java/Y.java")), merged.getChangedFiles());
+			assertEquals("sha0", merged.getBaseCommitId());
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package org.group22.ci;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GitHubClientTest {
+	private final List<Integer> responses = new ArrayList<>();
+	private final List<String> paths = new ArrayList<>();
+	private volatile String remaining = "4000";
+	private volatile String retryAfter;
+	private Server server;
+	private GitHubClient client;
+
+	@BeforeEach
+	void startServer() throws Exception {
+		server = new Server(0);
+		server.setHandler(new AbstractHandler() {
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) {
+				baseRequest.setHandled(true);
+				synchronized (paths) {
+					paths.add(target);
+					response.setHeader("X-RateLimit-Remaining", remaining);
+					if (retryAfter != null) response.setHeader("Retry-After", retryAfter);
+					response.setHeader("X-RateLimit-Reset", String.valueOf(System.currentTimeMillis() / 1000 + 3600));
+					response.setStatus(responses.isEmpty() ? 201 : responses.remove(0));
+				}
+			}
+		});
+		server.start();
+		int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+		client = new GitHubClient("http://localhost:" + port, "token", 2, 10);
+	}
+
+	@AfterEach
+	void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Nested
+	@DisplayName("Tests the send function")
+	class sendTest {
+		@Test
+		@DisplayName("Fails server errors with a delay for the retry")
+		void retryTest() {
+			responses.add(502);
+			GitHubClient.Attempt attempt = client.send("repos/owner/repo/statuses/sha", new JSONObject(), 0);
+			assertEquals(GitHubClient.Outcome.FAILED, attempt.getOutcome());
+			assertTrue(attempt.getRetryMillis() >= 0);
+
+			assertEquals(GitHubClient.Outcome.ACCEPTED, client.send("repos/owner/repo/statuses/sha", new JSONObject(), 1).getOutcome());
+			assertEquals(2, paths.size());
+			assertEquals("/repos/owner/repo/statuses/sha", paths.get(0));
+		}
+
+		@Test
+		@DisplayName("Waits as long as Github asks for")
+		void retryAfterTest() {
+			responses.add(429);
+			retryAfter = "3";
+			assertEquals(3000, client.send("repos/owner/repo/statuses/sha", new JSONObject(), 0).getRetryMillis());
+		}
+
+		@Test
+		@DisplayName("Does not retry client errors")
+		void clientErrorTest() {
+			responses.add(422);
+			assertEquals(GitHubClient.Outcome.REJECTED, client.send("repos/owner/repo/statuses/sha", new JSONObject(), 0).getOutcome());
+			assertEquals(1, paths.size());
+		}
+
+		@Test
+		@DisplayName("Gives up after the last retry")
+		void giveUpTest() {
+			responses.add(500);
+			GitHubClient.Attempt attempt = client.send("repos/owner/repo/statuses/sha", new JSONObject(), 2);
+			assertEquals(GitHubClient.Outcome.FAILED, attempt.getOutcome());
+			assertEquals(-1, attempt.getRetryMillis());
+		}
+	}
+
+	@Nested
+	@DisplayName("Tests the throttleMillis function")
+	class throttleMillisTest {
+		@Test
+		@DisplayName("Spreads requests out when the rate limit is nearly used up")
+		void throttleTest() {
+			assertEquals(0, client.throttleMillis());
+			client.send("repos/owner/repo/statuses/sha", new JSONObject(), 0);
+			assertEquals(0, client.throttleMillis());
+
+			remaining = "10";
+			client.send("repos/owner/repo/statuses/sha", new JSONObject(), 0);
+			assertTrue(client.throttleMillis() > 0);
+		}
+	}
+}
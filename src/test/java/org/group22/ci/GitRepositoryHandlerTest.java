@@ -0,0 +1,89 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.group22.utilities.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GitRepositoryHandlerTest {
+	private static final String ID = "clonetest_2020-01-01_00-00-00";
+	private final File workspace = new File(Configuration.PATH_TO_GIT + ID);
+	private File remote;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		remote = new File(Files.createTempDirectory("remote").toFile(), "app");
+	}
+
+	@AfterEach
+	void tearDown() {
+		FileUtils.deleteQuietly(workspace);
+		FileUtils.deleteQuietly(remote.getParentFile());
+	}
+
+	private ObjectId commit(Git git, String file) throws Exception {
+		FileUtils.writeStringToFile(new File(remote, file), file, StandardCharsets.UTF_8);
+		git.add().addFilepattern(file).call();
+		return git.commit().setMessage("Add " + file).call().getId();
+	}
+
+	@Nested
+	@DisplayName("Tests the cloneRepository function")
+	class cloneRepositoryTest {
+		@Test
+		@DisplayName("Clones only the pushed branch and checks out the pushed commit")
+		void singleBranchTest() throws Exception {
+			ObjectId pushed;
+			try (Git git = Git.init().setDirectory(remote).call()) {
+				commit(git, "README.md");
+				git.branchCreate().setName("feature").call();
+				commit(git, "master.txt");
+				git.checkout().setName("feature").call();
+				pushed = commit(git, "feature.txt");
+				commit(git, "later.txt");
+			}
+
+			GitRepositoryHandler handler = new GitRepositoryHandler(ID, "app", remote.toURI().toString(), "feature", pushed.name());
+			assertTrue(handler.cloneRepository(GitRepositoryHandler.CloneStrategy.SINGLE_BRANCH));
+
+			File checkout = new File(workspace, "app");
+			assertTrue(new File(checkout, "feature.txt").isFile());
+			assertFalse(new File(checkout, "later.txt").exists());
+			try (Git clone = Git.open(checkout)) {
+				assertEquals(pushed, clone.getRepository().resolve(Constants.HEAD));
+				assertNull(clone.getRepository().exactRef(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/master"));
+			}
+		}
+	}
+
+	@Nested
+	@DisplayName("Tests the fromName function")
+	class fromNameTest {
+		@Test
+		@DisplayName("Finds strategies by their configured name")
+		void nameTest() {
+			assertEquals(GitRepositoryHandler.CloneStrategy.SINGLE_BRANCH, GitRepositoryHandler.CloneStrategy.fromName("single-branch"));
+			assertEquals(GitRepositoryHandler.CloneStrategy.MIRROR, GitRepositoryHandler.CloneStrategy.fromName("MIRROR"));
+			assertEquals(GitRepositoryHandler.CloneStrategy.FULL, GitRepositoryHandler.CloneStrategy.fromName("unknown"));
+		}
+
+		@Test
+		@DisplayName("Still accepts the old name of the single-branch strategy")
+		void shallowTest() {
+			assertEquals(GitRepositoryHandler.CloneStrategy.SINGLE_BRANCH, GitRepositoryHandler.CloneStrategy.fromName("shallow"));
+		}
+	}
+}
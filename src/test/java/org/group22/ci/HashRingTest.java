@@ -0,0 +1,52 @@
+package org.group22.ci;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashRingTest {
+	@Nested
+	@DisplayName("Tests the nodeFor function")
+	class nodeForTest {
+		@Test
+		@DisplayName("An empty ring has no node for a key")
+		void emptyTest() {
+			assertNull(new HashRing(16).nodeFor("repo"));
+		}
+
+		@Test
+		@DisplayName("Keys are spread over all nodes")
+		void spreadTest() {
+			HashRing ring = new HashRing(64);
+			ring.add("a");
+			ring.add("b");
+			ring.add("c");
+			Map<String, Integer> counts = new HashMap<>();
+			for (int i = 0; i < 3000; i++) counts.merge(ring.nodeFor("repo-" + i), 1, Integer::sum);
+			assertEquals(3, counts.size());
+			counts.values().forEach(count -> assertTrue(count > 500, "Uneven spread: " + counts));
+		}
+
+		@Test
+		@DisplayName("Only the keys of a removed node move")
+		void removeTest() {
+			HashRing ring = new HashRing(64);
+			ring.add("a");
+			ring.add("b");
+			ring.add("c");
+			Map<String, String> before = new HashMap<>();
+			for (int i = 0; i < 1000; i++) before.put("repo-" + i, ring.nodeFor("repo-" + i));
+
+			ring.remove("c");
+			before.forEach((key, node) -> {
+				if (!"c".equals(node)) assertEquals(node, ring.nodeFor(key));
+				else assertNotEquals("c", ring.nodeFor(key));
+			});
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package org.group22.ci;
+
+import org.group22.utilities.Helpers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MavenOutputHandlerTest {
+	@Nested
+	@DisplayName("Tests the getResult function")
+	class getResultTest {
+		@Test
+		@DisplayName("Adds up the results of every module")
+		void multiModuleTest() throws IOException {
+			File report = Files.createTempFile("report", ".txt").toFile();
+			report.deleteOnExit();
+			MavenOutputHandler handler = new MavenOutputHandler(report);
+			for (String line : new String[]{
+					"[INFO] ---------------------------< x:core >---------------------------",
+					"[INFO] Tests run: 3, Failures: 0, Errors: 0, Skipped: 0, Time elapsed: 0.1 s - in x.CoreTest",
+					"[INFO] Results:",
+					"[INFO] ",
+					"[INFO] Tests run: 3, Failures: 0, Errors: 0, Skipped: 1",
+					"[INFO] ----------------------------< x:app >----------------------------",
+					"[INFO] Results:",
+					"[ERROR] Failures: ",
+					"[ERROR]   AppTest.bad:6 expected:<1> but was:<2>",
+					"[ERROR] Tests run: 2, Failures: 1, Errors: 0, Skipped: 0",
+			}) {
+				handler.consumeLine(line);
+			}
+			handler.close();
+
+			Helpers.Result result = handler.getResult();
+			assertNotNull(result);
+			assertEquals(5, result.getTestRun());
+			assertEquals(1, result.getFailures());
+			assertEquals(1, result.getSkipped());
+			assertEquals(1, result.getFailureDetails().size());
+			assertEquals("x:app: AppTest.bad:6 expected:<1> but was:<2>", result.getFailureDetails().get(0));
+			assertEquals(2, handler.getModuleResults().size());
+			assertEquals(10, Files.readAllLines(report.toPath(), StandardCharsets.UTF_8).size());
+		}
+
+		@Test
+		@DisplayName("Returns null when no tests were run")
+		void noTestsTest() throws IOException {
+			File report = Files.createTempFile("report", ".txt").toFile();
+			report.deleteOnExit();
+			MavenOutputHandler handler = new MavenOutputHandler(report);
+			handler.consumeLine("[ERROR] COMPILATION ERROR :");
+			handler.close();
+			assertNull(handler.getResult());
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package org.group22.ci;
+
+import org.apache.maven.shared.invoker.DefaultInvocationRequest;
+import org.apache.maven.shared.invoker.DefaultInvoker;
+import org.apache.maven.shared.invoker.InvocationRequest;
+import org.apache.maven.shared.invoker.Invoker;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MavenRepositoryCacheTest {
+	private static Invoker invoker(String version) throws IOException {
+		File home = Files.createTempDirectory("maven").toFile();
+		File lib = new File(home, "lib");
+		assertTrue(lib.mkdirs());
+		assertTrue(new File(lib, "maven-core-" + version + ".jar").createNewFile());
+		Invoker invoker = new DefaultInvoker();
+		invoker.setMavenHome(home);
+		return invoker;
+	}
+
+	@Nested
+	@DisplayName("Tests the preWarm function")
+	class preWarmTest {
+		@Test
+		@DisplayName("A failed attempt isn't repeated for the same POM files")
+		void failedTest() throws IOException {
+			MavenRepositoryCache cache = new MavenRepositoryCache(Files.createTempDirectory("m2").toFile(), false);
+			Invoker invoker = invoker("3.9.6");
+			File baseDir = Files.createTempDirectory("project").toFile();
+			AtomicInteger runs = new AtomicInteger();
+
+			cache.preWarm(invoker, baseDir, "repo", "hash1", request -> runs.incrementAndGet());
+			cache.preWarm(invoker, baseDir, "repo", "hash1", request -> runs.incrementAndGet());
+			assertEquals(1, runs.get());
+			cache.preWarm(invoker, baseDir, "repo", "hash2", request -> runs.incrementAndGet() - 2);
+			cache.preWarm(invoker, baseDir, "repo", "hash2", request -> runs.incrementAndGet());
+			assertEquals(2, runs.get());
+		}
+
+		@Test
+		@DisplayName("Repositories with the same name but different owners are warmed separately")
+		void ownerTest() throws IOException {
+			MavenRepositoryCache cache = new MavenRepositoryCache(Files.createTempDirectory("m2").toFile(), false);
+			Invoker invoker = invoker("3.9.6");
+			File baseDir = Files.createTempDirectory("project").toFile();
+			AtomicInteger runs = new AtomicInteger();
+
+			cache.preWarm(invoker, baseDir, "https://github.com/alice/app.git", "hash", request -> runs.incrementAndGet() - 1);
+			cache.preWarm(invoker, baseDir, "https://github.com/bob/app.git", "hash", request -> runs.incrementAndGet() - 1);
+			assertEquals(2, runs.get());
+			cache.preWarm(invoker, baseDir, "https://github.com/alice/app.git", "hash", request -> runs.incrementAndGet());
+			assertEquals(2, runs.get());
+		}
+	}
+
+	@Nested
+	@DisplayName("Tests the configure function")
+	class configureTest {
+		@Test
+		@DisplayName("Builds share the repository only with Maven 3.9 or newer")
+		void versionTest() throws IOException {
+			File root = Files.createTempDirectory("m2").toFile();
+			File workspace = Files.createTempDirectory("workspace").toFile();
+			MavenRepositoryCache cache = new MavenRepositoryCache(root, false);
+
+			InvocationRequest shared = new DefaultInvocationRequest();
+			cache.configure(shared, invoker("3.9.6"), "repo", "hash", workspace);
+			assertEquals(root, shared.getLocalRepositoryDirectory(null));
+
+			InvocationRequest own = new DefaultInvocationRequest();
+			cache.configure(own, invoker("3.6.3"), "repo", "hash", workspace);
+			assertEquals(new File(workspace, ".m2/repository"), own.getLocalRepositoryDirectory(null));
+			AtomicInteger runs = new AtomicInteger();
+			cache.preWarm(invoker("3.6.3"), workspace, "repo", "hash", request -> runs.incrementAndGet());
+			assertEquals(0, runs.get());
+		}
+	}
+}
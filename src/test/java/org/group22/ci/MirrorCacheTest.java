@@ -0,0 +1,95 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MirrorCacheTest {
+	private File temp;
+	private File mirrors;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		temp = Files.createTempDirectory("mirrors").toFile();
+		temp.deleteOnExit();
+		mirrors = new File(temp, "mirrors");
+	}
+
+	private String repository(String name) throws Exception {
+		File directory = new File(temp, name);
+		Git.init().setDirectory(directory).call().close();
+		commit(directory, "README.md", name);
+		return directory.toURI().toString();
+	}
+
+	private ObjectId commit(File repository, String file, String content) throws Exception {
+		FileUtils.writeStringToFile(new File(repository, file), content, StandardCharsets.UTF_8);
+		try (Git git = Git.open(repository)) {
+			git.add().addFilepattern(file).call();
+			return git.commit().setMessage("Change " + file).call().getId();
+		}
+	}
+
+	private File workspace(String id) {
+		return new File(new File(temp, "git"), id);
+	}
+
+	@Nested
+	@DisplayName("Tests the checkout function")
+	class checkoutTest {
+		@Test
+		@DisplayName("Creates the mirror on the first checkout of a repository")
+		void missTest() throws Exception {
+			MirrorCache cache = new MirrorCache(mirrors, Long.MAX_VALUE);
+			String url = repository("app");
+			assertFalse(cache.isMirrored(url));
+
+			cache.checkout(url, "master", null, Collections.emptyList(), new File(workspace("build_1"), "app"));
+			assertTrue(cache.isMirrored(url));
+			assertEquals("app", FileUtils.readFileToString(new File(workspace("build_1"), "app/README.md"), StandardCharsets.UTF_8));
+		}
+
+		@Test
+		@DisplayName("Only fetches the new commits once the repository is mirrored")
+		void hitTest() throws Exception {
+			MirrorCache cache = new MirrorCache(mirrors, Long.MAX_VALUE);
+			String url = repository("app");
+			cache.checkout(url, "master", null, Collections.emptyList(), new File(workspace("build_1"), "app"));
+
+			ObjectId pushed = commit(new File(temp, "app"), "A.java", "class A {}");
+			assertTrue(cache.isMirrored(url));
+			assertEquals(pushed, cache.checkout(url, "master", pushed.name(), Collections.emptyList(), new File(workspace("build_2"), "app")));
+			assertTrue(new File(workspace("build_2"), "app/A.java").isFile());
+		}
+
+		@Test
+		@DisplayName("Evicts only the mirrors no checkout uses")
+		void evictTest() throws Exception {
+			MirrorCache cache = new MirrorCache(mirrors, 1);
+			String first = repository("first");
+			String second = repository("second");
+
+			cache.checkout(first, "master", null, Collections.emptyList(), new File(workspace("build_1"), "first"));
+			assertTrue(cache.isMirrored(first), "the mirror that was just checked out is kept");
+
+			cache.checkout(second, "master", null, Collections.emptyList(), new File(workspace("build_2"), "second"));
+			assertTrue(cache.isMirrored(first), "a mirror used by a running build is kept");
+
+			cache.release(workspace("build_1"));
+			cache.checkout(second, "master", null, Collections.emptyList(), new File(workspace("build_3"), "second"));
+			assertFalse(cache.isMirrored(first));
+			assertTrue(cache.isMirrored(second));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package org.group22.ci;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PushEventTest {
+	private static JSONObject payload() {
+		JSONArray commits = new JSONArray()
+				.put(new JSONObject().put("id", "a").put("added", new JSONArray().put("src/A.java"))
+						.put("modified", new JSONArray().put("pom.xml")).put("removed", new JSONArray()))
+				.put(new JSONObject().put("id", "b").put("added", new JSONArray())
+						.put("modified", new JSONArray().put("src/A.java")).put("removed", new JSONArray().put("src/B.java")));
+		return new JSONObject()
+				.put("ref", "refs/heads/feature/x")
+				.put("before", "z")
+				.put("commits", commits)
+				.put("head_commit", new JSONObject().put("id", "b").put("message", "Fix [ci rebuild]")
+						.put("author", new JSONObject().put("name", "Someone")))
+				.put("repository", new JSONObject().put("name", "repo").put("clone_url", "url")
+						.put("owner", new JSONObject().put("name", "owner")))
+				.put("pusher", new JSONObject().put("name", "Author_Name"))
+				.put("forced", false);
+	}
+
+	private static InputStream stream(JSONObject json) {
+		return new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Nested
+	@DisplayName("Tests the parse function")
+	class parseTest {
+		@Test
+		@DisplayName("Extracts the fields of a push")
+		void basicTest() throws IOException {
+			PushEvent event = PushEvent.parse(stream(payload()), 1 << 20);
+			assertNotNull(event);
+			assertEquals("b", event.getHeadCommitId());
+			assertEquals("Fix [ci rebuild]", event.getHeadCommitMessage());
+			assertEquals("feature/x", event.getBranch());
+			assertEquals("Author_Name", event.getAuthor());
+			assertEquals("repo", event.getRepositoryName());
+			assertEquals("url", event.getCloneURL());
+			assertEquals(new HashSet<>(Arrays.asList("src/A.java", "pom.xml", "src/B.java")), event.getChangedFiles());
+			assertEquals("z", event.getBaseCommitId());
+		}
+
+		@Test
+		@DisplayName("Doesn't list the changes of force pushes")
+		void forcedTest() throws IOException {
+			PushEvent event = PushEvent.parse(stream(payload().put("forced", true)), 1 << 20);
+			assertNotNull(event);
+			assertNull(event.getChangedFiles());
+			assertNull(event.getBaseCommitId());
+		}
+
+		@Test
+		@DisplayName("Rejects payloads without a head commit or a branch")
+		void invalidTest() throws IOException {
+			assertNull(PushEvent.parse(stream(payload().put("head_commit", JSONObject.NULL)), 1 << 20));
+			assertNull(PushEvent.parse(stream(payload().put("ref", "refs/tags/v1")), 1 << 20));
+		}
+
+		@Test
+		@DisplayName("Stops reading payloads larger than the limit")
+		void sizeTest() {
+			assertThrows(PushEvent.PayloadTooLargeException.class, () -> PushEvent.parse(stream(payload()), 100));
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package org.group22.ci;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReportIndexTest {
+	@Nested
+	@DisplayName("Tests the add function")
+	class addTest {
+		@Test
+		@DisplayName("Orders the builds by time and reloads them from the snapshot")
+		void snapshotTest() throws IOException {
+			File snapshot = new File(Files.createTempDirectory("index").toFile(), "report-index.txt");
+			snapshot.deleteOnExit();
+			ReportIndex index = new ReportIndex(snapshot);
+			index.add("fff_2020-02-03_10-00-00");
+			index.add("aaa_2020-02-04_09-00-00");
+			index.add("bbb_2020-02-02_12-00-00");
+
+			ReportIndex reloaded = new ReportIndex(snapshot);
+			assertEquals(Arrays.asList("bbb_2020-02-02_12-00-00", "fff_2020-02-03_10-00-00", "aaa_2020-02-04_09-00-00"),
+					new ArrayList<>(reloaded.getIds()));
+		}
+	}
+
+	@Nested
+	@DisplayName("Tests the sync function")
+	class syncTest {
+		@Test
+		@DisplayName("Follows continuation tokens and only lists new markers on the next sync")
+		void paginationTest() throws IOException {
+			File snapshot = new File(Files.createTempDirectory("index").toFile(), "report-index.txt");
+			snapshot.deleteOnExit();
+			FakeS3 s3 = new FakeS3(Arrays.asList("reports/a_2020-01-01_00-00-00.txt", "reports/b_2020-01-02_00-00-00.txt",
+					"reports/c_2020-01-03_00-00-00.txt", "reports_html/a_2020-01-01_00-00-00.html"));
+			ReportIndex index = new ReportIndex(snapshot);
+			assertEquals(3, index.sync(s3, "bucket"));
+			assertEquals(2, s3.requests.size());
+			assertNull(s3.requests.get(0));
+
+			s3.keys.add(ReportIndex.markerKey("d_2020-01-04_00-00-00", 1000));
+			s3.keys.add("reports/d_2020-01-04_00-00-00.txt");
+			s3.keys.add(ReportIndex.markerKey("0_2020-01-05_00-00-00", System.currentTimeMillis()));
+			s3.keys.add("reports/0_2020-01-05_00-00-00.txt");
+			ReportIndex reloaded = new ReportIndex(snapshot);
+			assertEquals(1, reloaded.sync(s3, "bucket"));
+			assertTrue(reloaded.getIds().contains("0_2020-01-05_00-00-00"));
+			assertTrue(s3.requests.get(2).startsWith("index/"));
+		}
+
+		@Test
+		@DisplayName("Finds the builds recorded by another server, whatever their id")
+		void recordTest() throws IOException {
+			FakeS3 s3 = new FakeS3(Arrays.asList("reports/m_2020-01-01_00-00-00.txt"));
+			ReportIndex index = new ReportIndex(new File(Files.createTempDirectory("index").toFile(), "report-index.txt"));
+			ReportIndex other = new ReportIndex(new File(Files.createTempDirectory("index").toFile(), "report-index.txt"));
+			assertEquals(1, index.sync(s3, "bucket"));
+
+			other.record(s3, "bucket", "a_2020-01-02_00-00-00");
+			other.record(s3, "bucket", "z_2020-01-02_00-00-00");
+			assertEquals(2, index.sync(s3, "bucket"));
+			assertEquals(Arrays.asList("m_2020-01-01_00-00-00", "a_2020-01-02_00-00-00", "z_2020-01-02_00-00-00"),
+					new ArrayList<>(index.getIds()));
+		}
+	}
+
+	private static class FakeS3 extends AbstractAmazonS3 {
+		private final List<String> keys;
+		private final List<String> requests = new ArrayList<>();
+
+		FakeS3(List<String> keys) {
+			this.keys = new ArrayList<>(keys);
+		}
+
+		@Override
+		public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+			requests.add(request.getStartAfter());
+			int start = request.getContinuationToken() == null ? 0 : Integer.parseInt(request.getContinuationToken());
+			ListObjectsV2Result result = new ListObjectsV2Result();
+			int i = start;
+			for (; i < keys.size() && result.getObjectSummaries().size() < 2; i++) {
+				String key = keys.get(i);
+				if (!key.startsWith(request.getPrefix())) continue;
+				if (request.getStartAfter() != null && key.compareTo(request.getStartAfter()) <= 0) continue;
+				S3ObjectSummary summary = new S3ObjectSummary();
+				summary.setKey(key);
+				result.getObjectSummaries().add(summary);
+			}
+			result.setTruncated(i < keys.size());
+			result.setNextContinuationToken(String.valueOf(i));
+			return result;
+		}
+
+		@Override
+		public PutObjectResult putObject(PutObjectRequest request) {
+			keys.add(request.getKey());
+			Collections.sort(keys);
+			return new PutObjectResult();
+		}
+	}
+}
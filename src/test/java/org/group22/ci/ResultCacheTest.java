@@ -0,0 +1,48 @@
+package org.group22.ci;
+
+import org.group22.ci.GitStatusHandler.BuildStatus;
+import org.group22.utilities.Helpers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultCacheTest {
+	@Nested
+	@DisplayName("Tests the get function")
+	class getTest {
+		@Test
+		@DisplayName("Reuses results across restarts and drops the least recently used")
+		void boundTest() throws IOException {
+			File file = new File(Files.createTempDirectory("cache").toFile(), "result-cache.json");
+			file.deleteOnExit();
+			ResultCache cache = new ResultCache(file, 3600000, 2);
+			cache.put("a", new ResultCache.Entry("build_a", BuildStatus.SUCCESS, new Helpers.Result(4, 0, 0, 1)));
+			cache.put("b", new ResultCache.Entry("build_b", BuildStatus.FAILURE, null));
+			assertNotNull(cache.get("a"));
+			cache.put("c", new ResultCache.Entry("build_c", BuildStatus.SUCCESS, null));
+
+			ResultCache reloaded = new ResultCache(file, 3600000, 2);
+			assertNull(reloaded.get("b"));
+			assertEquals("build_a", reloaded.get("a").getBuildId());
+			assertEquals(4, reloaded.get("a").getResult().getTestRun());
+			assertEquals(BuildStatus.SUCCESS, reloaded.get("c").getStatus());
+		}
+
+		@Test
+		@DisplayName("Ignores expired results")
+		void ttlTest() throws IOException, InterruptedException {
+			File file = new File(Files.createTempDirectory("cache").toFile(), "result-cache.json");
+			file.deleteOnExit();
+			ResultCache cache = new ResultCache(file, 1, 10);
+			cache.put("a", new ResultCache.Entry("build_a", BuildStatus.SUCCESS, null));
+			Thread.sleep(5);
+			assertNull(cache.get("a"));
+		}
+	}
+}
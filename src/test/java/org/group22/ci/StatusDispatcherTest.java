@@ -0,0 +1,153 @@
+package org.group22.ci;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StatusDispatcherTest {
+	private final List<String> bodies = new ArrayList<>();
+	private final List<Integer> responses = new ArrayList<>();
+	private final CountDownLatch received = new CountDownLatch(1);
+	private volatile CountDownLatch release = new CountDownLatch(0);
+	private Server server;
+	private GitHubClient client;
+	private File outbox;
+
+	@BeforeEach
+	void startServer() throws Exception {
+		server = new Server(0);
+		server.setHandler(new AbstractHandler() {
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+				baseRequest.setHandled(true);
+				synchronized (bodies) {
+					bodies.add(IOUtils.toString(request.getReader()));
+				}
+				received.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				synchronized (responses) {
+					response.setStatus(responses.isEmpty() ? 201 : responses.remove(0));
+				}
+			}
+		});
+		server.start();
+		int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+		client = new GitHubClient("http://localhost:" + port, "token", 0, 10);
+		outbox = new File(Files.createTempDirectory("outbox").toFile(), "status-outbox.json");
+		outbox.deleteOnExit();
+	}
+
+	@AfterEach
+	void stopServer() throws Exception {
+		server.stop();
+	}
+
+	@Nested
+	@DisplayName("Tests the enqueue function")
+	class enqueueTest {
+		@Test
+		@DisplayName("Only sends the latest state of a commit")
+		void collapseTest() throws Exception {
+			StatusDispatcher dispatcher = new StatusDispatcher(client, outbox, 6000, 10);
+			CompletableFuture<Boolean> pending = dispatcher.enqueue("repos/o/r/statuses/a", new JSONObject().put("context", "ci").put("state", "pending"));
+			CompletableFuture<Boolean> success = dispatcher.enqueue("repos/o/r/statuses/a", new JSONObject().put("context", "ci").put("state", "success"));
+			dispatcher.enqueue("repos/o/r/statuses/b", new JSONObject().put("context", "ci").put("state", "pending"));
+			assertEquals(2, dispatcher.pending());
+
+			dispatcher.start();
+			assertTrue(success.get());
+			assertTrue(pending.get());
+			assertEquals("success", new JSONObject(bodies.get(0)).getString("state"));
+		}
+
+		@Test
+		@DisplayName("Keeps undelivered updates across restarts")
+		void persistTest() {
+			StatusDispatcher dispatcher = new StatusDispatcher(client, outbox, 6000, 10);
+			dispatcher.enqueue("repos/o/r/statuses/a", new JSONObject().put("context", "ci").put("state", "pending"));
+			assertEquals(1, new StatusDispatcher(client, outbox, 6000, 10).pending());
+		}
+
+		@Test
+		@DisplayName("Keeps an update on disk while it is being sent")
+		void inFlightTest() throws Exception {
+			release = new CountDownLatch(1);
+			StatusDispatcher dispatcher = new StatusDispatcher(client, outbox, 6000, 10);
+			CompletableFuture<Boolean> sent = dispatcher.enqueue("repos/o/r/statuses/a", new JSONObject().put("context", "ci").put("state", "pending"));
+			dispatcher.start();
+			assertTrue(received.await(10, TimeUnit.SECONDS));
+
+			dispatcher.enqueue("repos/o/r/statuses/b", new JSONObject().put("context", "ci").put("state", "pending"));
+			assertEquals(2, new StatusDispatcher(client, outbox, 6000, 10).pending());
+
+			release.countDown();
+			assertTrue(sent.get());
+		}
+
+		@Test
+		@DisplayName("Retries an update that couldn't be delivered")
+		void retryTest() throws Exception {
+			responses.add(500);
+			StatusDispatcher dispatcher = new StatusDispatcher(client, outbox, 6000, 10, 10);
+			CompletableFuture<Boolean> pending = dispatcher.enqueue("repos/o/r/statuses/a", new JSONObject().put("context", "ci").put("state", "pending"));
+			dispatcher.start();
+
+			assertTrue(pending.get());
+			assertEquals(2, bodies.size());
+			assertEquals(0, dispatcher.pending());
+		}
+
+		@Test
+		@DisplayName("Sends other updates while one waits for a retry")
+		void scheduleTest() throws Exception {
+			responses.add(500);
+			GitHubClient slowClient = new GitHubClient(server.getURI().toString(), "token", 1, 60000);
+			StatusDispatcher dispatcher = new StatusDispatcher(slowClient, outbox, 6000, 10);
+			CompletableFuture<Boolean> failing = dispatcher.enqueue("repos/o/r/statuses/a", new JSONObject().put("context", "ci").put("state", "pending"));
+			CompletableFuture<Boolean> other = dispatcher.enqueue("repos/o/s/statuses/b", new JSONObject().put("context", "ci").put("state", "pending"));
+			dispatcher.start();
+
+			assertTrue(other.get());
+			assertFalse(failing.isDone());
+			assertEquals(1, dispatcher.pending());
+		}
+
+		@Test
+		@DisplayName("Completes with false if Github rejects the update")
+		void rejectTest() throws Exception {
+			responses.add(422);
+			StatusDispatcher dispatcher = new StatusDispatcher(client, outbox, 6000, 10, 10);
+			CompletableFuture<Boolean> pending = dispatcher.enqueue("repos/o/r/statuses/a", new JSONObject().put("context", "ci").put("state", "pending"));
+			dispatcher.start();
+
+			assertFalse(pending.get());
+			assertEquals(1, bodies.size());
+			assertEquals(0, dispatcher.pending());
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSelectionTest {
+	private File project;
+
+	@BeforeEach
+	void createProject() throws IOException {
+		project = Files.createTempDirectory("selection").toFile();
+		project.deleteOnExit();
+		writePom("", "<groupId>org.example</groupId><artifactId>parent</artifactId>"
+				+ "<modules><module>core</module><module>app</module><module>tools</module></modules>");
+		writePom("core", "<parent><groupId>org.example</groupId><artifactId>parent</artifactId></parent><artifactId>core</artifactId>");
+		writePom("app", "<parent><groupId>org.example</groupId><artifactId>parent</artifactId></parent><artifactId>app</artifactId>"
+				+ "<dependencies><dependency><groupId>${project.groupId}</groupId><artifactId>core</artifactId></dependency></dependencies>");
+		writePom("tools", "<parent><groupId>org.example</groupId><artifactId>parent</artifactId></parent><artifactId>tools</artifactId>");
+	}
+
+	private void writePom(String module, String content) throws IOException {
+		FileUtils.writeStringToFile(new File(new File(project, module), "pom.xml"), "<project>" + content + "</project>", StandardCharsets.UTF_8);
+	}
+
+	@Nested
+	@DisplayName("Tests the select function")
+	class selectTest {
+		@Test
+		@DisplayName("Selects the changed module and the modules depending on it")
+		void dependentsTest() {
+			TestSelection selection = TestSelection.select(project, "", Arrays.asList("core/src/main/java/org/example/Core.java", "README.md"));
+			assertEquals(new HashSet<>(Arrays.asList("core", "app")), selection.getModules());
+			assertTrue(selection.getTests().isEmpty());
+			assertFalse(selection.isFull());
+		}
+
+		@Test
+		@DisplayName("Runs only the changed test classes")
+		void testClassesTest() throws IOException {
+			FileUtils.writeStringToFile(new File(project, "core/src/test/java/org/example/CoreTest.java"), "class CoreTest {}", StandardCharsets.UTF_8);
+			TestSelection selection = TestSelection.select(project, "",
+					Collections.singletonList("core/src/test/java/org/example/CoreTest.java"));
+			assertEquals(Collections.singleton("core"), selection.getModules());
+			assertEquals(Collections.singleton("org.example.CoreTest"), selection.getTests());
+		}
+
+		@Test
+		@DisplayName("Runs everything when the only changed test classes were deleted")
+		void deletedTestsTest() {
+			assertTrue(TestSelection.select(project, "", Collections.singletonList("core/src/test/java/org/example/OldTest.java")).isFull());
+		}
+
+		@Test
+		@DisplayName("Runs everything when build files change or the changes are unknown")
+		void fullTest() {
+			assertTrue(TestSelection.select(project, "", Collections.singletonList("app/pom.xml")).isFull());
+			assertTrue(TestSelection.select(project, "", Collections.singletonList(".mvn/maven.config")).isFull());
+			assertTrue(TestSelection.select(project, "", Collections.singletonList("scripts/run.sh")).isFull());
+			assertTrue(TestSelection.select(project, "", null).isFull());
+		}
+
+		@Test
+		@DisplayName("Resolves paths relative to the Maven project directory")
+		void projectDirectoryTest() {
+			TestSelection selection = TestSelection.select(project, "backend", Collections.singletonList("backend/tools/src/main/java/Tool.java"));
+			assertEquals(Collections.singleton("tools"), selection.getModules());
+			assertTrue(TestSelection.select(project, "backend", Collections.singletonList("frontend/index.js")).isFull());
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package org.group22.ci;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorkspaceManagerTest {
+	private static void waitForEmptyTrash(File root) throws InterruptedException {
+		File trash = new File(root, ".ci-trash");
+		for (int i = 0; i < 50 && trash.list() != null && trash.list().length > 0; i++) Thread.sleep(100);
+	}
+
+	@Nested
+	@DisplayName("Tests the release function")
+	class releaseTest {
+		@Test
+		@DisplayName("Removes the workspace right away and deletes its files in the background")
+		void basicTest() throws IOException, InterruptedException {
+			File root = Files.createTempDirectory("workspaces").toFile();
+			root.deleteOnExit();
+			WorkspaceManager manager = new WorkspaceManager(root, 0);
+			File workspace = manager.allocate("abc123_2020-01-01_00-00-00");
+			FileUtils.writeStringToFile(new File(workspace, "repo/target/classes/A.class"), "class", StandardCharsets.UTF_8);
+
+			manager.release("abc123_2020-01-01_00-00-00");
+			assertFalse(workspace.exists());
+			waitForEmptyTrash(root);
+			assertEquals(0, new File(root, ".ci-trash").list().length);
+			assertTrue(manager.metrics().contains("workspace_reaped_total 1"));
+		}
+	}
+
+	@Nested
+	@DisplayName("Tests the reclaim orphans function")
+	class reclaimOrphansTest {
+		@Test
+		@DisplayName("Reclaims workspaces of builds that didn't finish")
+		void orphanTest() throws IOException, InterruptedException {
+			File root = Files.createTempDirectory("workspaces").toFile();
+			root.deleteOnExit();
+			File crashed = new WorkspaceManager(root, 0).allocate("abc123_2020-01-01_00-00-00");
+			FileUtils.writeStringToFile(new File(crashed, "repo/pom.xml"), "<project/>", StandardCharsets.UTF_8);
+			WorkspaceManager manager = new WorkspaceManager(root, 0);
+			File running = manager.allocate("def456_2020-01-01_00-00-00");
+
+			assertEquals(1, manager.reclaimOrphans());
+			assertFalse(crashed.exists());
+			assertTrue(running.exists());
+			waitForEmptyTrash(root);
+			assertEquals(0, new File(root, ".ci-trash").list().length);
+		}
+
+		@Test
+		@DisplayName("Leaves the files of others in a shared root alone")
+		void foreignTest() throws IOException, InterruptedException {
+			File root = Files.createTempDirectory("workspaces").toFile();
+			root.deleteOnExit();
+			File foreignFile = new File(root, "session.lock");
+			File foreignFolder = new File(root, "other-app/cache.bin");
+			File unmarked = new File(root, "abc123_2020-01-01_00-00-00/data.txt");
+			File trash = new File(root, ".trash/keep.txt");
+			for (File file : new File[]{foreignFile, foreignFolder, unmarked, trash}) {
+				FileUtils.writeStringToFile(file, "data", StandardCharsets.UTF_8);
+			}
+			WorkspaceManager manager = new WorkspaceManager(root, 0);
+
+			assertEquals(0, manager.reclaimOrphans());
+			waitForEmptyTrash(root);
+			for (File file : new File[]{foreignFile, foreignFolder, unmarked, trash}) {
+				assertTrue(file.exists(), file.getPath());
+			}
+		}
+	}
+}
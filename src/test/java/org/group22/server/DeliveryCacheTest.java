@@ -0,0 +1,58 @@
+package org.group22.server;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeliveryCacheTest {
+	@Nested
+	@DisplayName("Tests the add function")
+	class addTest {
+		@Test
+		@DisplayName("A delivery is only new the first time")
+		void duplicateTest() {
+			DeliveryCache cache = new DeliveryCache(10, 60000);
+			assertFalse(cache.contains("a"));
+			assertTrue(cache.add("a"));
+			assertTrue(cache.contains("a"));
+			assertFalse(cache.add("a"));
+		}
+
+		@Test
+		@DisplayName("The oldest delivery is forgotten when the cache is full")
+		void evictionTest() {
+			DeliveryCache cache = new DeliveryCache(2, 60000);
+			cache.add("a");
+			cache.add("b");
+			cache.add("c");
+			assertFalse(cache.contains("a"));
+			assertTrue(cache.contains("b"));
+			assertTrue(cache.contains("c"));
+		}
+
+		@Test
+		@DisplayName("Deliveries are forgotten after the time to live")
+		void expiryTest() throws InterruptedException {
+			DeliveryCache cache = new DeliveryCache(10, 50);
+			cache.add("a");
+			Thread.sleep(100);
+			assertFalse(cache.contains("a"));
+			assertTrue(cache.add("a"));
+		}
+	}
+
+	@Nested
+	@DisplayName("Tests the remove function")
+	class removeTest {
+		@Test
+		@DisplayName("A removed delivery is handled again")
+		void basicTest() {
+			DeliveryCache cache = new DeliveryCache(10, 60000);
+			cache.add("a");
+			cache.remove("a");
+			assertTrue(cache.add("a"));
+		}
+	}
+}
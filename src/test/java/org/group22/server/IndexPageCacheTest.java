@@ -0,0 +1,155 @@
+package org.group22.server;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.group22.ci.BuildRegistry;
+import org.group22.ci.GitStatusHandler.BuildStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndexPageCacheTest {
+	private BuildRegistry registry;
+	private IndexPageCache cache;
+	private Server server;
+	private String url;
+
+	@BeforeEach
+	void startServer() throws Exception {
+		registry = new BuildRegistry();
+		for (int day = 1; day <= 5; day++) {
+			registry.put(new BuildRegistry.BuildRecord("build_2020-01-0" + day + "_10-00-00", day % 2 == 0 ? "even" : "odd", "master",
+					BuildStatus.SUCCESS, null));
+		}
+		cache = new IndexPageCache(registry);
+
+		server = new Server(0);
+		server.setHandler(new AbstractHandler() {
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+				baseRequest.setHandled(true);
+				cache.get(null, null, null, 10).write(request, response);
+			}
+		});
+		server.start();
+		url = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/";
+	}
+
+	@AfterEach
+	void stopServer() throws Exception {
+		server.stop();
+	}
+
+	private static String html(IndexPageCache.Page page) {
+		return new String(page.getHtml(), StandardCharsets.UTF_8);
+	}
+
+	private HttpURLConnection request(String header, String value) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		if (header != null) connection.setRequestProperty(header, value);
+		return connection;
+	}
+
+	@Nested
+	@DisplayName("Tests the get function")
+	class getTest {
+		@Test
+		@DisplayName("Pages through the builds newest first")
+		void paginationTest() {
+			String first = html(cache.get(null, null, null, 2));
+			assertTrue(first.indexOf("build_2020-01-05_10-00-00") < first.indexOf("build_2020-01-04_10-00-00"));
+			assertFalse(first.contains("build_2020-01-03_10-00-00"));
+			assertTrue(first.contains("/reports?cursor=build_2020-01-04_10-00-00&amp;limit=2"));
+
+			String second = html(cache.get(null, null, "build_2020-01-04_10-00-00", 2));
+			assertTrue(second.contains("build_2020-01-03_10-00-00"));
+			assertTrue(second.contains("build_2020-01-02_10-00-00"));
+			assertFalse(second.contains("build_2020-01-04_10-00-00"));
+
+			String last = html(cache.get(null, null, "build_2020-01-02_10-00-00", 2));
+			assertTrue(last.contains("build_2020-01-01_10-00-00"));
+			assertFalse(last.contains("Older builds"));
+		}
+
+		@Test
+		@DisplayName("Filters the builds by repository")
+		void repositoryTest() {
+			String page = html(cache.get("even", null, null, 10));
+			assertTrue(page.contains("build_2020-01-02_10-00-00"));
+			assertTrue(page.contains("build_2020-01-04_10-00-00"));
+			assertFalse(page.contains("build_2020-01-01_10-00-00"));
+		}
+
+		@Test
+		@DisplayName("Renders a page again once a build was added")
+		void versionTest() {
+			IndexPageCache.Page page = cache.get(null, null, null, 10);
+			assertSame(page, cache.get(null, null, null, 10));
+
+			registry.add("build_2020-01-06_10-00-00");
+			IndexPageCache.Page updated = cache.get(null, null, null, 10);
+			assertNotEquals(page.getETag(false), updated.getETag(false));
+			assertTrue(html(updated).contains("build_2020-01-06_10-00-00"));
+		}
+
+		@Test
+		@DisplayName("Escapes the build ids")
+		void escapeTest() {
+			registry.add("x_2020-01-06_10-00-00<script>");
+			String page = html(cache.get(null, null, null, 10));
+			assertFalse(page.contains("<script>"));
+			assertTrue(page.contains("x_2020-01-06_10-00-00&lt;script&gt;"));
+		}
+	}
+
+	@Nested
+	@DisplayName("Tests the write function")
+	class writeTest {
+		@Test
+		@DisplayName("Answers 304 when the client has the current version")
+		void notModifiedTest() throws Exception {
+			HttpURLConnection first = request(null, null);
+			assertEquals(200, first.getResponseCode());
+			String eTag = first.getHeaderField("ETag");
+			assertNotNull(eTag);
+
+			assertEquals(304, request("If-None-Match", eTag).getResponseCode());
+
+			registry.add("build_2020-01-06_10-00-00");
+			HttpURLConnection changed = request("If-None-Match", eTag);
+			assertEquals(200, changed.getResponseCode());
+			assertNotEquals(eTag, changed.getHeaderField("ETag"));
+		}
+
+		@Test
+		@DisplayName("Compresses the page only for clients that accept gzip")
+		void gzipTest() throws Exception {
+			HttpURLConnection plain = request(null, null);
+			assertNull(plain.getHeaderField("Content-Encoding"));
+			String html = IOUtils.toString(plain.getInputStream(), StandardCharsets.UTF_8);
+
+			HttpURLConnection compressed = request("Accept-Encoding", "gzip");
+			assertEquals("gzip", compressed.getHeaderField("Content-Encoding"));
+			assertEquals("Accept-Encoding", compressed.getHeaderField("Vary"));
+			assertNotEquals(plain.getHeaderField("ETag"), compressed.getHeaderField("ETag"));
+			byte[] body = IOUtils.toByteArray(compressed.getInputStream());
+			assertEquals(html, IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(body)), StandardCharsets.UTF_8));
+		}
+	}
+}
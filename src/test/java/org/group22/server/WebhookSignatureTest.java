@@ -0,0 +1,79 @@
+package org.group22.server;
+
+import org.group22.ci.PushEvent;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WebhookSignatureTest {
+	private static final String SECRET = "It's a Secret to Everybody";
+	private static final String BODY = "{\"ref\":\"refs/heads/main\",\"head_commit\":{\"id\":\"a\",\"message\":\"Hi\"},"
+			+ "\"pusher\":{\"name\":\"someone\"},\"repository\":{\"name\":\"repo\",\"clone_url\":\"url\"}}\n\n";
+
+	private static String sign(String secret, String body) throws Exception {
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+		StringBuilder hex = new StringBuilder("sha256=");
+		for (byte b : mac.doFinal(body.getBytes(StandardCharsets.UTF_8))) hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	private static WebhookSignature.SignedInputStream parsed(String body) throws Exception {
+		WebhookSignature.SignedInputStream signed = new WebhookSignature(SECRET)
+				.wrap(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+		assertNotNull(PushEvent.parse(signed, 1 << 20));
+		return signed;
+	}
+
+	@Nested
+	@DisplayName("Tests the verify function")
+	class verifyTest {
+		@Test
+		@DisplayName("Accepts the signature of the raw body, including bytes the parser didn't need")
+		void validTest() throws Exception {
+			assertTrue(parsed(BODY).verify(sign(SECRET, BODY)));
+		}
+
+		@Test
+		@DisplayName("Matches the example from the Github documentation")
+		void githubExampleTest() throws Exception {
+			WebhookSignature.SignedInputStream signed = new WebhookSignature(SECRET)
+					.wrap(new ByteArrayInputStream("Hello, World!".getBytes(StandardCharsets.UTF_8)));
+			assertTrue(signed.verify("sha256=757107ea0eb2509fc211221cce984b8a37570b6d7586c22c46f4379c8b043e17"));
+		}
+
+		@Test
+		@DisplayName("Rejects a wrong, missing or malformed signature")
+		void invalidTest() throws Exception {
+			assertFalse(parsed(BODY).verify(sign("other secret", BODY)));
+			assertFalse(parsed(BODY).verify(null));
+			assertFalse(parsed(BODY).verify("sha1=abc"));
+			assertFalse(parsed(BODY).verify("sha256=zz"));
+		}
+
+		@Test
+		@DisplayName("Rejects the signature of a different body")
+		void tamperedTest() throws Exception {
+			assertFalse(parsed(BODY).verify(sign(SECRET, BODY.replace("main", "evil"))));
+		}
+	}
+
+	@Nested
+	@DisplayName("Tests the isEnabled function")
+	class isEnabledTest {
+		@Test
+		@DisplayName("Signatures are only checked when a secret is set")
+		void basicTest() {
+			assertTrue(new WebhookSignature(SECRET).isEnabled());
+			assertFalse(new WebhookSignature(null).isEnabled());
+			assertFalse(new WebhookSignature("").isEnabled());
+		}
+	}
+}
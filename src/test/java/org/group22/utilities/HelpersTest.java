@@ -2,6 +2,7 @@ package org.group22.utilities;
 
 
 import org.group22.ci.AWSFileUploader;
+import org.group22.ci.BuildRegistry;
 
 import org.group22.utilities.Configuration;
 
@@ -149,11 +150,9 @@ public class HelpersTest {
 		@Test
 		@DisplayName("Basic test")
 		void basicTest() {
-			Set<String> set = new HashSet();
-			String id = "id";
-			set.add(id);
 			Helpers.updatePreviousBuilds("id");
-			assertEquals(set, Configuration.PREVIOUS_BUILDS);
+			assertTrue(BuildRegistry.getInstance().contains("id"));
+			assertNull(BuildRegistry.getInstance().get("id").getRepository());
 		}
 	}
 
@@ -0,0 +1,38 @@
+package org.group22.utilities;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReportTemplateTest {
+	@Nested
+	@DisplayName("Tests the render function")
+	class renderTest {
+		@Test
+		@DisplayName("Fills in the placeholders and keeps the rest of the template")
+		void basicTest() throws IOException {
+			ReportTemplate template = new ReportTemplate("<p>[tr] [fl]</p>\n<div style=\"height:[flHeight]px\">[x]</div>\n[failures]");
+			StringWriter writer = new StringWriter();
+			template.render(new Helpers.Result(4, 1, 0, 0, Collections.singletonList("ATest.bad:12 expected:<1> but was:<2>")), writer);
+			assertEquals("<p>4 1</p>\n<div style=\"height:25px\">[x]</div>\n<ul>\n    <li>ATest.bad:12 expected:&lt;1&gt; but was:&lt;2&gt;</li>\n</ul>",
+					writer.toString());
+		}
+
+		@Test
+		@DisplayName("Renders a build without tests")
+		void noTestsTest() throws IOException {
+			StringWriter writer = new StringWriter();
+			ReportTemplate.getInstance().render(new Helpers.Result(0, 0, 0, 0), writer);
+			assertTrue(writer.toString().contains("height:0px;"));
+			assertTrue(writer.toString().contains("Tests run: 0"));
+			assertTrue(writer.toString().contains("</style>\n"));
+			assertFalse(writer.toString().contains("[failures]"));
+		}
+	}
+}